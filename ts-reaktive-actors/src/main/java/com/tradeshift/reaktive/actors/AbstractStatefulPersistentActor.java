@@ -18,7 +18,16 @@ import akka.event.LoggingAdapter;
 import akka.japi.Procedure;
 import akka.japi.pf.ReceiveBuilder;
 import akka.persistence.AbstractPersistentActorWithTimers;
+import akka.persistence.DeleteMessagesFailure;
+import akka.persistence.DeleteMessagesSuccess;
+import akka.persistence.DeleteSnapshotsFailure;
+import akka.persistence.DeleteSnapshotsSuccess;
+import akka.persistence.RecoveryCompleted;
+import akka.persistence.SaveSnapshotFailure;
+import akka.persistence.SaveSnapshotSuccess;
+import akka.persistence.SnapshotMetadata;
 import akka.persistence.SnapshotOffer;
+import akka.persistence.SnapshotSelectionCriteria;
 import akka.persistence.journal.Tagged;
 import akka.actor.Status.Failure;
 import io.vavr.collection.Seq;
@@ -42,6 +51,9 @@ import scala.concurrent.duration.Duration;
  * 
  * Implementations should not use the persistAsync* variants, as they would allow internal actor state to diverge.
  * 
+ * Snapshots of the state are saved according to the settings under ts-reaktive.actors.snapshots, using the
+ * {@link SnapshotSerializer} returned by {@link #getSnapshotSerializer()}. They're disabled by default.
+ * 
  * @param <C> Type of commands that this actor expects to receive.
  * @param <E> Type of events that this actor emits.
  * @param <S> Immutable type that contains all the state the actor maintains.
@@ -51,12 +63,17 @@ public abstract class AbstractStatefulPersistentActor<C,E,S extends AbstractStat
     
     private S state = initialState();
     private boolean idle = true;
+    private long eventsSinceSnapshot = 0;
+    /** Time of the last snapshot, or 0 if none has been seen yet during recovery */
+    private long lastSnapshotTime = 0;
 
     //IDEA: We can save memory per actor by pushing these fields down into a type class, since the fields have the same value for every type of actor...
     protected final Class<E> eventType;
     protected final Class<C> commandType;
     private final String tagName;
     private final CommandHandler<C,E,S> handlers;
+    private final int snapshotEveryEvents;
+    private final long snapshotEveryMillis;
     
     public static String getEventTag(Config config, Class<?> eventType) {
         ConfigObject tags = config.getConfig("ts-reaktive.actors.tags").root();
@@ -68,12 +85,54 @@ public abstract class AbstractStatefulPersistentActor<C,E,S extends AbstractStat
         this.eventType = eventType;
         this.tagName = getEventTag(context().system().settings().config(), eventType);
         this.handlers = handlers;
+        this.snapshotEveryEvents = getSnapshotEveryEvents();
+        this.snapshotEveryMillis = getSnapshotEveryTime().toMillis();
         context().setReceiveTimeout(Duration.fromNanos(getPassivateTimeout().toNanos()));
     }
 
     protected java.time.Duration getPassivateTimeout() {
         return context().system().settings().config().getDuration("ts-reaktive.actors.passivate-timeout");
     }
+    
+    /**
+     * Returns after how many persisted events a new snapshot should be saved, or 0 if snapshots should not be saved
+     * based on the number of events.
+     */
+    protected int getSnapshotEveryEvents() {
+        return context().system().settings().config().getInt("ts-reaktive.actors.snapshots.every-events");
+    }
+    
+    /**
+     * Returns after how much time a new snapshot should be saved (if any events have been persisted since), or
+     * Duration.ZERO if snapshots should not be saved based on time.
+     */
+    protected java.time.Duration getSnapshotEveryTime() {
+        return context().system().settings().config().getDuration("ts-reaktive.actors.snapshots.every-time");
+    }
+    
+    /**
+     * Returns whether older snapshots should be deleted after a new snapshot has been saved successfully.
+     */
+    protected boolean isDeleteOldSnapshots() {
+        return context().system().settings().config().getBoolean("ts-reaktive.actors.snapshots.delete-old-snapshots");
+    }
+    
+    /**
+     * Returns whether events up to and including the snapshot should be deleted after the snapshot has been saved successfully.
+     * 
+     * Only enable this if no read side (materializers, replication) needs to see those events anymore.
+     */
+    protected boolean isDeleteOldEvents() {
+        return context().system().settings().config().getBoolean("ts-reaktive.actors.snapshots.delete-old-events");
+    }
+    
+    /**
+     * Returns the serializer that converts the state to and from snapshots. The default implementation passes
+     * the state unchanged into the snapshot store, which requires S to have an akka serializer binding.
+     */
+    protected SnapshotSerializer<S> getSnapshotSerializer() {
+        return SnapshotSerializer.identity();
+    }
 
     /**
      * Returns whether the asynchronous part of a Handler for this command is currently in progress
@@ -111,6 +170,22 @@ public abstract class AbstractStatefulPersistentActor<C,E,S extends AbstractStat
             })
             .matchEquals(ReceiveTimeout.getInstance(), msg -> passivate())
             .match(Stop.class, msg -> context().stop(self()))
+            .match(SaveSnapshotSuccess.class, msg -> snapshotSaved(msg.metadata()))
+            .match(SaveSnapshotFailure.class, msg -> {
+                log.warning("Could not save snapshot {}: {}", msg.metadata(), msg.cause());
+            })
+            .match(DeleteSnapshotsSuccess.class, msg -> {
+                log.debug("Deleted snapshots {}", msg.criteria());
+            })
+            .match(DeleteSnapshotsFailure.class, msg -> {
+                log.warning("Could not delete snapshots {}: {}", msg.criteria(), msg.cause());
+            })
+            .match(DeleteMessagesSuccess.class, msg -> {
+                log.debug("Deleted events up to {}", msg.toSequenceNr());
+            })
+            .match(DeleteMessagesFailure.class, msg -> {
+                log.warning("Could not delete events up to {}: {}", msg.toSequenceNr(), msg.cause());
+            })
             .build();
     }
 
@@ -119,7 +194,18 @@ public abstract class AbstractStatefulPersistentActor<C,E,S extends AbstractStat
         return ReceiveBuilder.create()
             .match(eventType, evt -> { updateState(evt); })
             .match(SnapshotOffer.class, snapshot -> {
-                // Snapshots support is not implemented yet.
+                log.debug("Recovering from snapshot {}", snapshot.metadata());
+                state = getSnapshotSerializer().fromSnapshot(snapshot.snapshot());
+                eventsSinceSnapshot = 0;
+                lastSnapshotTime = snapshot.metadata().timestamp();
+            })
+            .match(RecoveryCompleted.class, msg -> {
+                // Long-lived actors that have never been snapshotted get their first snapshot right away.
+                saveSnapshotIfDue();
+                if (lastSnapshotTime == 0) {
+                    // Fresh actors (no events yet) start their snapshot interval now.
+                    lastSnapshotTime = System.currentTimeMillis();
+                }
             })
             .build();
     }
@@ -222,6 +308,7 @@ public abstract class AbstractStatefulPersistentActor<C,E,S extends AbstractStat
         super.persist(tagged(e), persisted -> {
             updateState(e);
             callback.apply(event);
+            saveSnapshotIfDue();
         });
     }
     
@@ -250,6 +337,7 @@ public abstract class AbstractStatefulPersistentActor<C,E,S extends AbstractStat
         super.persistAll(tagged((Iterable<E>) events), persisted -> {
             updateState((E) persisted.payload());
             callback.apply((A) persisted.payload());
+            saveSnapshotIfDue();
         });
     }
     
@@ -274,9 +362,40 @@ public abstract class AbstractStatefulPersistentActor<C,E,S extends AbstractStat
      */
     private void updateState(E evt) {
         state = state.apply(evt);
+        eventsSinceSnapshot++;
         havePersisted(evt);
     }
     
+    /**
+     * Saves a snapshot of the current state, if enough events or time have passed since the last one.
+     */
+    private void saveSnapshotIfDue() {
+        if (eventsSinceSnapshot == 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if ((snapshotEveryEvents > 0 && eventsSinceSnapshot >= snapshotEveryEvents) ||
+            (snapshotEveryMillis > 0 && now - lastSnapshotTime >= snapshotEveryMillis)) {
+            log.debug("Saving snapshot at {} after {} events", lastSequenceNr(), eventsSinceSnapshot);
+            saveSnapshot(getSnapshotSerializer().toSnapshot(state));
+            eventsSinceSnapshot = 0;
+            lastSnapshotTime = now;
+        }
+    }
+    
+    /**
+     * Cleans up older snapshots and/or events, if configured, after a snapshot has been saved.
+     */
+    private void snapshotSaved(SnapshotMetadata metadata) {
+        log.debug("Saved snapshot {}", metadata);
+        if (isDeleteOldSnapshots() && metadata.sequenceNr() > 1) {
+            deleteSnapshots(SnapshotSelectionCriteria.create(metadata.sequenceNr() - 1, Long.MAX_VALUE));
+        }
+        if (isDeleteOldEvents()) {
+            deleteMessages(metadata.sequenceNr());
+        }
+    }
+    
     /**
      * Subclasses can implement this to run custom code whenever an event was found to have been persisted
      * (both directly after having been emitted and stored, or during recovery).
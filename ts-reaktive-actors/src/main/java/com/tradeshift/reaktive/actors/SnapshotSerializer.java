@@ -0,0 +1,41 @@
+package com.tradeshift.reaktive.actors;
+
+/**
+ * Converts the state of an {@link AbstractStatefulPersistentActor} into the object that is handed to the akka snapshot store,
+ * and back again during recovery.
+ *
+ * The object returned by {@link #toSnapshot(Object)} is serialized by akka's own serialization, so it should either be
+ * a type for which a serializer binding exists (e.g. a protobuf message), or be {@link java.io.Serializable}.
+ *
+ * @param <S> Type of the actor's state
+ */
+public interface SnapshotSerializer<S> {
+    /**
+     * Returns a SnapshotSerializer that passes the state unchanged to the snapshot store. This requires the state
+     * class itself to have an akka serializer binding.
+     */
+    @SuppressWarnings("unchecked")
+    public static <S> SnapshotSerializer<S> identity() {
+        return new SnapshotSerializer<S>() {
+            @Override
+            public Object toSnapshot(S state) {
+                return state;
+            }
+
+            @Override
+            public S fromSnapshot(Object snapshot) {
+                return (S) snapshot;
+            }
+        };
+    }
+
+    /**
+     * Returns the object that represents [state] in the snapshot store.
+     */
+    public abstract Object toSnapshot(S state);
+
+    /**
+     * Restores the state from an object that was earlier returned by {@link #toSnapshot(Object)}.
+     */
+    public abstract S fromSnapshot(Object snapshot);
+}
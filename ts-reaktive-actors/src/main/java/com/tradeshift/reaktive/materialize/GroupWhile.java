@@ -1,5 +1,7 @@
 package com.tradeshift.reaktive.materialize;
 
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 
 import org.slf4j.Logger;
@@ -59,33 +61,42 @@ public class GroupWhile<T> extends GraphStage<FlowShape<T,Seq<T>>> {
     @Override
     public GraphStageLogic createLogic(Attributes inheritedAttributes) {
         return new TimerGraphStageLogic(shape) {
-            Seq<T> buffer = Vector.empty();
+            // Re-used for every group, so it only grows until it fits the largest group seen.
+            final ArrayList<T> buffer = new ArrayList<>(Math.min(maxGroupSize + 1, 1024));
+            final long idleEmitTimeoutNanos = idleEmitTimeout.toNanos();
+            long lastPush;
 
             {
                 setHandler(in, new AbstractInHandler() {
                     @Override
                     public void onPush() {
                         T t = grab(in);
+                        lastPush = System.nanoTime();
 
                         if (buffer.isEmpty() || test.apply(buffer.get(buffer.size() - 1), t)) {
-                            buffer = buffer.append(t);
-                            scheduleOnce("idle", idleEmitTimeout);
+                            buffer.add(t);
+                            if (buffer.size() > maxGroupSize) {
+                                failStage(new BufferOverflowException("Exceeded configured GroupWhile buffer size of " + maxGroupSize));
+                                return;
+                            }
                             pull(in);
                         } else {
-                            emitBuffer();
-                            scheduleOnce("idle", idleEmitTimeout);
-                            buffer = buffer.append(t);
+                            Seq<T> group = takeBuffer();
+                            buffer.add(t);
+                            emit(out, group);
                         }
-                        if (buffer.size() > maxGroupSize) {
-                            failStage(new BufferOverflowException("Exceeded configured GroupWhile buffer size of " + maxGroupSize));
-                            return;
+                        // The timer is only started here; onTimer() re-schedules it while elements keep coming in.
+                        if (!isTimerActive("idle")) {
+                            scheduleOnce("idle", idleEmitTimeout);
                         }
                     }
 
                     @Override
                     public void onUpstreamFinish() {
-                        emitBuffer();
-                        completeStage();
+                        if (!buffer.isEmpty()) {
+                            emit(out, takeBuffer());
+                        }
+                        complete(out);
                     }
                 });
 
@@ -99,18 +110,22 @@ public class GroupWhile<T> extends GraphStage<FlowShape<T,Seq<T>>> {
                 });
             }
 
-            private void emitBuffer() {
-                if (!buffer.isEmpty() && isAvailable(out)) {
-                    emit(out, buffer);
-                    buffer = Vector.empty();
-                    cancelTimer("idle");
-                }
+            /** Returns an immutable copy of the buffer, and clears the buffer for the next group */
+            private Seq<T> takeBuffer() {
+                Seq<T> group = Vector.ofAll(buffer);
+                buffer.clear();
+                return group;
             }
 
             @Override
             public void onTimer(Object timerKey) {
-                log.debug("Idle timeout reached with {} elements waiting", buffer.size());
-                emitBuffer();
+                long idle = System.nanoTime() - lastPush;
+                if (idle < idleEmitTimeoutNanos) {
+                    scheduleOnce("idle", FiniteDuration.create(idleEmitTimeoutNanos - idle, TimeUnit.NANOSECONDS));
+                } else if (!buffer.isEmpty()) {
+                    log.debug("Idle timeout reached with {} elements waiting", buffer.size());
+                    emit(out, takeBuffer());
+                }
             }
         };
     }
@@ -8,11 +8,11 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 import java.io.Serializable;
 import java.time.Duration;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.UUID;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import com.tradeshift.reaktive.CompletableFutures;
 import com.tradeshift.reaktive.akka.SharedActorMaterializer;
@@ -32,11 +32,11 @@ import akka.persistence.DeleteMessagesFailure;
 import akka.persistence.DeleteMessagesSuccess;
 import akka.persistence.RecoveryCompleted;
 import akka.stream.ActorMaterializer;
-import akka.stream.KillSwitch;
 import akka.stream.KillSwitches;
-import akka.stream.javadsl.Keep;
+import akka.stream.SharedKillSwitch;
 import akka.stream.javadsl.Sink;
 import akka.stream.javadsl.Source;
+import io.vavr.Tuple;
 import io.vavr.collection.HashMap;
 import io.vavr.collection.Map;
 import io.vavr.collection.Seq;
@@ -64,17 +64,32 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
     private final FiniteDuration updateAccuracy;
     private final FiniteDuration restartDelay;
     private final int batchSize;
+    private final boolean pipelined;
+    private final int maxInFlight;
+    private final boolean bulkPerUpdateGroup;
     private final int updateSize;
     private final int maxEventsPerTimestamp;
     private final int maxWorkerCount;
     private final int deleteMessagesAfter;
     private final Duration updateOffsetInterval;
-    private final AtomicReference<Instant> reimportProgress = new AtomicReference<>();
+    private final boolean autoSplit;
+    private final Duration autoSplitDelay;
+    private final Duration autoSplitMinRange;
+    private final Duration autoSplitInterval;
+    private final int reimportParallelism;
+    private final int reimportMaxEntitiesByEntity;
     private final ActorMaterializer materializer;
 
     private volatile MaterializerWorkers workers;
-    private Option<KillSwitch> ongoingReimport = Option.none();
+    private Option<MaterializerReimport> reimport = none();
+    /** A re-import that has been requested, but for which preStartReimport() hasn't completed yet */
+    private Option<MaterializerReimport> preparingReimport = none();
+    /** Kill switch for the streams of the running re-import, if any. Also identifies that run in messages from its streams. */
+    private Option<SharedKillSwitch> reimportStreams = none();
+    /** Sequence number of the event that started the current re-import, which must not be deleted while it's in progress */
+    private long reimportSequenceNr = 0;
     private Map<UUID,AtomicLong> workerEndTimestamps = HashMap.empty();
+    private Instant lastSplitCheck = Instant.now();
 
     protected MaterializerActor() {
         this(HashMap.empty());
@@ -92,11 +107,20 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
         updateAccuracy = FiniteDuration.create(config.getDuration("update-accuracy", SECONDS), SECONDS);
         restartDelay = FiniteDuration.create(config.getDuration("restart-delay", SECONDS), SECONDS);
         batchSize = config.getInt("batch-size");
+        pipelined = config.getBoolean("pipelined");
+        maxInFlight = config.getInt("max-in-flight");
+        bulkPerUpdateGroup = parseBulkScope(config.getString("bulk-scope"));
         updateSize = config.getInt("update-size");
         maxEventsPerTimestamp = config.getInt("max-events-per-timestamp");
         maxWorkerCount = config.getInt("max-worker-count");
         updateOffsetInterval = config.getDuration("update-offset-interval");
         deleteMessagesAfter = config.getInt("delete-messages-after");
+        autoSplit = config.getBoolean("auto-split.enabled");
+        autoSplitDelay = config.getDuration("auto-split.delay");
+        autoSplitMinRange = config.getDuration("auto-split.min-range");
+        autoSplitInterval = config.getDuration("auto-split.interval");
+        reimportParallelism = config.getInt("reimport.parallelism");
+        reimportMaxEntitiesByEntity = config.getInt("reimport.max-entities-by-entity");
         this.workers = MaterializerWorkers.empty(Duration.ofMillis(rollback.toMillis()));
         metrics = new MaterializerMetrics(getClass().getSimpleName().replaceAll("([a-z])([A-Z]+)", "$1-$2").toLowerCase(),
             additionalMetricTags);
@@ -105,6 +129,14 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
         getContext().setReceiveTimeout(updateOffsetInterval);
     }
 
+    private static boolean parseBulkScope(String scope) {
+        switch (scope) {
+            case "concurrency-key": return false;
+            case "update-group": return true;
+            default: throw new IllegalArgumentException("Unknown bulk-scope " + scope + ", expecting concurrency-key or update-group.");
+        }
+    }
+
     @Override
     public void postRestart(Throwable reason) throws Exception {
         super.postRestart(reason);
@@ -117,21 +149,55 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
         return ReceiveBuilder.create()
             .match(ReceiveTimeout.class, msg -> {
                 recordOffsetMetric();
+                splitLaggingWorker();
             })
             .match(CancelReimport.class, msg -> {
                 cancelReimport();
             })
             .match(Reimport.class, msg -> {
-                reimport(msg.entityIds);
+                reimport(msg.entityIds, msg.since);
+            })
+            .match(ReimportPrepared.class, msg -> {
+                onReimportPrepared(msg);
+            })
+            .match(ReimportPartProgress.class, msg -> reimportStreams.contains(msg.run), msg -> {
+                updateReimport(r -> r.onPartProgress(msg.part, msg.timestamp), some(updateAccuracy));
+            })
+            .match(ReimportPartDone.class, msg -> reimportStreams.contains(msg.run) && msg.part != null, msg -> {
+                log.debug("Re-import of part {} completed.", msg.part);
+                updateReimport(r -> r.onPartDone(msg.part), none());
+            })
+            .match(ReimportEntityDone.class, msg -> reimportStreams.contains(msg.run), msg -> {
+                // Entities aren't conflated, so we acknowledge right away to not slow down the stream.
+                updateReimport(r -> r.onEntityDone(msg.entityId), some(FiniteDuration.Zero()));
+            })
+            .match(ReimportPartProgress.class, msg -> {
+                // A stream of an earlier re-import run, which has been shut down. Its progress doesn't apply anymore.
+                sender().tell("ack", self());
+            })
+            .match(ReimportEntityDone.class, msg -> {
+                // A stream of an earlier re-import run, which might not have re-imported the entity for the current run.
+                sender().tell("ack", self());
+            })
+            .match(ReimportPartDone.class, msg -> {
+                // A re-import by entity, or a stream of an earlier re-import run, has stopped. Nothing to do.
+            })
+            .match(ReimportFailure.class, msg -> reimportStreams.contains(msg.run), msg -> {
+                log.error(msg.cause, "Re-import failed, restarting in {}", restartDelay);
+                stopReimport();
+                context().system().scheduler().scheduleOnce(restartDelay, self(), ResumeReimport.instance, context().dispatcher(), self());
+            })
+            .match(ReimportFailure.class, msg -> {
+                log.debug("A stream of an earlier re-import run has failed: {}", msg.cause);
+            })
+            .match(ResumeReimport.class, msg -> {
+                if (reimportStreams.isEmpty()) {
+                    startReimport();
+                }
             })
             .match(QueryProgress.class, msg -> {
                 sendProgress();
             })
-            .matchEquals("reimportComplete", msg -> {
-                log.info("Re-import completed.");
-                this.ongoingReimport = none();
-                reimportProgress.set(null);
-            })
             .match(StartWorker.class, msg -> {
                 materializeEvents(msg.worker);
             })
@@ -144,10 +210,8 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
                     applyEvent(evt);
                     context().system().scheduler().scheduleOnce(
                         updateAccuracy, sender(), "ack", context().dispatcher(), self());
-                    if ((lastSequenceNr() > 1) && ((lastSequenceNr() % deleteMessagesAfter) == 0)) {
-                        log.debug("Deleting up to {}", lastSequenceNr() - 1);
-                        deleteMessages(lastSequenceNr() - 1);
-                    }
+                    deleteOldMessages();
+                    splitLaggingWorker();
                 });
             })
             .match(DeleteMessagesSuccess.class, msg -> {
@@ -179,10 +243,26 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
     }
 
     private void sendProgress() {
-        Option<Instant> reimportP = Option.of(reimportProgress.get());
+        // Re-imports by entity don't progress along the time line, so they're reported at the epoch.
+        Option<Instant> reimportP = reimport.map(r -> r.getTimestamp().getOrElse(Instant.EPOCH));
         sender().tell(new Progress(reimportP, workers), self());
     }
 
+    /**
+     * Since every event contains the complete state of the workers, only the latest event needs to be kept. A re-import
+     * is only persisted completely when it starts, with later events recording its progress, so while a re-import is
+     * in progress, events from its start are kept.
+     */
+    private void deleteOldMessages() {
+        if ((lastSequenceNr() > 1) && ((lastSequenceNr() % deleteMessagesAfter) == 0)) {
+            long toSequenceNr = reimport.isDefined() ? Math.min(lastSequenceNr(), reimportSequenceNr) - 1 : lastSequenceNr() - 1;
+            if (toSequenceNr > 0) {
+                log.debug("Deleting up to {}", toSequenceNr);
+                deleteMessages(toSequenceNr);
+            }
+        }
+    }
+
     private void createWorker(Instant timestamp, Option<Instant> endTimestamp) {
         if (workers.getIds().size() >= maxWorkerCount) {
             log.warning("Ignoring request to start extra worker at {}, because maximum of {} is already reached.",
@@ -193,6 +273,26 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
         persistAndApply(workers.startWorker(timestamp, endTimestamp));
     }
 
+    /**
+     * If auto-split is enabled, starts an extra worker halfway the time range of the worker that is furthest behind,
+     * as long as the maximum number of workers hasn't been reached.
+     */
+    private void splitLaggingWorker() {
+        Instant now = Instant.now();
+        if (!autoSplit || workers.getIds().size() >= maxWorkerCount || now.isBefore(lastSplitCheck.plus(autoSplitInterval))) {
+            return;
+        }
+        lastSplitCheck = now;
+
+        for (Instant t: workers.getSplitTimestamp(now, autoSplitDelay, autoSplitMinRange)) {
+            log.info("Splitting lagging workers by starting an extra worker at {}", t);
+            persist(workers.startWorker(t, none()), evt -> {
+                applyEvent(evt);
+                startNewWorkers();
+            });
+        }
+    }
+
     private void reset() {
         persistAndApply(workers.reset());
     }
@@ -200,14 +300,16 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
     private void persistAndApply(MaterializerActorEvent evt) {
         persist(evt, e -> {
             applyEvent(evt);
-
-            // The first worker will have been stopped and we have a new one at the epoch. Start it.
-            workers.getIds().removeAll(workerEndTimestamps.keySet()).forEach(this::materializeEvents);
-
+            startNewWorkers();
             sendProgress();
         });
     }
 
+    private void startNewWorkers() {
+        // Start any workers that the event has added (e.g. a new one at the epoch after a reset, or a split)
+        workers.getIds().removeAll(workerEndTimestamps.keySet()).forEach(this::materializeEvents);
+    }
+
     private void onWorkerStopped(UUID worker) {
         workerEndTimestamps = workerEndTimestamps.remove(worker);
         if (workers.getIds().contains(worker)) {
@@ -228,12 +330,24 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
                 }
                 log.info("Recovery completed, workers: {}", workers);
                 workers.getIds().forEach(this::materializeEvents);
+                for (MaterializerReimport r: reimport) {
+                    log.info("Resuming re-import: {}", r);
+                    startReimport();
+                }
             })
             .build();
     }
 
     private void applyEvent(MaterializerActorEvent evt) {
         workers = workers.applyEvent(evt);
+        if (evt.hasReimport()) {
+            reimport = some(new MaterializerReimport(evt.getReimport()));
+            reimportSequenceNr = lastSequenceNr();
+        } else if (evt.getReimportEnded()) {
+            reimport = none();
+        } else if (evt.hasReimportProgress()) {
+            reimport = reimport.map(r -> r.withProgress(evt.getReimportProgress()));
+        }
         Seq<UUID> ids = workers.getIds();
         workerEndTimestamps.forEach((id, endTimestamp) -> {
             if (ids.contains(id)) {
@@ -266,7 +380,7 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
 
     @Override
     public void postStop() {
-        cancelReimport();
+        stopReimport();
     }
 
     private void materializeEvents(UUID worker) {
@@ -288,7 +402,7 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
 
         metrics.getStreams().increment();
 
-        loadEvents(workers.getTimestamp(worker))
+        Source<Seq<E>, NotUsed> groups = loadEvents(workers.getTimestamp(worker))
             .takeWhile(e -> {
                 long end = endTimestamp.get();
                 if (end == -1) {
@@ -300,20 +414,9 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
             // get a Seq<E> of where each Seq has the same timestamp, or emit buffer after [rollback]
             // (assuming no events with that timestamp after that)
             .via(GroupWhile.apply((a,b) -> timestampOf(a).equals(timestampOf(b)),
-                                  maxEventsPerTimestamp, rollback))
-
-            // Allow multiple timestamps to be processed simultaneously
-            .groupedWeightedWithin(updateSize, seq -> (long) seq.size(), Duration.ofSeconds(1))
+                                  maxEventsPerTimestamp, rollback));
 
-            // Process them, and emit a single timestamp at t
-            .mapAsync(1, listOfSeq ->
-                // re-group into batchSize, each one no longer necessarily within one timestamp
-                Source.from(Vector.ofAll(listOfSeq).flatMap(seq -> seq))
-                    .grouped(batchSize)
-                    .mapAsync(1, envelopeList -> materialize(workers.getIds().indexOf(worker), envelopeList))
-                    .runWith(Sink.ignore(), materializer)
-                    .thenApply(done -> timestampOf(listOfSeq.get(listOfSeq.size() - 1).last()).toEpochMilli())
-            )
+        (pipelined ? materializePipelined(worker, groups) : materializeBatched(worker, groups))
             //keep highest last offset, in order to limit the amount of events sent to the journal
             .conflate(Long::max)
             .map(t -> new WorkerProgress(worker, Instant.ofEpochMilli(t)))
@@ -321,39 +424,200 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
                 "init", "ack", new WorkerDone(worker), x -> new WorkerFailure(worker, x)), materializer);
     }
 
-    private void reimport(Set<String> entityIds) {
-        if (ongoingReimport.isDefined()) {
+    /**
+     * Materializes groups of events (with the same timestamp) in batches of [batchSize], where each batch is
+     * completed before the next one is started. Emits the timestamps that have been completely materialized.
+     */
+    private Source<Long, NotUsed> materializeBatched(UUID worker, Source<Seq<E>, NotUsed> groups) {
+        return groups
+            // Allow multiple timestamps to be processed simultaneously
+            .groupedWeightedWithin(updateSize, seq -> (long) seq.size(), Duration.ofSeconds(1))
+
+            // Process them, and emit a single timestamp at t
+            .mapAsync(1, listOfSeq -> {
+                Vector<E> envelopes = Vector.ofAll(listOfSeq).flatMap(seq -> seq);
+                return materializeUpdateGroup(worker, envelopes)
+                    .thenApply(done -> timestampOf(envelopes.last()).toEpochMilli());
+            });
+    }
+
+    /**
+     * Materializes an update group, either as a whole or in batches of [batchSize], depending on the bulk-scope setting.
+     */
+    private CompletionStage<Done> materializeUpdateGroup(UUID worker, Vector<E> envelopes) {
+        if (bulkPerUpdateGroup) {
+            return materializeBulk(workers.getIds().indexOf(worker), envelopes);
+        } else {
+            // re-group into batchSize, each one no longer necessarily within one timestamp
+            return Source.from(envelopes)
+                .grouped(batchSize)
+                .mapAsync(1, envelopeList -> materialize(workers.getIds().indexOf(worker), envelopeList))
+                .runWith(Sink.ignore(), materializer);
+        }
+    }
+
+    /**
+     * Materializes events in lanes per concurrency key, where each event only waits for the previous event with the
+     * same key. At most [maxInFlight] events are being materialized (or waiting for their lane) at the same time.
+     * Emits the timestamps that have been completely materialized.
+     */
+    private Source<Long, NotUsed> materializePipelined(UUID worker, Source<Seq<E>, NotUsed> groups) {
+        java.util.Map<String, CompletionStage<Done>> lanes = new ConcurrentHashMap<>();
+        return groups
+            // mark the last event for each timestamp, since that's when the timestamp is done
+            .mapConcat(seq -> seq.zipWithIndex().map(t -> Tuple.of(t._1, t._2 == seq.size() - 1)))
+            // mapAsync emits in upstream order, so all earlier events have been materialized once an element comes out.
+            .mapAsync(maxInFlight, t -> materializeInLane(lanes, worker, t._1).thenApply(done ->
+                t._2 ? some(timestampOf(t._1).toEpochMilli()) : Option.<Long>none()))
+            .filter(Option::isDefined)
+            .map(Option::get);
+    }
+
+    /**
+     * Materializes the given envelope after the previous envelope with the same concurrency key has been materialized.
+     */
+    private CompletionStage<Done> materializeInLane(java.util.Map<String, CompletionStage<Done>> lanes, UUID worker, E envelope) {
+        String key = getConcurrencyKey(envelope);
+        CompletionStage<Done> next = lanes.getOrDefault(key, done).thenCompose(d -> {
+            int workerIndex = workers.getIds().indexOf(worker);
+            long start = System.nanoTime();
+            return materialize(envelope).thenApply(d2 -> {
+                metrics.getEvents(workerIndex).increment();
+                metrics.getMaterializationDuration(workerIndex).record((System.nanoTime() - start) / 1000000);
+                return d2;
+            });
+        });
+        lanes.put(key, next);
+        next.whenComplete((d, x) -> lanes.remove(key, next));
+        return next;
+    }
+
+    private void reimport(Set<String> entityIds, Instant since) {
+        if (reimport.isDefined() || preparingReimport.isDefined()) {
             sender().tell(new Failure(new IllegalStateException("A re-import is already in progress.")), self());
             return;
         }
+        if (entityIds.isEmpty()) {
+            sender().tell(new Failure(new IllegalArgumentException("A re-import needs at least one entity.")), self());
+            return;
+        }
 
-        log.info("Starting a reimport for {} entities.", entityIds.size());
-        ActorRef self = self();
         Instant maxTimestamp = Instant.now().minusMillis(rollback.toMillis());
+        MaterializerReimport r;
+        if (entityIds.size() <= reimportMaxEntitiesByEntity && entityIds.forAll(id -> loadEntityEvents(id).isDefined())) {
+            log.info("Starting a reimport for {} entities, by entity.", entityIds.size());
+            r = MaterializerReimport.byEntity(entityIds, maxTimestamp);
+        } else {
+            log.info("Starting a reimport for {} entities, from {}.", entityIds.size(), since);
+            r = MaterializerReimport.scan(entityIds, since, maxTimestamp, reimportParallelism);
+        }
 
-        reimportProgress.set(Instant.EPOCH);
-        ongoingReimport = some(Source.fromCompletionStage(preStartReimport(entityIds))
-            .flatMapConcat(done -> loadEvents(Instant.EPOCH))
-            .viaMat(KillSwitches.single(), Keep.right())
-            .filter(e -> entityIds.contains(getEntityId(e).toString()))
-            .takeWhile(e -> timestampOf(e).isBefore(maxTimestamp))
-            .mapAsync(1, e -> materialize(e).thenApply(done -> {
-                Instant t = timestampOf(e);
-                reimportProgress.set(t);
-                return t;
-            }))
-            .conflate((t1, t2) -> (t1.isAfter(t2)) ? t1 : t2)
-            .throttle(1, Duration.ofSeconds(1))
-            .map(t -> {
-                metrics.getReimportRemaining().set(ChronoUnit.MILLIS.between(t, maxTimestamp));
-                return Done.getInstance();
-            })
-            .toMat(Sink.onComplete(result -> self.tell("reimportComplete", self())), Keep.left())
-            .run(materializer));
+        preparingReimport = some(r);
+        ActorRef self = self();
+        preStartReimport(entityIds).whenComplete((done, x) -> self.tell(new ReimportPrepared(r, Option.of(x)), self));
 
         sender().tell(Done.getInstance(), self());
     }
 
+    private void onReimportPrepared(ReimportPrepared msg) {
+        if (!preparingReimport.contains(msg.reimport)) {
+            // The re-import was cancelled in the mean time.
+            return;
+        }
+        preparingReimport = none();
+        if (msg.failure.isDefined()) {
+            log.error(msg.failure.get(), "preStartReimport() failed, not starting re-import.");
+            return;
+        }
+        persist(workers.unchanged().toBuilder().setReimport(msg.reimport.toProtobuf()).build(), evt -> {
+            applyEvent(evt);
+            startReimport();
+        });
+    }
+
+    /**
+     * Starts the streams for the current re-import, resuming where it has progressed to.
+     */
+    private void startReimport() {
+        if (reimport.isEmpty()) {
+            return;
+        }
+        MaterializerReimport r = reimport.get();
+        SharedKillSwitch run = KillSwitches.shared("reimport");
+        reimportStreams = some(run);
+
+        if (r.isByEntity()) {
+            reimportByEntity(r, run);
+        } else {
+            r.getPartIds().forEach(part -> reimportPart(r, part, run));
+        }
+    }
+
+    /**
+     * Re-imports the events for [reimport.parallelism] entities at a time, loading the events for each entity separately.
+     */
+    private void reimportByEntity(MaterializerReimport r, SharedKillSwitch run) {
+        Instant end = r.getEndTimestamp();
+        Source.from(r.getEntityIds())
+            .via(run.flow())
+            .flatMapMerge(reimportParallelism, entityId -> loadEntityEvents(entityId).get()
+                .takeWhile(e -> timestampOf(e).isBefore(end))
+                .mapAsync(1, e -> materialize(e))
+                .fold(entityId, (id, done) -> id))
+            .map(entityId -> new ReimportEntityDone(run, entityId))
+            .runWith(Sink.actorRefWithAck(self(),
+                "init", "ack", new ReimportPartDone(run, null), x -> new ReimportFailure(run, x)), materializer);
+    }
+
+    /**
+     * Re-imports the events in one part of the time line, reporting progress as it goes.
+     */
+    private void reimportPart(MaterializerReimport r, UUID part, SharedKillSwitch run) {
+        Set<String> entityIds = r.getEntityIds();
+        Instant end = r.getEndTimestamp(part);
+        loadEvents(r.getTimestamp(part))
+            .via(run.flow())
+            .takeWhile(e -> timestampOf(e).isBefore(end))
+            .filter(e -> entityIds.contains(getEntityId(e)))
+            .mapAsync(1, e -> materialize(e).thenApply(done -> timestampOf(e).toEpochMilli()))
+            .conflate(Long::max)
+            .map(t -> new ReimportPartProgress(run, part, Instant.ofEpochMilli(t)))
+            .runWith(Sink.actorRefWithAck(self(),
+                "init", "ack", new ReimportPartDone(run, part), x -> new ReimportFailure(run, x)), materializer);
+    }
+
+    /**
+     * Persists an update to the current re-import (if any), and if [ackDelay] is given, acknowledges the message
+     * to sender() after that delay.
+     */
+    private void updateReimport(Function<MaterializerReimport, MaterializerReimport> f, Option<FiniteDuration> ackDelay) {
+        if (reimport.isEmpty()) {
+            if (ackDelay.isDefined()) {
+                sender().tell("ack", self());
+            }
+            return;
+        }
+        MaterializerReimport updated = f.apply(reimport.get());
+        MaterializerActorEvent.Builder event = workers.unchanged().toBuilder();
+        if (updated.isDone()) {
+            event.setReimportEnded(true);
+        } else {
+            event.setReimportProgress(updated.getProgressSince(reimport.get()));
+        }
+        persist(event.build(), evt -> {
+            applyEvent(evt);
+            for (FiniteDuration delay: ackDelay) {
+                context().system().scheduler().scheduleOnce(
+                    delay, sender(), "ack", context().dispatcher(), self());
+            }
+            deleteOldMessages();
+            if (reimport.isEmpty()) {
+                log.info("Re-import completed.");
+                stopReimport();
+            }
+        });
+    }
+
     /**
      * This method is invoked whenever a reimport is started with the given entity IDs.
      * Sub-classes can override this to do additional cleanup, beyond just re-importing the events.
@@ -363,16 +627,22 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
     }
 
     private void cancelReimport() {
-        ongoingReimport.forEach(k -> {
+        stopReimport();
+        preparingReimport = none();
+        if (reimport.isDefined()) {
             log.info("Cancelling a reimport.");
-            k.shutdown();
-        });
-        ongoingReimport = none();
-        reimportProgress.set(null);
+            persist(workers.unchanged().toBuilder().setReimportEnded(true).build(), this::applyEvent);
+        }
 
         sender().tell(Done.getInstance(), self());
     }
 
+    /** Stops the streams of the current re-import, if they're running */
+    private void stopReimport() {
+        reimportStreams.forEach(k -> k.shutdown());
+        reimportStreams = none();
+    }
+
     private void recordOffsetMetric() {
         Seq<UUID> ids = workers.getIds();
         metrics.getWorkers().set(workers.getIds().size());
@@ -384,10 +654,28 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
                 metrics.getRemaining(i).set(Duration.between(offset, end).toMillis());
             }
         }
+        for (MaterializerReimport r: reimport) {
+            for (Instant t: r.getTimestamp()) {
+                metrics.getReimportRemaining().set(Duration.between(t, r.getEndTimestamp()).toMillis());
+            }
+        }
     }
 
     protected abstract CompletionStage<Done> materialize(E envelope);
 
+    /**
+     * Materializes several envelopes, which must be applied in the given order. Depending on the bulk-scope setting,
+     * these are all envelopes of one batch that share a concurrency key, or a complete update group.
+     *
+     * Override this to write the envelopes to your store in one go. The default implementation invokes
+     * {@link #materialize(Object)} for each envelope, after the previous one has completed.
+     *
+     * This is not used in pipelined mode, which always materializes single envelopes.
+     */
+    protected CompletionStage<Done> materialize(Seq<E> envelopes) {
+        return materializeSequential(envelopes);
+    }
+
     /**
      * Returns the entity ID for the given envelope.
      */
@@ -412,7 +700,7 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
             Vector.ofAll(envelopes)
             .groupBy(this::getConcurrencyKey)
             .values()
-            .map(es -> persistSequential(workerIndex, es))
+            .map(es -> materializeBulk(workerIndex, es))
             .map(c -> c.toCompletableFuture())
         ).thenApply(seqOfDone -> {
             long dur = (System.nanoTime() - start) / 1000;
@@ -426,15 +714,24 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
         });
     }
 
-    private CompletionStage<Done> persistSequential(int workerIndex, Seq<E> seq) {
+    /**
+     * Invokes {@link #materialize(Seq)}, and records the events and batch metrics once it completes.
+     */
+    private CompletionStage<Done> materializeBulk(int workerIndex, Seq<E> envelopes) {
+        long start = System.nanoTime();
+        return materialize(envelopes).thenApply(d -> {
+            metrics.getEvents(workerIndex).increment(envelopes.size());
+            metrics.getBatchSize(workerIndex).record(envelopes.size());
+            metrics.getBatchDuration(workerIndex).record((System.nanoTime() - start) / 1000000);
+            return d;
+        });
+    }
+
+    private CompletionStage<Done> materializeSequential(Seq<E> seq) {
         if (seq.isEmpty()) {
             return done;
         } else {
-            return materialize(seq.head())
-                .thenCompose(done -> {
-                    metrics.getEvents(workerIndex).increment();
-                    return persistSequential(workerIndex, seq.tail());
-                });
+            return materialize(seq.head()).thenCompose(done -> materializeSequential(seq.tail()));
         }
     }
 
@@ -444,6 +741,17 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
      */
     protected abstract Source<E, NotUsed> loadEvents(Instant since);
 
+    /**
+     * Get a source of all event envelopes for the given entity, ordered by sequence number, if the journal supports
+     * this (e.g. through currentEventsByPersistenceId). Small re-imports then load the events of each entity
+     * separately, rather than scanning the whole time line.
+     *
+     * The default implementation returns none.
+     */
+    protected Option<Source<E, NotUsed>> loadEntityEvents(String entityId) {
+        return none();
+    }
+
     /**
      * Get a timestamp of event envelope.
      */
@@ -453,11 +761,18 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
      * Message that can be sent to this actor to start a secondary re-import of certain UUIDs.
      * The main import stream will keep running while the re-import is underway.
      *
-     * The re-import will scan the source journal for the specified ids from the start of the journal
-     * until the time that the Reimport message was initially received. The ids are compared by string
-     * representation of the actual getEntityId method, which should work fine for both strings and UUID.
+     * The re-import will scan the source journal for the specified ids from the given timestamp (or the start of
+     * the journal) until the time that the Reimport message was initially received, in [reimport.parallelism]
+     * parts at the same time. The ids are compared by string representation of the actual getEntityId method,
+     * which should work fine for both strings and UUID.
+     *
+     * If there are few ids, and {@link #loadEntityEvents(String)} is implemented, the events of each id are loaded
+     * separately instead.
+     *
+     * A re-import is persisted, and resumes where it was when the actor is restarted. The entity ids are persisted
+     * once when the re-import starts, so journal events from then on are kept until the re-import has ended.
      *
-     * A re-import is transient and will not resume or continue when the actor system is restarted.
+     * A re-import needs at least one entity id; an empty set is rejected with a Failure reply.
      *
      * Multiple concurrent re-imports are not supported; an in-progress Reimport needs to be cancelled
      * first through CancelReimport.
@@ -466,9 +781,24 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
         private static final long serialVersionUID = 1L;
 
         private final Set<String> entityIds;
+        private final Instant since;
 
         public Reimport(Set<String> entityIds) {
+            this(entityIds, Instant.EPOCH);
+        }
+
+        /**
+         * @param since Timestamp from which to re-import events. Passing the timestamp of the oldest relevant event,
+         *              rather than the epoch, spreads the work more evenly across the parallel parts.
+         */
+        public Reimport(Set<String> entityIds, Instant since) {
             this.entityIds = entityIds;
+            this.since = since;
+        }
+
+        /** Reimport messages serialized before [since] was added don't have it, and re-import from the epoch. */
+        private Object readResolve() {
+            return (since == null) ? new Reimport(entityIds, Instant.EPOCH) : this;
         }
     }
 
@@ -606,6 +936,67 @@ public abstract class MaterializerActor<E> extends AbstractPersistentActor {
         }
     }
 
+    /** Internal message, sent to the actor when preStartReimport() has completed (or failed). */
+    private static class ReimportPrepared {
+        private final MaterializerReimport reimport;
+        private final Option<Throwable> failure;
+
+        public ReimportPrepared(MaterializerReimport reimport, Option<Throwable> failure) {
+            this.reimport = reimport;
+            this.failure = failure;
+        }
+    }
+
+    /** Internal status message, sent from a re-import stream to actor every so often. */
+    private static class ReimportPartProgress {
+        private final SharedKillSwitch run;
+        private final UUID part;
+        private final Instant timestamp;
+
+        public ReimportPartProgress(SharedKillSwitch run, UUID part, Instant timestamp) {
+            this.run = run;
+            this.part = part;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /** Internal status message, sent from a re-import stream to actor when it completes. Part is null for re-imports by entity. */
+    private static class ReimportPartDone {
+        private final SharedKillSwitch run;
+        private final UUID part;
+
+        public ReimportPartDone(SharedKillSwitch run, UUID part) {
+            this.run = run;
+            this.part = part;
+        }
+    }
+
+    /** Internal status message, sent from a re-import stream to actor when all events for an entity have been re-imported. */
+    private static class ReimportEntityDone {
+        private final SharedKillSwitch run;
+        private final String entityId;
+
+        public ReimportEntityDone(SharedKillSwitch run, String entityId) {
+            this.run = run;
+            this.entityId = entityId;
+        }
+    }
+
+    /** Internal status message, sent from a re-import stream to actor when it fails. */
+    private static class ReimportFailure {
+        private final SharedKillSwitch run;
+        private final Throwable cause;
+
+        public ReimportFailure(SharedKillSwitch run, Throwable cause) {
+            this.run = run;
+            this.cause = cause;
+        }
+    }
+
+    private static class ResumeReimport {
+        private static final ResumeReimport instance = new ResumeReimport();
+    }
+
     private static class WorkerDone {
         private final UUID worker;
 
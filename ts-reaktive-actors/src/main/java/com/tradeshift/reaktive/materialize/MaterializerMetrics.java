@@ -23,6 +23,10 @@ public class MaterializerMetrics {
     private final GaugeMetric remaining;
     /** The duration, milliseconds, of materializing a single event */
     private final HistogramMetric materializationDuration;
+    /** The number of events handed to each invocation of materialize(Seq) */
+    private final HistogramMetric batchSize;
+    /** The duration, milliseconds, of each invocation of materialize(Seq) */
+    private final HistogramMetric batchDuration;
     private final Gauge workers;
     private final Gauge streams;
 
@@ -36,6 +40,8 @@ public class MaterializerMetrics {
         this.delay = Kamon.gauge("journal-materializer.delay", MeasurementUnit.time().milliseconds());
         this.remaining = Kamon.gauge("journal-materializer.remaining", MeasurementUnit.time().milliseconds());
         this.materializationDuration = Kamon.histogram("journal-materializer.materialization-duration", MeasurementUnit.time().milliseconds());
+        this.batchSize = Kamon.histogram("journal-materializer.batch-size");
+        this.batchDuration = Kamon.histogram("journal-materializer.batch-duration", MeasurementUnit.time().milliseconds());
         this.workers = Kamon.gauge("journal-materializer.workers").refine(tags);
         this.streams = Kamon.gauge("journal-materializer.streams").refine(tags);
     }
@@ -64,6 +70,14 @@ public class MaterializerMetrics {
         return materializationDuration.refine(baseTags.put("index", String.valueOf(index)).toJavaMap());
     }
 
+    public Histogram getBatchSize(int index) {
+        return batchSize.refine(baseTags.put("index", String.valueOf(index)).toJavaMap());
+    }
+
+    public Histogram getBatchDuration(int index) {
+        return batchDuration.refine(baseTags.put("index", String.valueOf(index)).toJavaMap());
+    }
+
     public Gauge getReimportRemaining() {
         return reimportRemaining;
     }
@@ -0,0 +1,176 @@
+package com.tradeshift.reaktive.materialize;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import com.tradeshift.reaktive.protobuf.MaterializerActor.MaterializerActorEvent.Reimport;
+import com.tradeshift.reaktive.protobuf.MaterializerActor.MaterializerActorEvent.ReimportProgress;
+import com.tradeshift.reaktive.protobuf.MaterializerActor.MaterializerActorEvent.Worker;
+import com.tradeshift.reaktive.protobuf.UUIDs;
+
+import io.vavr.collection.HashSet;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Set;
+import io.vavr.collection.Stream;
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
+
+/**
+ * Contains the state of a re-import for a MaterializerActor, i.e. which entities are being re-imported, and either
+ * which entities are left (when re-importing by entity), or how far each parallel part of the time line has progressed.
+ */
+public class MaterializerReimport {
+    /**
+     * Returns a re-import that scans the time line between [since] and [until] in [parallelism] equal parts,
+     * re-importing the events of the given entities.
+     */
+    public static MaterializerReimport scan(Set<String> entityIds, Instant since, Instant until, int parallelism) {
+        long start = since.toEpochMilli();
+        long length = Math.max(until.toEpochMilli() - start, 0);
+        int parts = (int) Math.max(1, Math.min(parallelism, length));
+        return new MaterializerReimport(Reimport.newBuilder()
+            .addAllEntityId(entityIds)
+            .setEndTimestamp(until.toEpochMilli())
+            .addAllWorker(Stream.range(0, parts).map(i -> Worker.newBuilder()
+                .setId(UUIDs.toProtobuf(UUID.randomUUID()))
+                .setTimestamp(start + length * i / parts)
+                .setEndTimestamp(start + length * (i + 1) / parts)
+                .build()))
+            .build());
+    }
+
+    /**
+     * Returns a re-import that loads the events of each of the given entities separately, up to [until].
+     */
+    public static MaterializerReimport byEntity(Set<String> entityIds, Instant until) {
+        return new MaterializerReimport(Reimport.newBuilder()
+            .addAllEntityId(entityIds)
+            .setEndTimestamp(until.toEpochMilli())
+            .setByEntity(true)
+            .build());
+    }
+
+    private final Reimport state;
+    private final Set<String> entityIds;
+
+    public MaterializerReimport(Reimport state) {
+        this.state = state;
+        this.entityIds = HashSet.ofAll(state.getEntityIdList());
+    }
+
+    public Reimport toProtobuf() {
+        return state;
+    }
+
+    /** Returns whether events are loaded per entity, rather than by scanning the time line */
+    public boolean isByEntity() {
+        return state.getByEntity();
+    }
+
+    /** Returns whether there's nothing left to re-import */
+    public boolean isDone() {
+        return isByEntity() ? entityIds.isEmpty() : state.getWorkerCount() == 0;
+    }
+
+    /** Returns the entities to re-import (when re-importing by entity: the entities that are left) */
+    public Set<String> getEntityIds() {
+        return entityIds;
+    }
+
+    /** Returns the timestamp (exclusive) up to which events are re-imported */
+    public Instant getEndTimestamp() {
+        return Instant.ofEpochMilli(state.getEndTimestamp());
+    }
+
+    /** Returns the IDs of the parts of the time line that still need to be scanned */
+    public Seq<UUID> getPartIds() {
+        return Vector.ofAll(state.getWorkerList()).map(Worker::getId).map(UUIDs::toJava);
+    }
+
+    /** Returns the timestamp (inclusive) at which scanning the given part should resume */
+    public Instant getTimestamp(UUID part) {
+        return Instant.ofEpochMilli(get(part).getTimestamp());
+    }
+
+    /** Returns the timestamp (exclusive) at which scanning the given part is done */
+    public Instant getEndTimestamp(UUID part) {
+        return Instant.ofEpochMilli(get(part).getEndTimestamp());
+    }
+
+    /** Returns the earliest timestamp that any part still has to resume at, if any parts are left */
+    public Option<Instant> getTimestamp() {
+        return Vector.ofAll(state.getWorkerList()).map(Worker::getTimestamp).min().map(Instant::ofEpochMilli);
+    }
+
+    /** Returns a new MaterializerReimport where the given part has progressed up to (and including) [timestamp] */
+    public MaterializerReimport onPartProgress(UUID part, Instant timestamp) {
+        int index = indexOf(part);
+        if (index == -1 || timestamp.toEpochMilli() <= state.getWorker(index).getTimestamp()) {
+            return this;
+        }
+        // Other events with the same timestamp might still follow, so we restart at the timestamp itself.
+        return new MaterializerReimport(state.toBuilder()
+            .setWorker(index, state.getWorker(index).toBuilder().setTimestamp(timestamp.toEpochMilli()))
+            .build());
+    }
+
+    /** Returns a new MaterializerReimport where the given part has been completely scanned */
+    public MaterializerReimport onPartDone(UUID part) {
+        int index = indexOf(part);
+        if (index == -1) {
+            return this;
+        }
+        return new MaterializerReimport(state.toBuilder()
+            .clearWorker()
+            .addAllWorker(Vector.ofAll(state.getWorkerList()).removeAt(index))
+            .build());
+    }
+
+    /** Returns a new MaterializerReimport where the events for the given entity have been re-imported */
+    public MaterializerReimport onEntityDone(String entityId) {
+        return new MaterializerReimport(state.toBuilder()
+            .clearEntityId()
+            .addAllEntityId(entityIds.remove(entityId))
+            .build());
+    }
+
+    /**
+     * Returns the progress that has been made since [previous], an earlier state of the same re-import. Unlike the
+     * complete state, this doesn't include the entities that are still left.
+     */
+    public ReimportProgress getProgressSince(MaterializerReimport previous) {
+        return ReimportProgress.newBuilder()
+            .addAllWorker(state.getWorkerList())
+            .addAllEntityIdDone(previous.entityIds.removeAll(entityIds))
+            .build();
+    }
+
+    /** Returns a new MaterializerReimport with the given progress, as returned by {@link #getProgressSince}, applied */
+    public MaterializerReimport withProgress(ReimportProgress progress) {
+        return new MaterializerReimport(state.toBuilder()
+            .clearWorker()
+            .addAllWorker(progress.getWorkerList())
+            .clearEntityId()
+            .addAllEntityId(entityIds.removeAll(progress.getEntityIdDoneList()))
+            .build());
+    }
+
+    private int indexOf(UUID part) {
+        return Vector.ofAll(state.getWorkerList()).map(Worker::getId).indexOf(UUIDs.toProtobuf(part));
+    }
+
+    private Worker get(UUID part) {
+        int index = indexOf(part);
+        if (index == -1) {
+            throw new IllegalArgumentException("Unknown re-import part: " + part);
+        }
+        return state.getWorker(index);
+    }
+
+    @Override
+    public String toString() {
+        return isByEntity()
+            ? entityIds.size() + " entities left"
+            : entityIds.size() + " entities, parts: " + getPartIds().map(id -> getTimestamp(id) + " -> " + getEndTimestamp(id)).mkString(", ");
+    }
+}
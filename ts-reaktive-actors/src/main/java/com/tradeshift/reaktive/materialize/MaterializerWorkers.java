@@ -3,6 +3,7 @@ package com.tradeshift.reaktive.materialize;
 import static com.tradeshift.reaktive.protobuf.UUIDs.toJava;
 import static com.tradeshift.reaktive.protobuf.UUIDs.toProtobuf;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.TemporalAmount;
 import java.util.UUID;
@@ -16,6 +17,7 @@ import org.slf4j.LoggerFactory;
 
 import com.tradeshift.reaktive.protobuf.UUIDs;
 
+import io.vavr.Tuple;
 import io.vavr.collection.Seq;
 import io.vavr.collection.Vector;
 import io.vavr.control.Option;
@@ -159,7 +161,8 @@ public class MaterializerWorkers {
         }
     }
     
-    private MaterializerActorEvent unchanged() {
+    /** Returns an event that leaves all workers as they are */
+    public MaterializerActorEvent unchanged() {
         return toEvent(workers);
     }
 
@@ -248,6 +251,24 @@ public class MaterializerWorkers {
         }
     }
 
+    /**
+     * Returns the timestamp at which a new worker should be started in order to split up the work of the
+     * worker with the largest remaining time range, if that worker is more than [maxDelay] behind [now],
+     * and its remaining time range is at least twice [minRange]. The last worker is considered to run
+     * until [now] minus rollback.
+     *
+     * Split workers are merged back automatically, since a worker stops when it reaches the next worker's timestamp.
+     */
+    public Option<Instant> getSplitTimestamp(Instant now, Duration maxDelay, Duration minRange) {
+        long latest = now.minus(rollback).toEpochMilli();
+        return workers
+            .filter(w -> now.toEpochMilli() - w.getTimestamp() > maxDelay.toMillis())
+            .map(w -> Tuple.of(w.getTimestamp(), w.hasEndTimestamp() ? w.getEndTimestamp() : latest))
+            .filter(range -> range._2 - range._1 >= 2 * minRange.toMillis())
+            .maxBy(range -> range._2 - range._1)
+            .map(range -> Instant.ofEpochMilli(range._1 + (range._2 - range._1) / 2));
+    }
+
     private static long earliest(long a, Option<Instant> b) {
         return (b.isEmpty() || a < b.get().toEpochMilli()) ? a : b.get().toEpochMilli();
     }
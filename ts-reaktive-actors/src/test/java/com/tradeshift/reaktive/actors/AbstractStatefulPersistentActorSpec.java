@@ -99,7 +99,7 @@ public class AbstractStatefulPersistentActorSpec extends SharedActorSystemSpec {
         }
 
         public MyActor() {
-            super(String.class, MyEvent.class, new Handler1().orElse(new Handler2()).orElse(new HandlerA()).orElse(new HandlerB()).orElse(new FailingHandler()));
+            super(String.class, MyEvent.class, new Handler1().orElse(new Handler2()).orElse(new HandlerA()).orElse(new HandlerB()).orElse(new FailingHandler()).orElse(new GetHandler()));
         }
         
         @Override
@@ -109,6 +109,45 @@ public class AbstractStatefulPersistentActorSpec extends SharedActorSystemSpec {
         
     }
     
+    public static class SnapshottingActor extends MyActor {
+        @Override
+        protected int getSnapshotEveryEvents() {
+            return 2;
+        }
+        
+        @Override
+        protected SnapshotSerializer<MyState> getSnapshotSerializer() {
+            return new SnapshotSerializer<MyState>() {
+                @Override
+                public Object toSnapshot(MyState state) {
+                    return state.msg;
+                }
+
+                @Override
+                public MyState fromSnapshot(Object snapshot) {
+                    return new MyState("snapshot" + snapshot);
+                }
+            };
+        }
+    }
+    
+    public static class GetHandler implements SynchronousCommandHandler<String, MyEvent, MyState> {
+        @Override
+        public boolean canHandle(String cmd) {
+            return cmd.equals("get");
+        }
+
+        @Override
+        public Results<MyEvent> handleSynchronously(MyState state, String cmd) {
+            return new Results<MyEvent>() {
+                @Override
+                public Object getReply(Seq<MyEvent> emittedEvents, long lastSequenceNr) {
+                    return state.msg;
+                }
+            };
+        }
+    }
+    
     public static class Handler1 extends MyActor.Handler {
         @Override
         public boolean canHandle(String cmd) {
@@ -165,5 +204,25 @@ public class AbstractStatefulPersistentActorSpec extends SharedActorSystemSpec {
                 probe.expectTerminated(actor);
             });
         });
+        
+        describe("AbstractStatefulPersistentActor snapshots", () -> {
+            it("should recover from the latest snapshot, replaying only the events after it", () -> {
+                TestKit probe = new TestKit(system);
+                ActorRef actor = system.actorOf(Props.create(SnapshottingActor.class), "snapshotting1");
+                probe.send(actor, "1:a");
+                probe.expectMsgEquals(Done.getInstance());
+                probe.send(actor, "1:b");
+                probe.expectMsgEquals(Done.getInstance());
+                probe.send(actor, "1:c");
+                probe.expectMsgEquals(Done.getInstance());
+                probe.watch(actor);
+                system.stop(actor);
+                probe.expectTerminated(actor);
+                
+                ActorRef recovered = system.actorOf(Props.create(SnapshottingActor.class), "snapshotting1");
+                probe.send(recovered, "get");
+                probe.expectMsgEquals("snapshot,1:a,1:b,1:c");
+            });
+        });
     }
 }
@@ -0,0 +1,92 @@
+package com.tradeshift.reaktive.materialize;
+
+import static com.tradeshift.reaktive.testkit.Await.eventuallyDo;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.beforeEach;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+import static org.forgerock.cuppa.Cuppa.when;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import com.tradeshift.reaktive.materialize.MaterializerActor.Progress;
+import com.tradeshift.reaktive.materialize.MaterializerActor.QueryProgress;
+import com.tradeshift.reaktive.materialize.MaterializerActorSpec.Envelope;
+import com.tradeshift.reaktive.materialize.MaterializerActorSpec.TestActor;
+import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
+import com.typesafe.config.ConfigFactory;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.stream.javadsl.Source;
+import akka.testkit.javadsl.TestKit;
+import io.vavr.collection.Stream;
+import io.vavr.collection.Vector;
+
+@RunWith(CuppaRunner.class)
+public class AutoSplitMaterializerActorSpec extends SharedActorSystemSpec {
+    public AutoSplitMaterializerActorSpec() {
+        super(ConfigFactory.parseString(
+            "ts-reaktive.actors.materializer {\n"
+          + "  max-worker-count = 3\n"
+          + "  update-offset-interval = 100 milliseconds\n"
+          + "  auto-split { enabled = true, delay = 1 day, min-range = 1 hour, interval = 100 milliseconds }\n"
+          + "}\n"));
+    }
+
+    private TestKit materialized;
+
+    private Progress progress(ActorRef actor) {
+        TestKit client = new TestKit(system);
+        actor.tell(QueryProgress.instance, client.getRef());
+        return client.expectMsgClass(Progress.class);
+    }
+
+    private void stop(ActorRef actor) {
+        TestKit watcher = new TestKit(system);
+        watcher.watch(actor);
+        system.stop(actor);
+        watcher.expectTerminated(actor);
+    }
+
+    {
+        describe("MaterializerActor with auto-split enabled", () -> {
+            beforeEach(() -> {
+                materialized = new TestKit(system);
+            });
+
+            when("its worker is lagging far behind", () -> {
+                // Events from 1970, so the single worker has decades left to go
+                Vector<Envelope> events = Stream.range(0, 10).map(i ->
+                    new Envelope(Instant.ofEpochMilli(1000000 + i * 1000), "entity" + i, i)
+                ).toVector();
+
+                it("splits it by starting extra workers, up to max-worker-count, and persists them", () -> {
+                    String name = "materializer-" + UUID.randomUUID();
+                    ActorRef actor = system.actorOf(Props.create(TestActor.class, () ->
+                        new TestActor(Source.from(events), materialized.getRef())), name);
+
+                    eventuallyDo(() -> assertThat(progress(actor).getWorkers()).hasSize(3));
+                    // Further checks don't exceed max-worker-count
+                    materialized.receiveWithin(scala.concurrent.duration.Duration.create(1, "second"));
+                    assertThat(progress(actor).getWorkers()).hasSize(3);
+
+                    // The extra workers start well after the lagging one, rather than at the same place
+                    Instant early = Instant.parse("1971-01-01T00:00:00Z");
+                    assertThat(progress(actor).getWorkers().filter(w -> w.getTimestamp().isAfter(early))).hasSize(2);
+                    stop(actor);
+
+                    ActorRef restarted = system.actorOf(Props.create(TestActor.class, () ->
+                        new TestActor(Source.from(events), materialized.getRef())), name);
+                    assertThat(progress(restarted).getWorkers()).hasSize(3);
+
+                    system.stop(restarted);
+                });
+            });
+        });
+    }
+}
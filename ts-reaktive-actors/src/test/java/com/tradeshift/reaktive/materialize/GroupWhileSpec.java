@@ -5,6 +5,7 @@ import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.forgerock.cuppa.Cuppa.describe;
 import static org.forgerock.cuppa.Cuppa.it;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
@@ -18,6 +19,7 @@ import org.junit.runner.RunWith;
 import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
 
 import akka.NotUsed;
+import akka.stream.ThrottleMode;
 import akka.stream.javadsl.Flow;
 import akka.stream.javadsl.Keep;
 import akka.stream.javadsl.Sink;
@@ -87,6 +89,43 @@ public class GroupWhileSpec extends SharedActorSystemSpec {
                 probe.expectMsg(Vector.of(2));
              });
 
+            it("should emit an incomplete last group as soon as upstream completes", () -> {
+                Flow<Integer, Seq<Integer>, NotUsed> slowTimeout = Flow.fromGraph(GroupWhile.apply(
+                    (a, b) -> a.equals(b), 5, FiniteDuration.apply(1, TimeUnit.HOURS)));
+
+                List<Seq<Integer>> result = Source.from(Vector.of(1,2,2)).via(slowTimeout).runWith(Sink.seq(), materializer)
+                    .toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+                assertThat(Vector.ofAll(result)).isEqualTo(Vector.of(Vector.of(1), Vector.of(2,2)));
+            });
+
+            it("should keep a group open while elements arrive within the idle timeout, and emit it once idle", () -> {
+                TestKit probe = new TestKit(system);
+                CompletionStage<Integer> never = new CompletableFuture<>();
+                Source.from(Vector.of(1,1,1))
+                    .throttle(1, Duration.ofMillis(100), 1, ThrottleMode.shaping())
+                    .concat(Source.fromCompletionStage(never))
+                    .via(groupWhile).runWith(Sink.actorRef(probe.getRef(), "done"), materializer);
+
+                probe.expectMsg(Vector.of(1,1,1));
+                probe.expectNoMessage(Duration.ofMillis(400));
+            });
+
+            it("should backpressure an idle group until downstream pulls", () -> {
+                TestKit probe = new TestKit(system);
+                CompletionStage<Integer> never = new CompletableFuture<>();
+                Source.from(Vector.of(1,2)).concat(Source.fromCompletionStage(never)).via(groupWhile)
+                    .runWith(Sink.actorRefWithAck(probe.getRef(), "init", "ack", "done", x -> x), materializer);
+
+                probe.expectMsg("init");
+                probe.reply("ack");
+                probe.expectMsg(Vector.of(1));
+                // The idle timeout elapses for [2] while downstream hasn't asked for more
+                probe.expectNoMessage(Duration.ofMillis(400));
+                probe.reply("ack");
+                probe.expectMsg(Vector.of(2));
+            });
+
             it("should fail if grouping more than the specified maximum size", () -> {
                 assertThatThrownBy(() -> run(1,1,1,1,1,1)).hasMessageContaining("buffer size");
             });
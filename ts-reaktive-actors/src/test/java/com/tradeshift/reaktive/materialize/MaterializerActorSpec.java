@@ -8,10 +8,14 @@ import static org.forgerock.cuppa.Cuppa.when;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 import com.tradeshift.reaktive.materialize.MaterializerActor.CreateWorker;
+import com.tradeshift.reaktive.materialize.MaterializerActor.Progress;
+import com.tradeshift.reaktive.materialize.MaterializerActor.QueryProgress;
+import com.tradeshift.reaktive.materialize.MaterializerActor.Reimport;
 import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
 import com.typesafe.config.ConfigFactory;
 
@@ -22,12 +26,16 @@ import akka.Done;
 import akka.NotUsed;
 import akka.actor.ActorRef;
 import akka.actor.Props;
+import akka.actor.Status.Failure;
 import akka.stream.javadsl.Source;
 import akka.testkit.javadsl.TestKit;
 import io.vavr.collection.HashSet;
+import io.vavr.collection.Seq;
 import io.vavr.collection.Set;
 import io.vavr.collection.Stream;
 import io.vavr.collection.Vector;
+import io.vavr.control.Option;
+import static com.tradeshift.reaktive.testkit.Await.eventuallyDo;
 import static io.vavr.control.Option.none;
 
 @RunWith(CuppaRunner.class)
@@ -52,6 +60,22 @@ public class MaterializerActorSpec extends SharedActorSystemSpec {
         assertThat(received).containsOnlyElementsOf(events);
     }
 
+    /** Asserts that the given materializer eventually has no re-import in progress anymore */
+    private void assertReimportDone(ActorRef actor) {
+        TestKit client = new TestKit(system);
+        eventuallyDo(() -> {
+            actor.tell(QueryProgress.instance, client.getRef());
+            assertThat(client.expectMsgClass(Progress.class).getReimportTimestamp()).isEmpty();
+        });
+    }
+
+    private void stop(ActorRef actor) {
+        TestKit watcher = new TestKit(system);
+        watcher.watch(actor);
+        system.stop(actor);
+        watcher.expectTerminated(actor);
+    }
+
     {
         describe("MaterializerActor", () -> {
             beforeEach(() -> {
@@ -72,6 +96,25 @@ public class MaterializerActorSpec extends SharedActorSystemSpec {
                     system.stop(actor);
                 });
 
+                it("hands batches of events to materialize(Seq), in order", () -> {
+                    ActorRef actor = system.actorOf(Props.create(BulkTestActor.class, () ->
+                        new BulkTestActor(Source.from(events), materialized.getRef())));
+
+                    Vector<Envelope> received = Vector.empty();
+                    int batches = 0;
+                    while (received.size() < events.size()) {
+                        @SuppressWarnings("unchecked")
+                        Seq<Envelope> batch = materialized.expectMsgClass(Seq.class);
+                        received = received.appendAll(batch);
+                        batches++;
+                    }
+
+                    assertThat(received).containsExactlyElementsOf(events);
+                    assertThat(batches).isLessThan(events.size());
+
+                    system.stop(actor);
+                });
+
                 it("runs concurrently if a second worker is started", () -> {
                     ActorRef actor = system.actorOf(Props.create(TestActor.class, () ->
                         new TestActor(Source.from(events), materialized.getRef())));
@@ -98,6 +141,121 @@ public class MaterializerActorSpec extends SharedActorSystemSpec {
                     system.stop(actor);
                 });
             });
+
+            when("re-importing entities that can be loaded separately", () -> {
+                Vector<Envelope> events = Stream.range(0, 20).map(i ->
+                    new Envelope(Instant.ofEpochMilli(1000000 + i * 1000), "entity" + (i % 5), i)
+                ).toVector();
+                Vector<Envelope> entity1 = events.filter(e -> e.entityId.equals("entity1"));
+                Vector<Envelope> entity3 = events.filter(e -> e.entityId.equals("entity3"));
+
+                it("re-imports only the events of the given entities, by entity", () -> {
+                    ActorRef actor = system.actorOf(Props.create(ByEntityTestActor.class, () ->
+                        new ByEntityTestActor(events, materialized.getRef(), Option.none())));
+                    TestKit client = new TestKit(system);
+
+                    actor.tell(new Reimport(HashSet.of("entity1", "entity3")), client.getRef());
+                    client.expectMsgEquals(Done.getInstance());
+
+                    assertReceiveOutOfOrder(entity1.appendAll(entity3));
+                    assertReimportDone(actor);
+
+                    system.stop(actor);
+                });
+
+                it("rejects a re-import without entities, and still accepts a re-import afterwards", () -> {
+                    ActorRef actor = system.actorOf(Props.create(ByEntityTestActor.class, () ->
+                        new ByEntityTestActor(events, materialized.getRef(), Option.none())));
+                    TestKit client = new TestKit(system);
+
+                    actor.tell(new Reimport(HashSet.empty()), client.getRef());
+                    client.expectMsgClass(Failure.class);
+
+                    actor.tell(new Reimport(HashSet.of("entity1")), client.getRef());
+                    client.expectMsgEquals(Done.getInstance());
+                    assertReceiveOutOfOrder(entity1);
+                    assertReimportDone(actor);
+
+                    system.stop(actor);
+                });
+
+                it("resumes a re-import after a restart, with only the entities that are left", () -> {
+                    String name = "materializer-" + UUID.randomUUID();
+                    // The events of entity3 never complete in the first incarnation
+                    ActorRef actor = system.actorOf(Props.create(ByEntityTestActor.class, () ->
+                        new ByEntityTestActor(events, materialized.getRef(), Option.some("entity3"))), name);
+                    TestKit client = new TestKit(system);
+
+                    actor.tell(new Reimport(HashSet.of("entity1", "entity3")), client.getRef());
+                    client.expectMsgEquals(Done.getInstance());
+                    assertReceiveOutOfOrder(entity1.appendAll(entity3));
+                    // give the actor time to persist that entity1 is done
+                    materialized.expectNoMessage(Duration.ofMillis(500));
+                    stop(actor);
+
+                    ActorRef restarted = system.actorOf(Props.create(ByEntityTestActor.class, () ->
+                        new ByEntityTestActor(events, materialized.getRef(), Option.none())), name);
+
+                    assertReceiveOutOfOrder(entity3);
+                    assertReimportDone(restarted);
+                    materialized.expectNoMessage(Duration.ofMillis(200));
+
+                    system.stop(restarted);
+                });
+            });
+
+            when("re-importing entities by scanning the time line", () -> {
+                // The events span 4 days up to now, so each of the [reimport.parallelism = 4] parts gets a day's worth.
+                Instant since = Instant.now().minus(Duration.ofDays(4));
+                Vector<Envelope> events = Stream.range(0, 80).map(i ->
+                    new Envelope(since.plus(Duration.ofMinutes(30 + 60 * i)), "entity" + (i % 5), i)
+                ).toVector();
+                Vector<Envelope> reimported = events.filter(e -> e.entityId.equals("entity1") || e.entityId.equals("entity3"));
+
+                it("scans the parts of the time line in parallel, re-importing only the given entities", () -> {
+                    TestKit loads = new TestKit(system);
+                    ActorRef actor = system.actorOf(Props.create(ScanTestActor.class, () ->
+                        new ScanTestActor(Source.from(events), materialized.getRef(), loads.getRef(), Option.none())));
+                    TestKit client = new TestKit(system);
+
+                    actor.tell(new Reimport(HashSet.of("entity1", "entity3"), since), client.getRef());
+                    client.expectMsgEquals(Done.getInstance());
+
+                    assertReceiveOutOfOrder(reimported);
+                    assertReimportDone(actor);
+
+                    // The main worker loads from the epoch, and each of the 4 parts from its own start.
+                    Vector<Instant> starts = Vector.ofAll(loads.receiveN(5)).map(Instant.class::cast).filter(t -> !t.isBefore(since));
+                    assertThat(starts.distinct()).hasSize(4).contains(since);
+
+                    system.stop(actor);
+                });
+
+                it("resumes a scan after a restart, where each part has progressed to", () -> {
+                    String name = "materializer-" + UUID.randomUUID();
+                    // Event 13 (entity3, in the first part) never completes in the first incarnation
+                    ActorRef actor = system.actorOf(Props.create(ScanTestActor.class, () ->
+                        new ScanTestActor(Source.from(events), materialized.getRef(), system.deadLetters(), Option.some(13))), name);
+                    TestKit client = new TestKit(system);
+
+                    actor.tell(new Reimport(HashSet.of("entity1", "entity3"), since), client.getRef());
+                    client.expectMsgEquals(Done.getInstance());
+                    assertReceiveOutOfOrder(reimported.filter(e -> e.index < 13 || e.index >= 24));
+                    // give the actor time to persist the progress of the first part, which is acknowledged every second
+                    materialized.expectNoMessage(Duration.ofMillis(2500));
+                    stop(actor);
+
+                    ActorRef restarted = system.actorOf(Props.create(ScanTestActor.class, () ->
+                        new ScanTestActor(Source.from(events), materialized.getRef(), system.deadLetters(), Option.none())), name);
+
+                    // Only the first part is left, resuming at the last event it completed (11).
+                    assertReceiveOutOfOrder(reimported.filter(e -> e.index >= 11 && e.index < 24));
+                    assertReimportDone(restarted);
+                    materialized.expectNoMessage(Duration.ofMillis(200));
+
+                    system.stop(restarted);
+                });
+            });
         });
     }
 
@@ -112,6 +270,10 @@ public class MaterializerActorSpec extends SharedActorSystemSpec {
             this.index = index;
         }
 
+        public String getEntityId() {
+            return entityId;
+        }
+
         @Override
         public boolean equals(Object b) {
             Envelope e = (Envelope) b;
@@ -164,4 +326,78 @@ public class MaterializerActorSpec extends SharedActorSystemSpec {
         }
 
     }
+
+    /**
+     * Test actor that has no events on its time line, but loads events for each entity separately. The events of
+     * [hangingEntity] never complete.
+     */
+    static class ByEntityTestActor extends TestActor {
+        private final Vector<Envelope> entityEvents;
+        private final Option<String> hangingEntity;
+
+        public ByEntityTestActor(Vector<Envelope> entityEvents, ActorRef materialized, Option<String> hangingEntity) {
+            super(Source.empty(), materialized);
+            this.entityEvents = entityEvents;
+            this.hangingEntity = hangingEntity;
+        }
+
+        @Override
+        protected Option<Source<Envelope, NotUsed>> loadEntityEvents(String entityId) {
+            Source<Envelope, NotUsed> events = Source.from(entityEvents.filter(e -> e.entityId.equals(entityId)));
+            if (hangingEntity.contains(entityId)) {
+                return Option.some(events.concat(Source.maybe()));
+            } else {
+                return Option.some(events);
+            }
+        }
+    }
+
+    /**
+     * Test actor that only reports events from re-imports, since its main workers materialize through a silent
+     * materialize(Seq). The timestamp of each loadEvents() call is sent to [loads]. Event [hangingIndex] never completes.
+     */
+    static class ScanTestActor extends TestActor {
+        private final ActorRef loads;
+        private final Option<Integer> hangingIndex;
+
+        public ScanTestActor(Source<Envelope,NotUsed> events, ActorRef materialized, ActorRef loads, Option<Integer> hangingIndex) {
+            super(events, materialized);
+            this.loads = loads;
+            this.hangingIndex = hangingIndex;
+        }
+
+        @Override
+        protected CompletionStage<Done> materialize(Seq<Envelope> envelopes) {
+            return CompletableFuture.completedFuture(Done.getInstance());
+        }
+
+        @Override
+        protected CompletionStage<Done> materialize(Envelope envelope) {
+            if (hangingIndex.contains(envelope.index)) {
+                return new CompletableFuture<>();
+            }
+            return super.materialize(envelope);
+        }
+
+        @Override
+        protected Source<Envelope, NotUsed> loadEvents(Instant since) {
+            loads.tell(since, self());
+            return super.loadEvents(since);
+        }
+    }
+
+    static class BulkTestActor extends TestActor {
+        private final ActorRef materialized;
+
+        public BulkTestActor(Source<Envelope,NotUsed> events, ActorRef materialized) {
+            super(events, materialized);
+            this.materialized = materialized;
+        }
+
+        @Override
+        protected CompletionStage<Done> materialize(Seq<Envelope> envelopes) {
+            materialized.tell(envelopes, self());
+            return CompletableFuture.completedFuture(Done.getInstance());
+        }
+    }
 }
@@ -0,0 +1,86 @@
+package com.tradeshift.reaktive.materialize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import io.vavr.collection.HashSet;
+
+@RunWith(CuppaRunner.class)
+public class MaterializerReimportSpec {
+    {
+        describe("MaterializerReimport.scan", () -> {
+            MaterializerReimport r = MaterializerReimport.scan(HashSet.of("a", "b"),
+                Instant.ofEpochMilli(1000), Instant.ofEpochMilli(5000), 4);
+
+            it("should split the time range into equal parts", () -> {
+                assertThat(r.isByEntity()).isFalse();
+                assertThat(r.getPartIds()).hasSize(4);
+                assertThat(r.getPartIds().map(r::getTimestamp)).containsExactly(
+                    Instant.ofEpochMilli(1000), Instant.ofEpochMilli(2000), Instant.ofEpochMilli(3000), Instant.ofEpochMilli(4000));
+                assertThat(r.getPartIds().map(r::getEndTimestamp)).containsExactly(
+                    Instant.ofEpochMilli(2000), Instant.ofEpochMilli(3000), Instant.ofEpochMilli(4000), Instant.ofEpochMilli(5000));
+                assertThat(r.getTimestamp()).contains(Instant.ofEpochMilli(1000));
+            });
+
+            it("should record progress of a part, restarting at the same timestamp", () -> {
+                UUID part = r.getPartIds().head();
+                MaterializerReimport result = r.onPartProgress(part, Instant.ofEpochMilli(1500));
+                assertThat(result.getTimestamp(part)).isEqualTo(Instant.ofEpochMilli(1500));
+                assertThat(result.onPartProgress(part, Instant.ofEpochMilli(1200)).getTimestamp(part)).isEqualTo(Instant.ofEpochMilli(1500));
+            });
+
+            it("should be done once all parts are done", () -> {
+                MaterializerReimport result = r;
+                for (UUID part: r.getPartIds()) {
+                    assertThat(result.isDone()).isFalse();
+                    result = result.onPartDone(part);
+                }
+                assertThat(result.isDone()).isTrue();
+                assertThat(result.getTimestamp()).isEmpty();
+            });
+
+            it("should record part progress as a delta that can be applied to the original state", () -> {
+                UUID part = r.getPartIds().head();
+                MaterializerReimport updated = r.onPartProgress(part, Instant.ofEpochMilli(1500)).onPartDone(r.getPartIds().last());
+                MaterializerReimport result = r.withProgress(updated.getProgressSince(r));
+                assertThat(result.getPartIds()).containsExactlyElementsOf(updated.getPartIds());
+                assertThat(result.getTimestamp(part)).isEqualTo(Instant.ofEpochMilli(1500));
+                assertThat(result.getEntityIds()).containsOnly("a", "b");
+            });
+        });
+
+        describe("MaterializerReimport.byEntity", () -> {
+            MaterializerReimport r = MaterializerReimport.byEntity(HashSet.of("a", "b"), Instant.ofEpochMilli(5000));
+
+            it("should be done once all entities are done", () -> {
+                assertThat(r.isByEntity()).isTrue();
+                MaterializerReimport result = r.onEntityDone("a");
+                assertThat(result.getEntityIds()).containsOnly("b");
+                assertThat(result.isDone()).isFalse();
+                assertThat(result.onEntityDone("b").isDone()).isTrue();
+            });
+
+            it("should survive a round trip through protobuf", () -> {
+                MaterializerReimport result = new MaterializerReimport(r.toProtobuf());
+                assertThat(result.isByEntity()).isTrue();
+                assertThat(result.getEntityIds()).containsOnly("a", "b");
+                assertThat(result.getEndTimestamp()).isEqualTo(Instant.ofEpochMilli(5000));
+            });
+
+            it("should record only the entities that are done in its progress", () -> {
+                MaterializerReimport updated = r.onEntityDone("a");
+                assertThat(updated.getProgressSince(r).getEntityIdDoneList()).containsExactly("a");
+                MaterializerReimport result = r.withProgress(updated.getProgressSince(r));
+                assertThat(result.getEntityIds()).containsOnly("b");
+                assertThat(result.isByEntity()).isTrue();
+            });
+        });
+    }
+}
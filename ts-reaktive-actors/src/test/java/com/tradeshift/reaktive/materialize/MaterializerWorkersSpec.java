@@ -223,5 +223,27 @@ public class MaterializerWorkersSpec {
 
         });
 
+
+        describe("MaterializerWorkers.getSplitTimestamp", () -> {
+            Instant now = Instant.ofEpochMilli(100000000);
+            MaterializerWorkers w = MaterializerWorkers.build(Duration.ofSeconds(6),
+                i -> i.startWorker(Instant.ofEpochMilli(1000000), none()),
+                i -> i.startWorker(Instant.ofEpochMilli(2000000), none()));
+
+            it("should split the worker with the largest remaining range halfway", () -> {
+                assertThat(w.getSplitTimestamp(now, Duration.ofSeconds(60), Duration.ofSeconds(60)))
+                    .contains(Instant.ofEpochMilli(2000000 + (100000000 - 6000 - 2000000) / 2));
+            });
+
+            it("should not split workers that have less than twice the minimum range left", () -> {
+                assertThat(w.getSplitTimestamp(now, Duration.ofSeconds(60), Duration.ofMillis(100000000)))
+                    .isEmpty();
+            });
+
+            it("should not split workers that are not lagging behind enough", () -> {
+                assertThat(w.getSplitTimestamp(now, Duration.ofMillis(100000000), Duration.ofSeconds(60)))
+                    .isEmpty();
+            });
+        });
     }
 }
@@ -0,0 +1,130 @@
+package com.tradeshift.reaktive.materialize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.beforeEach;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+import static org.forgerock.cuppa.Cuppa.when;
+
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import com.tradeshift.reaktive.materialize.MaterializerActorSpec.Envelope;
+import com.tradeshift.reaktive.materialize.MaterializerActorSpec.TestActor;
+import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
+import com.typesafe.config.ConfigFactory;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.stream.javadsl.Source;
+import akka.testkit.javadsl.TestKit;
+import io.vavr.collection.Stream;
+import io.vavr.collection.Vector;
+
+@RunWith(CuppaRunner.class)
+public class PipelinedMaterializerActorSpec extends SharedActorSystemSpec {
+    public PipelinedMaterializerActorSpec() {
+        super(ConfigFactory.parseString("ts-reaktive.actors.materializer { pipelined = true, max-in-flight = 256 }"));
+    }
+
+    private TestKit materialized;
+
+    {
+        describe("MaterializerActor in pipelined mode", () -> {
+            beforeEach(() -> {
+                materialized = new TestKit(system);
+            });
+
+            when("importing events for the same entity", () -> {
+                Vector<Envelope> events = Stream.range(0, 100).map(i ->
+                    new Envelope(Instant.ofEpochMilli(1000000 + (i / 3) * 1000), "entity", i)
+                ).toVector();
+
+                it("materializes them in order", () -> {
+                    ActorRef actor = system.actorOf(Props.create(TestActor.class, () ->
+                        new TestActor(Source.from(events), materialized.getRef())));
+
+                    events.forEach(materialized::expectMsgEquals);
+
+                    system.stop(actor);
+                });
+            });
+
+            when("importing events for different entities", () -> {
+                Vector<Envelope> events = Stream.range(0, 100).map(i ->
+                    new Envelope(Instant.ofEpochMilli(1000000 + i * 1000), "entity" + (i % 10), i)
+                ).toVector();
+
+                it("keeps the order of events per entity", () -> {
+                    ActorRef actor = system.actorOf(Props.create(TestActor.class, () ->
+                        new TestActor(Source.from(events), materialized.getRef())));
+
+                    Vector<Envelope> received = Vector.empty();
+                    for (int i = 0; i < events.size(); i++) {
+                        received = received.append(materialized.expectMsgClass(Envelope.class));
+                    }
+
+                    assertThat(received).containsOnlyElementsOf(events);
+                    for (int entity = 0; entity < 10; entity++) {
+                        String id = "entity" + entity;
+                        assertThat(received.filter(e -> e.getEntityId().equals(id)))
+                            .containsExactlyElementsOf(events.filter(e -> e.getEntityId().equals(id)));
+                    }
+
+                    system.stop(actor);
+                });
+            });
+
+            when("one entity is slow to materialize", () -> {
+                Vector<Envelope> events = Stream.range(0, 20).map(i ->
+                    new Envelope(Instant.ofEpochMilli(1000000 + i * 1000), (i == 0) ? "slow" : "entity" + (i % 5), i)
+                ).toVector();
+
+                it("keeps materializing the events of other entities", () -> {
+                    CompletableFuture<Done> release = new CompletableFuture<>();
+                    ActorRef actor = system.actorOf(Props.create(HeldTestActor.class, () ->
+                        new HeldTestActor(Source.from(events), materialized.getRef(), "slow", release)));
+
+                    Vector<Envelope> received = Vector.empty();
+                    for (int i = 1; i < events.size(); i++) {
+                        received = received.append(materialized.expectMsgClass(Envelope.class));
+                    }
+                    assertThat(received).containsOnlyElementsOf(events.tail());
+
+                    release.complete(Done.getInstance());
+                    materialized.expectMsgEquals(events.head());
+
+                    system.stop(actor);
+                });
+            });
+        });
+    }
+
+    /**
+     * Test actor that only starts materializing the events of [heldEntity] once [release] completes.
+     */
+    static class HeldTestActor extends TestActor {
+        private final String heldEntity;
+        private final CompletionStage<Done> release;
+
+        public HeldTestActor(Source<Envelope,NotUsed> events, ActorRef materialized, String heldEntity, CompletionStage<Done> release) {
+            super(events, materialized);
+            this.heldEntity = heldEntity;
+            this.release = release;
+        }
+
+        @Override
+        protected CompletionStage<Done> materialize(Envelope envelope) {
+            if (envelope.getEntityId().equals(heldEntity)) {
+                return release.thenCompose(done -> super.materialize(envelope));
+            }
+            return super.materialize(envelope);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.tradeshift.reaktive.backup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.tradeshift.reaktive.protobuf.BackupMessages.Index;
+import com.tradeshift.reaktive.protobuf.BackupMessages.IndexEntry;
+import com.tradeshift.reaktive.protobuf.BackupMessages.ManifestEntry;
+import com.tradeshift.reaktive.protobuf.DelimitedProtobufFraming;
+import com.tradeshift.reaktive.protobuf.Query;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Framing;
+import akka.stream.javadsl.Source;
+import akka.util.ByteIterator;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
+
+/**
+ * The formats in which {@link S3Backup} writes events.
+ *
+ * Format 1 is a plain sequence of delimited protobuf Query.EventEnvelope messages.
+ *
+ * Format 2 is a sequence of frames, each of which is [int32 length][byte type][payload], the length being big-endian and
+ * including the type byte:
+ * - Any number of BLOCK frames, each holding gzip compressed delimited Query.EventEnvelope messages
+ * - One INDEX frame, holding a gzip compressed {@link Index}, which lists for each persistenceId in each block the
+ *   range of sequence numbers it has there, and the position of the block.
+ * - One TRAILER frame, of fixed size {@link #TRAILER_SIZE}, holding the position [int64] and length [int32] of the INDEX frame.
+ *
+ * That way, a reader can either stream through the whole object, or read the trailer, then the index, and then only
+ * the blocks it's interested in.
+ */
+public class BackupFormat {
+    /** Suffix of the keys of objects in format 2 */
+    public static final String SUFFIX = ".v2";
+    /** Size of the TRAILER frame of format 2, in bytes */
+    public static final int TRAILER_SIZE = 4 + 1 + 8 + 4;
+
+    private static final byte BLOCK = 1;
+    private static final byte INDEX = 2;
+    private static final byte TRAILER = 3;
+    private static final int BUFFER_SIZE = 8192;
+    private static final ByteOrder ORDER = ByteOrder.BIG_ENDIAN;
+
+    /**
+     * Writes the events of one object, keeping track of what's needed for its manifest entry. Only the current
+     * block is kept in memory. Not thread-safe; create one for each object.
+     */
+    public static class Writer {
+        private final int format;
+        private final int blockSize;
+        private final Index.Builder index = Index.newBuilder();
+        /** The sequence number range of each persistenceId in the current block */
+        private final Map<String, IndexEntry.Builder> blockEntries = new LinkedHashMap<>();
+
+        private ByteStringBuilder block = new ByteStringBuilder();
+        private long position = 0;
+        private long eventCount = 0;
+        private long firstTimestamp = 0;
+        private long lastTimestamp = 0;
+        private long indexOffset = 0;
+        private int indexLength = 0;
+
+        /**
+         * @param format Format version to write (1 or 2)
+         * @param blockSize Number of uncompressed bytes after which a block is compressed and emitted (format 2 only)
+         */
+        public Writer(int format, int blockSize) {
+            if (format != 1 && format != 2) {
+                throw new IllegalArgumentException("Unknown backup format " + format);
+            }
+            this.format = format;
+            this.blockSize = blockSize;
+        }
+
+        /**
+         * Returns the suffix that the key of the object should have.
+         */
+        public String getSuffix() {
+            return (format == 2) ? SUFFIX : "";
+        }
+
+        /**
+         * Returns a flow that writes all events it receives, completing the object when they end. The returned flow
+         * must only be materialized once.
+         */
+        public Flow<Query.EventEnvelope, ByteString, NotUsed> encoder() {
+            // The end of the events is marked with none(), since concat() would create a lazy source before any events arrive.
+            return Flow.<Query.EventEnvelope>create()
+                .map(Option::some)
+                .concat(Source.single(Option.none()))
+                .mapConcat(e -> e.isDefined() ? add(e.get()) : finish());
+        }
+
+        /**
+         * Adds an event, returning any bytes that are ready to be written.
+         */
+        public Seq<ByteString> add(Query.EventEnvelope e) throws IOException {
+            if (eventCount == 0) {
+                firstTimestamp = e.getTimestamp();
+            }
+            lastTimestamp = e.getTimestamp();
+            eventCount++;
+
+            if (format == 1) {
+                ByteStringBuilder b = new ByteStringBuilder();
+                e.writeDelimitedTo(b.asOutputStream());
+                return emit(b.result());
+            }
+
+            e.writeDelimitedTo(block.asOutputStream());
+            IndexEntry.Builder entry = blockEntries.get(e.getPersistenceId());
+            if (entry == null) {
+                blockEntries.put(e.getPersistenceId(), IndexEntry.newBuilder()
+                    .setPersistenceId(e.getPersistenceId())
+                    .setFirstSequenceNr(e.getSequenceNr())
+                    .setLastSequenceNr(e.getSequenceNr()));
+            } else {
+                entry.setLastSequenceNr(e.getSequenceNr());
+            }
+            return (block.length() >= blockSize) ? flushBlock() : Vector.empty();
+        }
+
+        /**
+         * Returns the remaining bytes of the object. No more events can be added afterwards.
+         */
+        public Seq<ByteString> finish() throws IOException {
+            if (format == 1) {
+                return Vector.empty();
+            }
+            Seq<ByteString> result = flushBlock();
+            indexOffset = position;
+            ByteString indexFrame = frame(INDEX, gzip(ByteString.fromArray(index.build().toByteArray())));
+            indexLength = indexFrame.size();
+            result = result.appendAll(emit(indexFrame));
+
+            ByteStringBuilder trailer = new ByteStringBuilder();
+            trailer.putLong(indexOffset, ORDER);
+            trailer.putInt(indexLength, ORDER);
+            return result.appendAll(emit(frame(TRAILER, trailer.result())));
+        }
+
+        /**
+         * Returns the manifest entry of the written object. Must only be called after {@link #finish()}.
+         */
+        public ManifestEntry getManifestEntry(String key) {
+            ManifestEntry.Builder b = ManifestEntry.newBuilder()
+                .setKey(key)
+                .setFormat(format)
+                .setFirstTimestamp(firstTimestamp)
+                .setLastTimestamp(lastTimestamp)
+                .setEventCount(eventCount)
+                .setSize(position);
+            if (format == 2) {
+                b.setIndexOffset(indexOffset).setIndexLength(indexLength);
+            }
+            return b.build();
+        }
+
+        private Seq<ByteString> flushBlock() throws IOException {
+            if (blockEntries.isEmpty()) {
+                return Vector.empty();
+            }
+            ByteString blockFrame = frame(BLOCK, gzip(block.result()));
+            for (IndexEntry.Builder entry: blockEntries.values()) {
+                index.addEntries(entry.setBlockOffset(position).setBlockLength(blockFrame.size()));
+            }
+            blockEntries.clear();
+            block = new ByteStringBuilder();
+            return emit(blockFrame);
+        }
+
+        private Seq<ByteString> emit(ByteString bytes) {
+            position += bytes.size();
+            return Vector.of(bytes);
+        }
+    }
+
+    /**
+     * Returns a flow that decodes a complete object with the given key into its events, in the format that its
+     * key suffix indicates.
+     * @param maxFrameSize Largest frame of format 2 to accept, so a corrupt length header can't make the decoder
+     *                     buffer an arbitrary amount of data.
+     */
+    public static Flow<ByteString, Query.EventEnvelope, NotUsed> decoder(String key, int maxFrameSize) {
+        if (key.endsWith(SUFFIX)) {
+            return decoder(maxFrameSize);
+        } else {
+            return Flow.<ByteString>create()
+                .via(DelimitedProtobufFraming.instance)
+                .map(bs -> Query.EventEnvelope.parseFrom(bs.iterator().asInputStream()));
+        }
+    }
+
+    /**
+     * Returns a flow that decodes a complete object in format 2 into its events, failing on frames (including their
+     * length header) larger than [maxFrameSize].
+     */
+    public static Flow<ByteString, Query.EventEnvelope, NotUsed> decoder(int maxFrameSize) {
+        return Flow.<ByteString>create()
+            .via(Framing.lengthField(4, 0, maxFrameSize, ORDER))
+            .map(frame -> frame.drop(4))
+            .filter(frame -> frame.head() == BLOCK)
+            .mapConcat(BackupFormat::decodeBlockPayload);
+    }
+
+    /**
+     * Decodes a single BLOCK frame of format 2, as located using the index, into its events.
+     */
+    public static Seq<Query.EventEnvelope> decodeBlock(ByteString frame) throws IOException {
+        return decodeBlockPayload(payload(frame, BLOCK));
+    }
+
+    /**
+     * Decodes the INDEX frame of format 2.
+     */
+    public static Index decodeIndex(ByteString frame) throws IOException {
+        try (InputStream in = gunzip(payload(frame, INDEX).drop(1))) {
+            return Index.parseFrom(in);
+        }
+    }
+
+    /**
+     * Decodes the TRAILER frame of format 2, returning the position and length of the INDEX frame.
+     */
+    public static Tuple2<Long, Integer> decodeTrailer(ByteString frame) {
+        ByteIterator i = payload(frame, TRAILER).drop(1).iterator();
+        return Tuple.of(i.getLong(ORDER), i.getInt(ORDER));
+    }
+
+    private static Seq<Query.EventEnvelope> decodeBlockPayload(ByteString payload) throws IOException {
+        Vector<Query.EventEnvelope> result = Vector.empty();
+        try (InputStream in = gunzip(payload.drop(1))) {
+            Query.EventEnvelope e;
+            while ((e = Query.EventEnvelope.parseDelimitedFrom(in)) != null) {
+                result = result.append(e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Strips the length header from a frame, returning [type][payload], and checks its type.
+     */
+    private static ByteString payload(ByteString frame, byte type) {
+        if (frame.size() < 5 || frame.iterator().getInt(ORDER) != frame.size() - 4 || frame.apply(4) != type) {
+            throw new IllegalArgumentException("Expected a complete frame of type " + type);
+        }
+        return frame.drop(4);
+    }
+
+    private static ByteString frame(byte type, ByteString payload) {
+        ByteStringBuilder b = new ByteStringBuilder();
+        b.putInt(payload.size() + 1, ORDER);
+        b.putByte(type);
+        b.append(payload);
+        return b.result();
+    }
+
+    private static ByteString gzip(ByteString bytes) throws IOException {
+        ByteStringBuilder out = new ByteStringBuilder();
+        try (GZIPOutputStream s = new GZIPOutputStream(out.asOutputStream(), BUFFER_SIZE)) {
+            s.write(bytes.toArray());
+        }
+        return out.result();
+    }
+
+    private static InputStream gunzip(ByteString bytes) throws IOException {
+        return new GZIPInputStream(bytes.iterator().asInputStream(), BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,98 @@
+package com.tradeshift.reaktive.backup;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+
+/**
+ * Names of the objects that a {@link BackupStorage} keeps, which are the same for all implementations.
+ */
+public class BackupKeys {
+    /**
+     * Key of the object that holds the last backed up offset
+     */
+    public static final String OFFSET = "_lastOffset";
+    /**
+     * Chunks are stored as {tag}{SEPARATOR}{time of first event}{format suffix}
+     */
+    private static final String SEPARATOR = "-from-";
+    /**
+     * The time of event in the key name is formatted as uuuu_MM_dd_HH_mm_ss_SSS. This pattern was selected for several reasons:
+     * - Encoding ":" yields URL encoding issues when calculating the S3 signature of the upload
+     * - Leaving out "_" causes java's DateTimeFormatter to no longer being able to parse the date.
+     * - DateTimeFormatter.ofPattern screws up royally when using "SSS"
+     */
+    private static final DateTimeFormatter FMT = new DateTimeFormatterBuilder()
+        .appendValue(ChronoField.YEAR_OF_ERA, 4)
+        .appendLiteral('_')
+        .appendValue(ChronoField.MONTH_OF_YEAR, 2)
+        .appendLiteral('_')
+        .appendValue(ChronoField.DAY_OF_MONTH, 2)
+        .appendLiteral('_')
+        .appendValue(ChronoField.HOUR_OF_DAY, 2)
+        .appendLiteral('_')
+        .appendValue(ChronoField.MINUTE_OF_HOUR, 2)
+        .appendLiteral('_')
+        .appendValue(ChronoField.SECOND_OF_MINUTE, 2)
+        .appendLiteral('_')
+        .appendValue(ChronoField.MILLI_OF_SECOND, 3)
+        .toFormatter().withZone(ZoneId.of("UTC"));
+    /**
+     * Manifests are stored as {MANIFEST_PREFIX}{tag}/{hour}, with the hour formatted as uuuu_MM_dd_HH.
+     */
+    private static final String MANIFEST_PREFIX = "_manifest/";
+    private static final DateTimeFormatter MANIFEST_FMT = new DateTimeFormatterBuilder()
+        .appendValue(ChronoField.YEAR_OF_ERA, 4)
+        .appendLiteral('_')
+        .appendValue(ChronoField.MONTH_OF_YEAR, 2)
+        .appendLiteral('_')
+        .appendValue(ChronoField.DAY_OF_MONTH, 2)
+        .appendLiteral('_')
+        .appendValue(ChronoField.HOUR_OF_DAY, 2)
+        .toFormatter().withZone(ZoneId.of("UTC"));
+
+    /**
+     * Returns the key for a chunk of events of the given tag.
+     * @param firstTimestamp Offset of the first event in the chunk, in epoch millis
+     * @param suffix Suffix of the chunk's format, see {@link BackupFormat.Writer#getSuffix()}
+     */
+    public static String chunk(String tag, long firstTimestamp, String suffix) {
+        return tag + SEPARATOR + FMT.format(Instant.ofEpochMilli(firstTimestamp)) + suffix;
+    }
+
+    /**
+     * Returns whether the given key is a chunk of events of the given tag.
+     */
+    public static boolean isChunkOf(String tag, String key) {
+        return key.startsWith(tag + SEPARATOR);
+    }
+
+    /**
+     * Returns the instant of the first event saved under the given key, by parsing its key name.
+     */
+    public static Instant getStartInstant(String key) {
+        int i = key.lastIndexOf(SEPARATOR);
+        if (i == -1) throw new IllegalArgumentException("Expected " + key + " to contain " + SEPARATOR);
+        String time = key.substring(i + SEPARATOR.length());
+        if (time.endsWith(BackupFormat.SUFFIX)) {
+            time = time.substring(0, time.length() - BackupFormat.SUFFIX.length());
+        }
+        return FMT.parse(time, Instant::from);
+    }
+
+    /**
+     * Returns the key of the manifest that a chunk starting at the given timestamp should be listed in.
+     */
+    public static String manifest(String tag, long firstTimestamp) {
+        return manifestPrefix(tag) + MANIFEST_FMT.format(Instant.ofEpochMilli(firstTimestamp));
+    }
+
+    /**
+     * Returns the prefix that all manifest keys of the given tag start with.
+     */
+    public static String manifestPrefix(String tag) {
+        return MANIFEST_PREFIX + tag + "/";
+    }
+}
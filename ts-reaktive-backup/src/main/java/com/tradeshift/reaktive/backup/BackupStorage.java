@@ -0,0 +1,69 @@
+package com.tradeshift.reaktive.backup;
+
+import java.util.concurrent.CompletionStage;
+
+import com.tradeshift.reaktive.protobuf.BackupMessages.Index;
+import com.tradeshift.reaktive.protobuf.BackupMessages.ManifestEntry;
+import com.tradeshift.reaktive.protobuf.Query;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.persistence.query.EventEnvelope;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+
+/**
+ * Storage that {@link S3Backup} writes to, and {@link S3Restore} and {@link SelectiveRestore} read from. Objects are
+ * named as described by {@link BackupKeys}, and chunks are written in one of the {@link BackupFormat}s.
+ */
+public interface BackupStorage {
+    /**
+     * Returns a sink that streams events into storage as they arrive, under a key that includes the tag and the offset
+     * of the given first event. The first event must be sent into the sink as well. The materialized value completes
+     * with the manifest entry for the chunk once it has been completely written.
+     *
+     * The returned sink must only be materialized once.
+     * @param tag Persistence tag that the events are for
+     */
+    Sink<EventEnvelope, CompletionStage<ManifestEntry>> store(String tag, EventEnvelope first);
+
+    /**
+     * Adds the given entry to the manifest of the tag. Entries for the same tag must not be added concurrently.
+     */
+    CompletionStage<Done> addToManifest(String tag, ManifestEntry entry);
+
+    /**
+     * Returns all entries in the manifest of the given tag, in the order in which they were written.
+     */
+    Source<ManifestEntry, NotUsed> loadManifest(String tag);
+
+    /**
+     * Returns the keys of all chunks of the given tag, in the order in which they were written.
+     */
+    Source<String, NotUsed> listKeys(String tag);
+
+    /**
+     * Reads the events of a chunk, in either format. A chunk that doesn't exist has no events.
+     */
+    Source<Query.EventEnvelope, NotUsed> loadEvents(String key);
+
+    /**
+     * Loads the index of a chunk that was written in format 2.
+     */
+    CompletionStage<Index> loadIndex(String key);
+
+    /**
+     * Reads the events of a single block of a chunk that was written in format 2, as located through its index.
+     */
+    Source<Query.EventEnvelope, NotUsed> loadBlock(String key, long blockOffset, int blockLength);
+
+    /**
+     * Loads the last known written offset, or returns 0 if not found
+     */
+    CompletionStage<Long> loadOffset();
+
+    /**
+     * Writes the last known offset
+     */
+    CompletionStage<Done> saveOffset(long offset);
+}
@@ -0,0 +1,101 @@
+package com.tradeshift.reaktive.backup;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import akka.stream.Attributes;
+import akka.stream.FlowShape;
+import akka.stream.Inlet;
+import akka.stream.Outlet;
+import akka.stream.stage.AbstractInHandler;
+import akka.stream.stage.AbstractOutHandler;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+import akka.stream.stage.TimerGraphStageLogic;
+import io.vavr.control.Option;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * Stage that passes on all incoming elements as Option.some(), and marks the end of each chunk of elements by
+ * emitting Option.none(). A chunk ends after [maxSize] elements, or [maxDuration] after its first element, whichever
+ * comes first.
+ *
+ * Unlike groupedWithin, this doesn't buffer the elements of a chunk. It's meant to be followed by splitAfter(Option::isEmpty),
+ * so that each chunk can be streamed into a sub-stream as it arrives.
+ */
+public class DelimitChunks<T> extends GraphStage<FlowShape<T,Option<T>>> {
+    /**
+     * Returns a DelimitChunks.
+     * @param maxSize Maximum number of elements in a chunk
+     * @param maxDuration Maximum time between the first element of a chunk and the end of that chunk
+     */
+    public static <T> GraphStage<FlowShape<T,Option<T>>> delimitChunks(int maxSize, Duration maxDuration) {
+        return new DelimitChunks<>(maxSize, maxDuration);
+    }
+
+    private static final String TIMER = "chunk";
+
+    private final Inlet<T> in = Inlet.create("in");
+    private final Outlet<Option<T>> out = Outlet.create("out");
+    private final FlowShape<T,Option<T>> shape = FlowShape.of(in, out);
+
+    private final int maxSize;
+    private final FiniteDuration maxDuration;
+
+    public DelimitChunks(int maxSize, Duration maxDuration) {
+        this.maxSize = maxSize;
+        this.maxDuration = FiniteDuration.create(maxDuration.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public FlowShape<T, Option<T>> shape() {
+        return shape;
+    }
+
+    @Override
+    public GraphStageLogic createLogic(Attributes attr) throws Exception {
+        return new TimerGraphStageLogic(shape) {
+            /** Number of elements emitted in the current chunk */
+            int count = 0;
+            {
+                setHandler(in, new AbstractInHandler() {
+                    @Override
+                    public void onPush() {
+                        T t = grab(in);
+                        if (count == 0) {
+                            scheduleOnce(TIMER, maxDuration);
+                        }
+                        count++;
+                        // The timer may already have emitted an end marker while we were waiting for [t], so we can't just push() here.
+                        emit(out, Option.some(t));
+                        if (count >= maxSize) {
+                            endChunk();
+                        }
+                    }
+                });
+
+                setHandler(out, new AbstractOutHandler() {
+                    @Override
+                    public void onPull() {
+                        if (!hasBeenPulled(in)) {
+                            pull(in);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onTimer(Object timerKey) {
+                if (count > 0) {
+                    endChunk();
+                }
+            }
+
+            private void endChunk() {
+                cancelTimer(TIMER);
+                count = 0;
+                emit(out, Option.none());
+            }
+        };
+    }
+}
@@ -0,0 +1,252 @@
+package com.tradeshift.reaktive.backup;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tradeshift.reaktive.akka.SharedActorMaterializer;
+import com.tradeshift.reaktive.akka.rest.EventMarshallers;
+import com.tradeshift.reaktive.protobuf.BackupMessages.Index;
+import com.tradeshift.reaktive.protobuf.BackupMessages.ManifestEntry;
+import com.tradeshift.reaktive.protobuf.DelimitedProtobufFraming;
+import com.tradeshift.reaktive.protobuf.Query;
+import com.typesafe.config.Config;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.persistence.query.EventEnvelope;
+import akka.stream.Materializer;
+import akka.stream.javadsl.FileIO;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import io.vavr.Tuple2;
+import io.vavr.collection.Iterator;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+
+/**
+ * Stores backups as files in a local directory, with the same key names and formats as {@link S3}. This allows
+ * backups to be made onto (network) disks, and the backup and restore pipelines to be benchmarked without S3.
+ *
+ * Chunks are written through a FileChannel into a temporary file, which is moved into place once complete, so
+ * listings never show partially written chunks. Restores memory-map the chunks, and read them in slices of
+ * ts-reaktive.backup.file.read-chunk-size. A single chunk can therefore not be larger than 2 GiB.
+ *
+ * All blocking file operations run on akka.stream.default-blocking-io-dispatcher.
+ */
+public class FileBackupStorage implements BackupStorage {
+    private static final Logger log = LoggerFactory.getLogger(FileBackupStorage.class);
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final Materializer materializer;
+    private final Executor blockingIO;
+    private final Function<EventEnvelope, Query.EventEnvelope> serializer;
+    private final int format;
+    private final int blockSize;
+    private final int maxFrameSize;
+    private final int readChunkSize;
+
+    /**
+     * @param directory Directory to keep the backup in. It's created if it doesn't exist yet.
+     */
+    public FileBackupStorage(ActorSystem system, Path directory) {
+        Config config = system.settings().config().getConfig("ts-reaktive.backup");
+        this.format = config.getInt("backup.format");
+        this.blockSize = config.getBytes("backup.block-size").intValue();
+        this.maxFrameSize = config.getBytes("backup.max-frame-size").intValue();
+        this.readChunkSize = config.getBytes("file.read-chunk-size").intValue();
+        this.materializer = SharedActorMaterializer.get(system);
+        this.blockingIO = system.dispatchers().lookup("akka.stream.default-blocking-io-dispatcher");
+        this.serializer = EventMarshallers.getAkkaSerializer(system);
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException x) {
+            throw new UncheckedIOException(x);
+        }
+    }
+
+    @Override
+    public Sink<EventEnvelope, CompletionStage<ManifestEntry>> store(String tag, EventEnvelope first) {
+        BackupFormat.Writer writer = new BackupFormat.Writer(format, blockSize);
+        String key = BackupKeys.chunk(tag, EventMarshallers.getOffsetAsEpoch(first), writer.getSuffix());
+        Path tmp = path(key + TMP_SUFFIX);
+        return Flow.<EventEnvelope>create()
+            .map(serializer::apply)
+            .via(writer.encoder())
+            .toMat(FileIO.toPath(tmp), Keep.right())
+            .mapMaterializedValue(f -> f.thenCompose(result -> blocking(() -> {
+                if (!result.wasSuccessful()) {
+                    throw new IOException("Could not write " + tmp, result.getError());
+                }
+                Files.move(tmp, path(key), StandardCopyOption.ATOMIC_MOVE);
+                log.info("Written {} bytes to {}", result.getCount(), key);
+                return writer.getManifestEntry(key);
+            })));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * There is one manifest file for each tag and hour, which lists the chunks whose first event is in that hour.
+     * Entries are appended to the manifest file.
+     */
+    @Override
+    public CompletionStage<Done> addToManifest(String tag, ManifestEntry entry) {
+        Path file = path(BackupKeys.manifest(tag, entry.getFirstTimestamp()));
+        ByteBuffer bytes = EventMarshallers.serializeDelimited(entry).asByteBuffer();
+        return blocking(() -> {
+            Files.createDirectories(file.getParent());
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            }
+            return Done.getInstance();
+        });
+    }
+
+    @Override
+    public Source<ManifestEntry, NotUsed> loadManifest(String tag) {
+        String prefix = BackupKeys.manifestPrefix(tag);
+        return Source.single(path(prefix))
+            .mapConcat(FileBackupStorage::listFileNames)
+            .flatMapConcat(name -> read(prefix + name))
+            .via(DelimitedProtobufFraming.instance)
+            .map(bs -> ManifestEntry.parseFrom(bs.iterator().asInputStream()));
+    }
+
+    @Override
+    public Source<String, NotUsed> listKeys(String tag) {
+        return Source.single(directory)
+            .mapConcat(FileBackupStorage::listFileNames)
+            .filter(name -> BackupKeys.isChunkOf(tag, name) && !name.endsWith(TMP_SUFFIX));
+    }
+
+    @Override
+    public Source<Query.EventEnvelope, NotUsed> loadEvents(String key) {
+        return read(key).via(BackupFormat.decoder(key, maxFrameSize));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Only the trailer and the index of the chunk are mapped into memory.
+     */
+    @Override
+    public CompletionStage<Index> loadIndex(String key) {
+        return blocking(() -> {
+            try (FileChannel channel = FileChannel.open(path(key), StandardOpenOption.READ)) {
+                ByteBuffer trailer = channel.map(MapMode.READ_ONLY, channel.size() - BackupFormat.TRAILER_SIZE, BackupFormat.TRAILER_SIZE);
+                Tuple2<Long, Integer> location = BackupFormat.decodeTrailer(ByteString.fromByteBuffer(trailer));
+                return BackupFormat.decodeIndex(ByteString.fromByteBuffer(channel.map(MapMode.READ_ONLY, location._1, location._2)));
+            }
+        });
+    }
+
+    @Override
+    public Source<Query.EventEnvelope, NotUsed> loadBlock(String key, long blockOffset, int blockLength) {
+        return Source.fromCompletionStage(blocking(() -> BackupFormat.decodeBlock(ByteString.fromByteBuffer(map(path(key), blockOffset, blockLength)))))
+            .mapConcat(events -> events);
+    }
+
+    @Override
+    public CompletionStage<Long> loadOffset() {
+        Path file = path(BackupKeys.OFFSET);
+        return blocking(() -> Files.exists(file) ? Long.parseLong(new String(Files.readAllBytes(file), UTF_8)) : 0L);
+    }
+
+    @Override
+    public CompletionStage<Done> saveOffset(long offset) {
+        Path file = path(BackupKeys.OFFSET);
+        Path tmp = path(BackupKeys.OFFSET + TMP_SUFFIX);
+        return blocking(() -> {
+            Files.write(tmp, String.valueOf(offset).getBytes(UTF_8));
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            return Done.getInstance();
+        });
+    }
+
+    /**
+     * Reads the file with the given key by mapping it into memory, emitting it in slices of readChunkSize. A file that
+     * doesn't exist is read as empty.
+     */
+    private Source<ByteString, NotUsed> read(String key) {
+        Path file = path(key);
+        return Source.fromCompletionStage(blocking(() -> Files.exists(file) ? map(file, 0, -1) : ByteBuffer.allocate(0)))
+            .mapConcat(this::slices);
+    }
+
+    /**
+     * Returns the given buffer as ByteStrings of at most readChunkSize. Each slice is only copied out of the buffer
+     * when it's requested downstream.
+     */
+    private Iterable<ByteString> slices(ByteBuffer buffer) {
+        return () -> Iterator.rangeBy(0, buffer.limit(), readChunkSize).map(position -> {
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(position);
+            slice.limit(Math.min(position + readChunkSize, buffer.limit()));
+            return ByteString.fromByteBuffer(slice);
+        });
+    }
+
+    private Path path(String key) {
+        return directory.resolve(key);
+    }
+
+    private <T> CompletionStage<T> blocking(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        blockingIO.execute(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Exception x) {
+                result.completeExceptionally(x);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Maps the given range of a file into memory, or the rest of the file if length is negative. The mapping remains
+     * valid after the channel has been closed.
+     */
+    private static ByteBuffer map(Path file, long position, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(MapMode.READ_ONLY, position, (length < 0) ? channel.size() - position : length);
+        }
+    }
+
+    /**
+     * Returns the names of the regular files in the given directory, sorted, or nothing if the directory doesn't exist.
+     */
+    private static Seq<String> listFileNames(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return Vector.empty();
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return Vector.ofAll(files.filter(Files::isRegularFile).map(p -> p.getFileName().toString())).sorted();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.tradeshift.reaktive.backup;
+
+import java.time.Instant;
+
+import com.tradeshift.reaktive.protobuf.Query;
+
+import io.vavr.collection.HashSet;
+import io.vavr.collection.Set;
+import io.vavr.control.Option;
+
+/**
+ * Selects which events a {@link SelectiveRestore} should restore: those of a set of persistenceIds, or of all persistenceIds
+ * starting with a prefix, or both, optionally limited to events within a time window.
+ */
+public class RestoreFilter {
+    /** Selects all events */
+    public static final RestoreFilter ALL = new RestoreFilter(HashSet.empty(), Option.none(), Option.none(), Option.none());
+
+    private final Set<String> persistenceIds;
+    private final Option<String> persistenceIdPrefix;
+    private final Option<Instant> from;
+    private final Option<Instant> until;
+
+    private RestoreFilter(Set<String> persistenceIds, Option<String> persistenceIdPrefix, Option<Instant> from, Option<Instant> until) {
+        this.persistenceIds = persistenceIds;
+        this.persistenceIdPrefix = persistenceIdPrefix;
+        this.from = from;
+        this.until = until;
+    }
+
+    /**
+     * Returns a filter that also selects the given persistenceIds.
+     */
+    public RestoreFilter withPersistenceIds(Iterable<String> ids) {
+        return new RestoreFilter(persistenceIds.addAll(ids), persistenceIdPrefix, from, until);
+    }
+
+    /**
+     * Returns a filter that also selects all persistenceIds starting with the given prefix.
+     */
+    public RestoreFilter withPersistenceIdPrefix(String prefix) {
+        return new RestoreFilter(persistenceIds, Option.some(prefix), from, until);
+    }
+
+    /**
+     * Returns a filter that only selects events with a timestamp from [from] (inclusive) until [until] (exclusive).
+     */
+    public RestoreFilter withTimeWindow(Instant from, Instant until) {
+        return new RestoreFilter(persistenceIds, persistenceIdPrefix, Option.some(from), Option.some(until));
+    }
+
+    /**
+     * Returns whether this filter only selects some persistenceIds, in which case a backup object's index can be used
+     * to only read the blocks that contain them.
+     */
+    public boolean selectsPersistenceIds() {
+        return !persistenceIds.isEmpty() || persistenceIdPrefix.isDefined();
+    }
+
+    public boolean matchesPersistenceId(String persistenceId) {
+        return !selectsPersistenceIds() || persistenceIds.contains(persistenceId) || persistenceIdPrefix.exists(persistenceId::startsWith);
+    }
+
+    public boolean matches(Query.EventEnvelope e) {
+        return matchesPersistenceId(e.getPersistenceId())
+            && from.forAll(f -> e.getTimestamp() >= f.toEpochMilli())
+            && until.forAll(u -> e.getTimestamp() < u.toEpochMilli());
+    }
+
+    /**
+     * Returns whether a backup object starting at the given instant starts at or after the start of the time window.
+     * Since objects don't overlap, only the last object that doesn't needs to be read as well.
+     */
+    public boolean startsAfterWindowStart(Instant objectStart) {
+        return from.forAll(f -> !objectStart.isBefore(f));
+    }
+
+    /**
+     * Returns whether a backup object starting at the given instant can contain events before the end of the time window.
+     */
+    public boolean startsBeforeWindowEnd(Instant objectStart) {
+        return until.forAll(u -> objectStart.isBefore(u));
+    }
+
+    @Override
+    public String toString() {
+        return "RestoreFilter [persistenceIds=" + persistenceIds + ", persistenceIdPrefix=" + persistenceIdPrefix + ", from=" + from + ", until=" + until + "]";
+    }
+}
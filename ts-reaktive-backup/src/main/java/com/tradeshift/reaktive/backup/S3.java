@@ -1,74 +1,42 @@
 package com.tradeshift.reaktive.backup;
 
 import java.time.Instant;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeFormatterBuilder;
-import java.time.temporal.ChronoField;
 import java.util.concurrent.CompletionStage;
 import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.datastax.driver.core.utils.UUIDs;
 import com.tradeshift.reaktive.akka.SharedActorMaterializer;
 import com.tradeshift.reaktive.akka.rest.EventMarshallers;
+import com.tradeshift.reaktive.protobuf.BackupMessages.Index;
+import com.tradeshift.reaktive.protobuf.BackupMessages.ManifestEntry;
 import com.tradeshift.reaktive.protobuf.DelimitedProtobufFraming;
 import com.tradeshift.reaktive.protobuf.Query;
+import com.typesafe.config.Config;
 
 import akka.Done;
 import akka.NotUsed;
 import akka.actor.ActorSystem;
+import akka.http.javadsl.model.headers.ByteRange;
 import akka.japi.pf.PFBuilder;
 import akka.persistence.query.EventEnvelope;
-import akka.persistence.query.TimeBasedUUID;
 import akka.stream.Materializer;
+import akka.stream.alpakka.s3.S3Exception;
 import akka.stream.alpakka.s3.javadsl.ListBucketResultContents;
 import akka.stream.alpakka.s3.javadsl.MultipartUploadResult;
 import akka.stream.alpakka.s3.javadsl.S3Client;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
 import akka.stream.javadsl.Sink;
 import akka.stream.javadsl.Source;
 import akka.util.ByteString;
-import akka.util.ByteStringBuilder;
 import io.vavr.collection.Seq;
 
 /**
- * Small wrapper atop Alpakka's S3 support
+ * Small wrapper atop Alpakka's S3 support, storing backups in an S3 bucket.
  */
-public class S3 {
-    /**
-     * S3 key names are {bucketKeyPrefix}{tag}{SEPARATOR}{time of first event}
-     */
-    private static final String SEPARATOR = "-from-";
-    /**
-     * The time of event in the S3 key name is formatted as uuuu_MM_dd_HH_mm_ss_SSS. This pattern was selected for several reasons:
-     * - Encoding ":" yields URL encoding issues when calculating the S3 signature of the upload
-     * - Leaving out "_" causes java's DateTimeFormatter to no longer being able to parse the date.
-     * - DateTimeFormatter.ofPattern screws up royally when using "SSS"
-     */
-    private static final DateTimeFormatter FMT = new DateTimeFormatterBuilder()
-        .appendValue(ChronoField.YEAR_OF_ERA, 4)
-        .appendLiteral('_')
-        .appendValue(ChronoField.MONTH_OF_YEAR, 2)
-        .appendLiteral('_')
-        .appendValue(ChronoField.DAY_OF_MONTH, 2)
-        .appendLiteral('_')
-        .appendValue(ChronoField.HOUR_OF_DAY, 2)
-        .appendLiteral('_')
-        .appendValue(ChronoField.MINUTE_OF_HOUR, 2)
-        .appendLiteral('_')
-        .appendValue(ChronoField.SECOND_OF_MINUTE, 2)
-        .appendLiteral('_')
-        .appendValue(ChronoField.MILLI_OF_SECOND, 3)
-        .toFormatter().withZone(ZoneId.of("UTC"));
-
-    static {
-        Instant now = Instant.now();
-        System.out.println(now.toEpochMilli());
-        System.out.println(FMT.format(now));
-    }
-    
+public class S3 implements BackupStorage {
     private static final Logger log = LoggerFactory.getLogger(S3.class);
     
     private final String bucket;
@@ -76,8 +44,15 @@ public class S3 {
     private final Materializer materializer;
 	private final S3Client client;
     private final Function<EventEnvelope, Query.EventEnvelope> serializer;
+    private final int format;
+    private final int blockSize;
+    private final int maxFrameSize;
 
     public S3(ActorSystem system, String bucket, String prefix) {
+        Config config = system.settings().config().getConfig("ts-reaktive.backup.backup");
+        this.format = config.getInt("format");
+        this.blockSize = config.getBytes("block-size").intValue();
+        this.maxFrameSize = config.getBytes("max-frame-size").intValue();
         this.materializer = SharedActorMaterializer.get(system);
         this.serializer = EventMarshallers.getAkkaSerializer(system);
         this.bucket = bucket;
@@ -90,34 +65,73 @@ public class S3 {
      * @param tag Persistence tag that the events were for
      */
     public CompletionStage<Done> store(String tag, Seq<EventEnvelope> events) {
-        String key = tag + SEPARATOR + FMT.format(Instant.ofEpochMilli(UUIDs.unixTimestamp(TimeBasedUUID.class.cast(events.get(0).offset()).value())));
-        return Source.from(events)
-              .map(e -> {
-                  ByteStringBuilder b = new ByteStringBuilder();
-                  serializer.apply(e).writeDelimitedTo(b.asOutputStream());
-                  return b.result();
-              })
-              .runWith(upload(key), materializer)
-              .thenApply(result -> {
+        return Source.from(events).runWith(store(tag, events.get(0)), materializer).thenApply(entry -> Done.getInstance());
+    }
+    
+    @Override
+    public Sink<EventEnvelope, CompletionStage<ManifestEntry>> store(String tag, EventEnvelope first) {
+        BackupFormat.Writer writer = new BackupFormat.Writer(format, blockSize);
+        String key = BackupKeys.chunk(tag, EventMarshallers.getOffsetAsEpoch(first), writer.getSuffix());
+        return Flow.<EventEnvelope>create()
+              .map(serializer::apply)
+              .via(writer.encoder())
+              .toMat(upload(key), Keep.right())
+              .mapMaterializedValue(f -> f.thenApply(result -> {
                   log.info("Uploaded to {} with etag {}", result.key(), result.etag());
-                  return Done.getInstance();
-              });
+                  return writer.getManifestEntry(key);
+              }));
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * There is one manifest object for each tag and hour, which lists the objects whose first event is in that hour.
+     * Manifest objects are rewritten for each entry. Failing to read an existing manifest fails the returned stage,
+     * rather than overwriting the manifest.
+     */
+    @Override
+    public CompletionStage<Done> addToManifest(String tag, ManifestEntry entry) {
+        String key = BackupKeys.manifest(tag, entry.getFirstTimestamp());
+        return download(key)
+            .recoverWith(new PFBuilder<Throwable, Source<ByteString,NotUsed>>()
+                .match(S3Exception.class, x -> "NoSuchKey".equals(x.code()), x -> Source.empty()) // not found -> new manifest
+                .build()
+            )
+            .concat(Source.single(EventMarshallers.serializeDelimited(entry)))
+            .runWith(upload(key), materializer)
+            .thenApply(result -> Done.getInstance());
+    }
+    
+    @Override
+    public Source<ManifestEntry, NotUsed> loadManifest(String tag) {
+        return list(BackupKeys.manifestPrefix(tag))
+            .flatMapConcat(entry -> download(entry.key().substring(bucketKeyPrefix.length())))
+            .via(DelimitedProtobufFraming.instance)
+            .map(bs -> ManifestEntry.parseFrom(bs.iterator().asInputStream()));
     }
     
     /**
      * Returns the instant of the first event saved under the given entry, by parsing its key name.
      */
     public static Instant getStartInstant(ListBucketResultContents entry) {
-        int i = entry.key().lastIndexOf(SEPARATOR);
-        if (i == -1) throw new IllegalArgumentException("Expected " + entry.key() + " to contain " + SEPARATOR);
-        return FMT.parse(entry.key().substring(i + SEPARATOR.length()), Instant::from);
+        return BackupKeys.getStartInstant(entry.key());
     }
     
     /**
-     * Loads the last known written offset from S3, or returns 0 if not found
+     * Returns the key of the given entry, without the bucket key prefix, as it should be passed to {@link #loadEvents(String)}.
      */
+    public static String getKeyName(ListBucketResultContents entry) {
+        return entry.key().substring(entry.key().lastIndexOf("/") + 1);
+    }
+    
+    @Override
+    public Source<String, NotUsed> listKeys(String tag) {
+        return list(tag).map(S3::getKeyName).filter(key -> BackupKeys.isChunkOf(tag, key));
+    }
+    
+    @Override
     public CompletionStage<Long> loadOffset() {
-        return download("_lastOffset")
+        return download(BackupKeys.OFFSET)
     		.reduce((bs1, bs2) -> bs1.concat(bs2))
     		.map(bs -> Long.parseLong(bs.utf8String()))
     		.recoverWith(new PFBuilder<Throwable, Source<Long,NotUsed>>()
@@ -127,12 +141,10 @@ public class S3 {
     		.runWith(Sink.head(), materializer);
     }
     
-    /**
-     * Writes the last known offset to S3
-     */
+    @Override
     public CompletionStage<Done> saveOffset(long offset) {
         return Source.single(ByteString.fromString(String.valueOf(offset)))
-                     .runWith(upload("_lastOffset"), materializer)
+                     .runWith(upload(BackupKeys.OFFSET), materializer)
                      .thenApply(result -> Done.getInstance());
     }
     
@@ -145,20 +157,44 @@ public class S3 {
     	return client.download(bucket, bucketKeyPrefix + key);
     }
 
+    /**
+     * Downloads the given byte range of an object, as a single ByteString
+     */
+    private Source<ByteString, NotUsed> download(String key, ByteRange range) {
+        return client.download(bucket, bucketKeyPrefix + key, range).fold(ByteString.empty(), (a, b) -> a.concat(b));
+    }
+
     public Source<ListBucketResultContents, NotUsed> list(String keyPrefix) {
     	return client.listBucket(bucket, scala.Option.apply(bucketKeyPrefix + keyPrefix));
     }
     
-    /**
-     * Reads the stream of events written to S3 using {@link #store(String, Seq)} before.
-     */
+    @Override
     public Source<com.tradeshift.reaktive.protobuf.Query.EventEnvelope, NotUsed> loadEvents(String key) {
         return download(key)
 		.recoverWith(new PFBuilder<Throwable, Source<ByteString,NotUsed>>()
 			.matchAny(x -> Source.empty()) // not found -> no data
 			.build()
 		)
-        .via(DelimitedProtobufFraming.instance)
-        .map(bs -> com.tradeshift.reaktive.protobuf.Query.EventEnvelope.parseFrom(bs.iterator().asInputStream()));
+        .via(BackupFormat.decoder(key, maxFrameSize));
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * The trailer of the object is downloaded first, and then the index itself.
+     */
+    @Override
+    public CompletionStage<Index> loadIndex(String key) {
+        return download(key, ByteRange.createSuffix(BackupFormat.TRAILER_SIZE))
+            .map(BackupFormat::decodeTrailer)
+            .flatMapConcat(location -> download(key, ByteRange.createSlice(location._1, location._1 + location._2 - 1)))
+            .map(BackupFormat::decodeIndex)
+            .runWith(Sink.head(), materializer);
+    }
+    
+    @Override
+    public Source<com.tradeshift.reaktive.protobuf.Query.EventEnvelope, NotUsed> loadBlock(String key, long blockOffset, int blockLength) {
+        return download(key, ByteRange.createSlice(blockOffset, blockOffset + blockLength - 1))
+            .mapConcat(BackupFormat::decodeBlock);
     }
 }
@@ -1,17 +1,22 @@
 package com.tradeshift.reaktive.backup;
 
 import static akka.pattern.PatternsCS.pipe;
+import static com.tradeshift.reaktive.backup.DelimitChunks.delimitChunks;
 
 import java.time.Duration;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.tradeshift.reaktive.akka.SharedActorMaterializer;
+import com.tradeshift.reaktive.akka.UUIDs;
+import com.tradeshift.reaktive.protobuf.BackupMessages.ManifestEntry;
 import com.typesafe.config.Config;
 
 import akka.Done;
+import akka.NotUsed;
 import akka.actor.AbstractActor;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
@@ -21,17 +26,22 @@ import akka.cluster.singleton.ClusterSingletonManagerSettings;
 import akka.japi.pf.ReceiveBuilder;
 import akka.pattern.Backoff;
 import akka.pattern.BackoffSupervisor;
+import akka.persistence.query.EventEnvelope;
 import akka.persistence.query.NoOffset;
+import akka.persistence.query.TimeBasedUUID;
 import akka.persistence.query.javadsl.EventsByTagQuery;
 import akka.stream.Materializer;
 import akka.stream.javadsl.Sink;
-import io.vavr.collection.Vector;
+import akka.stream.javadsl.Source;
+import io.vavr.control.Option;
 import scala.concurrent.duration.FiniteDuration;
 
 /**
  * Makes a continuous backup of events onto an S3 bucket, grouping events into keys of predefined batch sizes.
+ * Events are streamed into S3 as they arrive, so chunks are never buffered into memory as a whole.
  * 
- * Backup progress is stored on S3 as well.
+ * Backup progress is stored on S3 as well, as the offset of the last backed up event, and as a manifest of all
+ * written chunks for each tag.
  */
 public class S3Backup extends AbstractActor {
     /**
@@ -41,9 +51,9 @@ public class S3Backup extends AbstractActor {
      * @param system The actor system to create the singleton for
      * @param query The akka persistence query journal to read events from
      * @param tag Tag to pass to the above query
-     * @param s3 Service interface to communicate with S3
+     * @param s3 Storage to write the backup to, e.g. {@link S3}
      */
-    public static void start(ActorSystem system, EventsByTagQuery query, String tag, S3 s3) {
+    public static void start(ActorSystem system, EventsByTagQuery query, String tag, BackupStorage s3) {
         system.actorOf(ClusterSingletonManager.props(
             BackoffSupervisor.props(
                 Backoff.onFailure(
@@ -62,11 +72,11 @@ public class S3Backup extends AbstractActor {
     private final Materializer materializer = SharedActorMaterializer.get(context().system());
     private final EventsByTagQuery query;
     private final String tag;
-    private final S3 s3;
+    private final BackupStorage s3;
     private final int eventChunkSize;
     private final Duration eventChunkDuration;
     
-    public S3Backup(EventsByTagQuery query, String tag, S3 s3) {
+    public S3Backup(EventsByTagQuery query, String tag, BackupStorage s3) {
         this.query = query;
         this.tag = tag;
         this.s3 = s3;
@@ -88,18 +98,28 @@ public class S3Backup extends AbstractActor {
     }
     
     private Receive startBackup(long offset) {
+        log.info("Starting backup of {} from offset {}", tag, offset);
         query
-            .eventsByTag(tag, NoOffset.getInstance())
-            // create backups of max [N] elements, or at least every [T] on activity
-            // FIXME write a stage that, instead of buffering each chunk into memory, creates sub-streams instead.
-            .groupedWithin(eventChunkSize, eventChunkDuration)
-            .filter(list -> list.size() > 0)
-            .mapAsync(4, list -> s3.store(tag, Vector.ofAll(list)).thenApply(done -> list.get(list.size() - 1).offset()))
+            // resume from the last saved offset, so a restart only re-uploads (at most) the events of that same millisecond
+            .eventsByTag(tag, (offset > 0) ? new TimeBasedUUID(UUIDs.startOf(offset)) : NoOffset.getInstance())
+            // create backups of max [N] elements, or at least every [T] on activity, streaming each chunk into its own upload
+            .via(delimitChunks(eventChunkSize, eventChunkDuration))
+            .splitAfter(Option::isEmpty)
+            .filter(Option::isDefined)
+            .map(Option::get)
+            .prefixAndTail(1)
+            .map(pair -> upload(pair.first().get(0), pair.second()))
+            .concatSubstreams()
+            // a chunk's manifest entry is only emitted (and its offset saved) once its upload, and those of all chunks before it, have completed
+            .mapAsync(4, f -> f)
             .runWith(Sink.actorRefWithAck(self(), "init", "ack", "done", Failure::new), materializer);
         
         return ReceiveBuilder.create()
             .matchEquals("init", msg -> sender().tell("ack", self()))
-            .match(Long.class, l -> pipe(s3.saveOffset(l).thenApply(done -> "ack"), context().dispatcher()).to(sender()))
+            .match(ManifestEntry.class, entry -> pipe(
+                s3.addToManifest(tag, entry)
+                    .thenCompose(done -> s3.saveOffset(entry.getLastTimestamp()))
+                    .thenApply(done -> "ack"), context().dispatcher()).to(sender()))
             .match(Failure.class, msg -> {
                 log.error("Stream failed, rethrowing", msg.cause());
                 throw new RuntimeException(msg.cause());
@@ -107,4 +127,11 @@ public class S3Backup extends AbstractActor {
             .matchEquals("done", msg -> { throw new IllegalStateException("eventsByTag completed, this should not happen. Killing actor, hoping for restart"); })
             .build();
     }
+    
+    /**
+     * Starts streaming a chunk into storage, returning its manifest entry once it has been completely written.
+     */
+    private CompletionStage<ManifestEntry> upload(EventEnvelope first, Source<EventEnvelope, NotUsed> rest) {
+        return Source.single(first).concat(rest).runWith(s3.store(tag, first), materializer);
+    }
 }
@@ -4,15 +4,20 @@ import static akka.pattern.PatternsCS.ask;
 import static com.tradeshift.reaktive.backup.DropUntilNext.dropUntilNext;
 
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.tradeshift.reaktive.akka.SharedActorMaterializer;
+import com.tradeshift.reaktive.protobuf.BackupMessages.ObjectRestored;
+import com.tradeshift.reaktive.protobuf.Query;
 import com.tradeshift.reaktive.replication.actors.ReplicatedActorSharding;
 import com.typesafe.config.Config;
 
+import akka.NotUsed;
 import akka.actor.ActorRef;
 import akka.actor.Status.Failure;
 import akka.japi.pf.ReceiveBuilder;
@@ -20,6 +25,10 @@ import akka.persistence.AbstractPersistentActor;
 import akka.persistence.RecoveryCompleted;
 import akka.stream.Materializer;
 import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import io.vavr.Tuple;
+import io.vavr.collection.Vector;
+import io.vavr.control.Either;
 import scala.concurrent.duration.FiniteDuration;
 
 /**
@@ -28,6 +37,9 @@ import scala.concurrent.duration.FiniteDuration;
  * It maintains progress as a persistent actor, deleting all but the most recent message, and only
  * creating an update once every minute. That should keep it in check, without needing to have
  * this depend on the file system or a specific storage implementation (e.g. cassandra)
+ * 
+ * With restore.parallel-objects > 1, several objects are downloaded and decoded ahead in parallel. Progress is then
+ * saved as the last object that has been completely restored, rather than as an event offset.
  */
 public class S3Restore extends AbstractPersistentActor {
     private static final Logger log = LoggerFactory.getLogger(S3Restore.class);
@@ -35,22 +47,25 @@ public class S3Restore extends AbstractPersistentActor {
     private final Materializer materializer = SharedActorMaterializer.get(context().system());
     private final int maxInFlight;
     private final Duration timeout;
-    private final S3 s3;
+    private final BackupStorage s3;
     private final String tag;
     private final ActorRef shardRegion;
     private final FiniteDuration updateAccuracy;
+    private final int parallelObjects;
     
     private long offset = 0;
+    /** Start time of the last object that has been completely restored, when restoring objects in parallel */
+    private long restoredObjectStart = 0;
     
     /**
      * Creates a new S3Restore actor. Restoration will start/resume immediately. When restore is complete, the
      * actor will stop.
      * 
-     * @param s3 Repository to read from S3
+     * @param s3 Storage to read the backup from, e.g. {@link S3}
      * @param tag Tag with which all events should be tagged
      * @param shardRegion {@link ReplicatedActorSharding} to talk to
      */
-    public S3Restore(S3 s3, String tag, ActorRef shardRegion) {
+    public S3Restore(BackupStorage s3, String tag, ActorRef shardRegion) {
         this.s3 = s3;
         this.tag = tag;
         this.shardRegion = shardRegion;
@@ -59,22 +74,15 @@ public class S3Restore extends AbstractPersistentActor {
         maxInFlight = config.getInt("maxInFlight");
         timeout = config.getDuration("timeout");
         updateAccuracy = FiniteDuration.create(config.getDuration("update-accuracy", TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+        parallelObjects = config.getInt("parallel-objects");
     }
     
     @Override
     public Receive createReceive() {
         return ReceiveBuilder.create()
             .matchEquals("init", msg -> sender().tell("ack", self()))
-            .match(Long.class, (Long o) -> {
-                log.debug("Persisting {}", o);
-                persist(o, done -> {
-                    offset = o;
-                    if (lastSequenceNr() > 1) {
-                        deleteMessages(lastSequenceNr() - 1);
-                    }
-                    context().system().scheduler().scheduleOnce(updateAccuracy, sender(), "ack", context().dispatcher(), self());
-                });
-            })
+            .match(Long.class, (Long o) -> persistProgress(o, () -> offset = o))
+            .match(ObjectRestored.class, o -> persistProgress(o, () -> restoredObjectStart = o.getObjectStart()))
             .match(Failure.class, msg -> {
                 log.error("Stream failed, rethrowing", msg.cause());
                 throw new RuntimeException(msg.cause());
@@ -90,6 +98,7 @@ public class S3Restore extends AbstractPersistentActor {
     public Receive createReceiveRecover() {
         return ReceiveBuilder.create()
             .match(Long.class, o -> offset = o)
+            .match(ObjectRestored.class, o -> restoredObjectStart = o.getObjectStart())
             .match(RecoveryCompleted.class, msg -> startRestore())
             .build();
     }
@@ -99,16 +108,36 @@ public class S3Restore extends AbstractPersistentActor {
         return "s3restore";
     }
     
+    private void persistProgress(Object progress, Runnable update) {
+        log.debug("Persisting {}", progress);
+        persist(progress, done -> {
+            update.run();
+            if (lastSequenceNr() > 1) {
+                deleteMessages(lastSequenceNr() - 1);
+            }
+            context().system().scheduler().scheduleOnce(updateAccuracy, sender(), "ack", context().dispatcher(), self());
+        });
+    }
+    
     private void startRestore() {
-        s3
-        .list(tag)
-        // skip over entries until the one BEFORE entry where startTime >= offset (since the one before may have been only partially restored)
-        .via(dropUntilNext(l -> S3.getStartInstant(l).toEpochMilli() >= offset, true))
-        .flatMapConcat(entry -> s3.loadEvents(entry.key().substring(entry.key().lastIndexOf("/") + 1)))
-        .mapAsync(maxInFlight, e -> {
-            log.debug("Replaying {}:{}", e.getPersistenceId(), e.getSequenceNr());
-            return ask(shardRegion, e, timeout);
-        })
+        Source<String, NotUsed> entries = s3
+            .listKeys(tag)
+            // skip over objects that have been completely restored by a parallel restore
+            .filter(l -> BackupKeys.getStartInstant(l).toEpochMilli() > restoredObjectStart)
+            // skip over entries until the one BEFORE entry where startTime >= offset (since the one before may have been only partially restored)
+            .via(dropUntilNext(l -> BackupKeys.getStartInstant(l).toEpochMilli() >= offset, true));
+        
+        if (parallelObjects > 1) {
+            restoreParallel(entries);
+        } else {
+            restoreSequential(entries);
+        }
+    }
+    
+    private void restoreSequential(Source<String, NotUsed> entries) {
+        entries
+        .flatMapConcat(entry -> s3.loadEvents(entry))
+        .mapAsync(maxInFlight, this::replay)
         .map(resp -> {
             log.debug("Responded {}", resp);
             return (Long) resp;
@@ -118,4 +147,31 @@ public class S3Restore extends AbstractPersistentActor {
         .runWith(Sink.actorRefWithAck(self(), "init", "ack", "done", Failure::new), materializer);
     }
     
+    private void restoreParallel(Source<String, NotUsed> entries) {
+        entries
+        // download and decode several objects at the same time, but still emit them in order
+        .mapAsync(parallelObjects, entry -> s3.loadEvents(entry).runWith(Sink.seq(), materializer)
+            .thenApply(events -> Tuple.of(BackupKeys.getStartInstant(entry).toEpochMilli(), events)))
+        // each object's events are followed by a marker with the object's start time
+        .mapConcat(t -> Vector.ofAll(t._2).map(e -> Either.<Long, Query.EventEnvelope>right(e)).append(Either.left(t._1)))
+        .mapAsync(maxInFlight, this::replayIfEvent)
+        // since mapAsync emits in order, all events of an object have been restored once its marker comes out
+        .filter(Either::isLeft)
+        .map(e -> ObjectRestored.newBuilder().setObjectStart(e.getLeft()).build())
+        // only save one update per minute, and only the latest one
+        .conflate((o1, o2) -> o2)
+        .runWith(Sink.actorRefWithAck(self(), "init", "ack", "done", Failure::new), materializer);
+    }
+    
+    private CompletionStage<Either<Long, Query.EventEnvelope>> replayIfEvent(Either<Long, Query.EventEnvelope> e) {
+        if (e.isLeft()) {
+            return CompletableFuture.completedFuture(e);
+        }
+        return replay(e.get()).thenApply(resp -> e);
+    }
+    
+    private CompletionStage<Object> replay(Query.EventEnvelope e) {
+        log.debug("Replaying {}:{}", e.getPersistenceId(), e.getSequenceNr());
+        return ask(shardRegion, e, timeout);
+    }
 }
@@ -0,0 +1,100 @@
+package com.tradeshift.reaktive.backup;
+
+import static akka.pattern.PatternsCS.ask;
+import static com.tradeshift.reaktive.backup.DropUntilNext.dropUntilNext;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tradeshift.reaktive.akka.SharedActorMaterializer;
+import com.tradeshift.reaktive.protobuf.Query;
+import com.tradeshift.reaktive.replication.actors.ReplicatedActorSharding;
+import com.typesafe.config.Config;
+
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Source;
+import io.vavr.Tuple;
+import io.vavr.collection.Vector;
+
+/**
+ * Restores only the events selected by a {@link RestoreFilter} from an S3 bucket that S3Backup has written to, e.g. to
+ * repair a few persistenceIds, or a time window, after an incident.
+ *
+ * Backup objects that can't contain events of the time window are skipped based on the time in their key. For objects
+ * in format 2, only the blocks that the object's index lists for the selected persistenceIds are downloaded.
+ *
+ * Unlike {@link S3Restore}, progress is not saved. A selective restore that fails can simply be run again.
+ */
+public class SelectiveRestore {
+    private static final Logger log = LoggerFactory.getLogger(SelectiveRestore.class);
+
+    private final Materializer materializer;
+    private final BackupStorage s3;
+    private final String tag;
+    private final ActorRef shardRegion;
+    private final RestoreFilter filter;
+    private final int maxInFlight;
+    private final Duration timeout;
+
+    /**
+     * Creates a new SelectiveRestore, which will start when {@link #run()} is invoked.
+     *
+     * @param s3 Storage to read the backup from, e.g. {@link S3}
+     * @param tag Tag with which all events should be tagged
+     * @param shardRegion {@link ReplicatedActorSharding} to talk to
+     * @param filter Events to restore
+     */
+    public SelectiveRestore(ActorSystem system, BackupStorage s3, String tag, ActorRef shardRegion, RestoreFilter filter) {
+        this.materializer = SharedActorMaterializer.get(system);
+        this.s3 = s3;
+        this.tag = tag;
+        this.shardRegion = shardRegion;
+        this.filter = filter;
+
+        Config config = system.settings().config().getConfig("ts-reaktive.backup.restore");
+        maxInFlight = config.getInt("maxInFlight");
+        timeout = config.getDuration("timeout");
+    }
+
+    /**
+     * Runs the restore, returning the number of restored events when done.
+     */
+    public CompletionStage<Long> run() {
+        log.info("Restoring {} with {}", tag, filter);
+        return s3
+            .listKeys(tag)
+            // skip over entries until the one BEFORE entry where startTime >= from (since the one before can contain the start of the window)
+            .via(dropUntilNext(l -> filter.startsAfterWindowStart(BackupKeys.getStartInstant(l)), true))
+            .takeWhile(l -> filter.startsBeforeWindowEnd(BackupKeys.getStartInstant(l)))
+            .flatMapConcat(l -> loadEvents(l))
+            .filter(filter::matches)
+            .mapAsync(maxInFlight, e -> {
+                log.debug("Replaying {}:{}", e.getPersistenceId(), e.getSequenceNr());
+                return ask(shardRegion, e, timeout);
+            })
+            .runFold(0l, (count, resp) -> count + 1, materializer)
+            .thenApply(count -> {
+                log.info("Restored {} events of {}", count, tag);
+                return count;
+            });
+    }
+
+    private Source<Query.EventEnvelope, NotUsed> loadEvents(String key) {
+        if (!key.endsWith(BackupFormat.SUFFIX) || !filter.selectsPersistenceIds()) {
+            return s3.loadEvents(key);
+        }
+        return Source.fromCompletionStage(s3.loadIndex(key))
+            // the index lists blocks in order, so each block is read once, in order
+            .mapConcat(index -> Vector.ofAll(index.getEntriesList())
+                .filter(entry -> filter.matchesPersistenceId(entry.getPersistenceId()))
+                .map(entry -> Tuple.of(entry.getBlockOffset(), entry.getBlockLength()))
+                .distinct())
+            .flatMapConcat(block -> s3.loadBlock(key, block._1, block._2));
+    }
+}
@@ -0,0 +1,134 @@
+package com.tradeshift.reaktive.backup;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import com.google.protobuf.ByteString;
+import com.tradeshift.reaktive.protobuf.BackupMessages.Index;
+import com.tradeshift.reaktive.protobuf.BackupMessages.IndexEntry;
+import com.tradeshift.reaktive.protobuf.BackupMessages.ManifestEntry;
+import com.tradeshift.reaktive.protobuf.DelimitedProtobufFraming;
+import com.tradeshift.reaktive.protobuf.Query;
+import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
+
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import io.vavr.Tuple2;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+
+@RunWith(CuppaRunner.class)
+public class BackupFormatSpec extends SharedActorSystemSpec {
+    private static final Seq<Query.EventEnvelope> events = Vector.range(0, 100).map(i -> Query.EventEnvelope.newBuilder()
+        .setPersistenceId("doc" + (i % 3))
+        .setSequenceNr(i / 3 + 1)
+        .setTimestamp(1000 + i)
+        .setEvent(ByteString.copyFromUtf8("event number " + i))
+        .build());
+
+    private static akka.util.ByteString write(BackupFormat.Writer writer) throws Exception {
+        akka.util.ByteString bytes = akka.util.ByteString.empty();
+        for (Query.EventEnvelope e: events) {
+            for (akka.util.ByteString b: writer.add(e)) {
+                bytes = bytes.concat(b);
+            }
+        }
+        for (akka.util.ByteString b: writer.finish()) {
+            bytes = bytes.concat(b);
+        }
+        return bytes;
+    }
+
+    private Seq<Query.EventEnvelope> decode(akka.util.ByteString bytes) throws Exception {
+        return Vector.ofAll(Source.single(bytes).via(BackupFormat.decoder(1024 * 1024)).runWith(Sink.seq(), materializer)
+            .toCompletableFuture().get(1, TimeUnit.SECONDS));
+    }
+
+    {
+        describe("BackupFormat version 2", () -> {
+            it("should write events in compressed blocks that can be read back", () -> {
+                BackupFormat.Writer writer = new BackupFormat.Writer(2, 500);
+                akka.util.ByteString bytes = write(writer);
+
+                assertThat(decode(bytes)).containsExactlyElementsOf(events);
+
+                ManifestEntry entry = writer.getManifestEntry("key.v2");
+                assertThat(entry.getFormat()).isEqualTo(2);
+                assertThat(entry.getEventCount()).isEqualTo(100);
+                assertThat(entry.getFirstTimestamp()).isEqualTo(1000);
+                assertThat(entry.getLastTimestamp()).isEqualTo(1099);
+                assertThat(entry.getSize()).isEqualTo(bytes.size());
+            });
+
+            it("should allow reading the events of a single persistenceId through the index", () -> {
+                BackupFormat.Writer writer = new BackupFormat.Writer(2, 500);
+                akka.util.ByteString bytes = write(writer);
+
+                Tuple2<Long, Integer> indexLocation = BackupFormat.decodeTrailer(bytes.slice(bytes.size() - BackupFormat.TRAILER_SIZE, bytes.size()));
+                ManifestEntry entry = writer.getManifestEntry("key.v2");
+                assertThat(indexLocation._1).isEqualTo(entry.getIndexOffset());
+                assertThat(indexLocation._2).isEqualTo(entry.getIndexLength());
+
+                Index index = BackupFormat.decodeIndex(bytes.slice((int) entry.getIndexOffset(), (int) entry.getIndexOffset() + entry.getIndexLength()));
+                Seq<IndexEntry> doc1 = Vector.ofAll(index.getEntriesList()).filter(e -> e.getPersistenceId().equals("doc1"));
+                assertThat(doc1.size()).isGreaterThan(1);
+                assertThat(doc1.head().getFirstSequenceNr()).isEqualTo(1);
+                assertThat(doc1.last().getLastSequenceNr()).isEqualTo(33);
+
+                Seq<Query.EventEnvelope> read = doc1.flatMap(e -> {
+                    try {
+                        return BackupFormat.decodeBlock(bytes.slice((int) e.getBlockOffset(), (int) e.getBlockOffset() + e.getBlockLength()));
+                    } catch (Exception x) {
+                        throw new RuntimeException(x);
+                    }
+                }).filter(e -> e.getPersistenceId().equals("doc1"));
+                assertThat(read).containsExactlyElementsOf(events.filter(e -> e.getPersistenceId().equals("doc1")));
+            });
+
+            it("should write the same bytes through its encoder flow", () -> {
+                akka.util.ByteString bytes = Source.from(events)
+                    .via(new BackupFormat.Writer(2, 500).encoder())
+                    .runFold(akka.util.ByteString.empty(), akka.util.ByteString::concat, materializer)
+                    .toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+                assertThat(bytes).isEqualTo(write(new BackupFormat.Writer(2, 500)));
+                assertThat(decode(bytes)).containsExactlyElementsOf(events);
+            });
+
+            it("should fail on a frame that is larger than the maximum frame size", () -> {
+                akka.util.ByteString bytes = write(new BackupFormat.Writer(2, 500));
+
+                assertThatThrownBy(() -> Source.single(bytes).via(BackupFormat.decoder(100)).runWith(Sink.seq(), materializer)
+                    .toCompletableFuture().get(1, TimeUnit.SECONDS)
+                ).isInstanceOf(ExecutionException.class).hasMessageContaining("Maximum allowed frame size");
+            });
+
+            it("should be smaller than format 1 for compressible events", () -> {
+                assertThat(write(new BackupFormat.Writer(2, 100000)).size()).isLessThan(write(new BackupFormat.Writer(1, 100000)).size());
+            });
+        });
+
+        describe("BackupFormat version 1", () -> {
+            it("should write plain delimited events", () -> {
+                BackupFormat.Writer writer = new BackupFormat.Writer(1, 500);
+                akka.util.ByteString bytes = write(writer);
+
+                assertThat(Source.single(bytes)
+                    .via(DelimitedProtobufFraming.instance)
+                    .map(bs -> Query.EventEnvelope.parseFrom(bs.iterator().asInputStream()))
+                    .runWith(Sink.seq(), materializer)
+                    .toCompletableFuture().get(1, TimeUnit.SECONDS)
+                ).containsExactlyElementsOf(events);
+                assertThat(writer.getManifestEntry("key").hasIndexOffset()).isFalse();
+            });
+        });
+    }
+}
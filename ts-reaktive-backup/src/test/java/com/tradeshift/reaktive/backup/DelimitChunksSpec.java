@@ -0,0 +1,41 @@
+package com.tradeshift.reaktive.backup;
+
+import static com.tradeshift.reaktive.backup.DelimitChunks.delimitChunks;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
+
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import io.vavr.control.Option;
+import scala.concurrent.duration.FiniteDuration;
+
+@RunWith(CuppaRunner.class)
+public class DelimitChunksSpec extends SharedActorSystemSpec {
+    {
+        describe("DelimitChunks", () -> {
+            it("should end a chunk after the maximum number of elements", () -> {
+                assertThat(
+                    Source.range(1,5).via(delimitChunks(2, Duration.ofMinutes(1))).runWith(Sink.seq(), materializer).toCompletableFuture().get(1, TimeUnit.SECONDS)
+                ).containsExactly(Option.some(1), Option.some(2), Option.none(), Option.some(3), Option.some(4), Option.none(), Option.some(5));
+            });
+
+            it("should end a chunk after the maximum duration, without waiting for the next element", () -> {
+                assertThat(
+                    Source.single(1).concat(Source.maybe())
+                        .via(delimitChunks(10, Duration.ofMillis(100)))
+                        .takeWithin(FiniteDuration.create(500, TimeUnit.MILLISECONDS))
+                        .runWith(Sink.seq(), materializer).toCompletableFuture().get(1, TimeUnit.SECONDS)
+                ).containsExactly(Option.some(1), Option.none());
+            });
+        });
+    }
+}
@@ -0,0 +1,119 @@
+package com.tradeshift.reaktive.backup;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.afterEach;
+import static org.forgerock.cuppa.Cuppa.beforeEach;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import com.tradeshift.reaktive.akka.rest.EventMarshallers;
+import com.tradeshift.reaktive.protobuf.BackupMessages.Index;
+import com.tradeshift.reaktive.protobuf.BackupMessages.IndexEntry;
+import com.tradeshift.reaktive.protobuf.BackupMessages.ManifestEntry;
+import com.tradeshift.reaktive.protobuf.Query;
+import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
+import com.typesafe.config.ConfigFactory;
+
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Sequence;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import io.vavr.collection.Vector;
+
+@RunWith(CuppaRunner.class)
+public class FileBackupStorageSpec extends SharedActorSystemSpec {
+    private static final Vector<EventEnvelope> events = Vector.range(0, 100).map(i ->
+        new EventEnvelope(Sequence.apply(1478698168030l + i), "doc" + (i % 3), i / 3 + 1, new byte[] { i.byteValue() }));
+
+    private Path directory;
+    private FileBackupStorage storage;
+
+    public FileBackupStorageSpec() {
+        super(ConfigFactory.parseString(
+            "ts-reaktive.backup.backup.format = 2\n"
+          + "ts-reaktive.backup.backup.block-size = 100\n"
+          + "ts-reaktive.backup.file.read-chunk-size = 64\n"));
+    }
+
+    private static <T> T await(CompletionStage<T> f) throws Exception {
+        return f.toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    private ManifestEntry store(Vector<EventEnvelope> chunk) throws Exception {
+        return await(Source.from(chunk).runWith(storage.store("MyEvent", chunk.head()), materializer));
+    }
+
+    private <T> List<T> read(Source<T, ?> source) throws Exception {
+        return await(source.runWith(Sink.seq(), materializer));
+    }
+
+    {
+        describe("FileBackupStorage", () -> {
+            beforeEach(() -> {
+                directory = Files.createTempDirectory("backup");
+                storage = new FileBackupStorage(system, directory);
+            });
+
+            afterEach(() -> {
+                try (Stream<Path> files = Files.walk(directory)) {
+                    files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+                }
+            });
+
+            it("should list stored chunks in order, and read back their events", () -> {
+                ManifestEntry entry1 = store(events.take(50));
+                ManifestEntry entry2 = store(events.drop(50));
+
+                assertThat(entry1.getKey()).isEqualTo("MyEvent-from-2016_11_09_13_29_28_030.v2");
+                assertThat(entry1.getEventCount()).isEqualTo(50);
+                assertThat(read(storage.listKeys("MyEvent"))).containsExactly(entry1.getKey(), entry2.getKey());
+                assertThat(read(storage.listKeys("OtherEvent"))).isEmpty();
+
+                assertThat(Vector.ofAll(read(storage.loadEvents(entry2.getKey()))).map(Query.EventEnvelope::getTimestamp))
+                    .containsExactlyElementsOf(events.drop(50).map(EventMarshallers::getOffsetAsEpoch));
+            });
+
+            it("should read single blocks through the index", () -> {
+                ManifestEntry entry = store(events);
+                Index index = await(storage.loadIndex(entry.getKey()));
+
+                assertThat(index.getEntriesCount()).isGreaterThan(3);
+                IndexEntry last = index.getEntries(index.getEntriesCount() - 1);
+                List<Query.EventEnvelope> block = read(storage.loadBlock(entry.getKey(), last.getBlockOffset(), last.getBlockLength()));
+                List<Query.EventEnvelope> all = read(storage.loadEvents(entry.getKey()));
+
+                assertThat(block).isNotEmpty();
+                assertThat(all.subList(all.size() - block.size(), all.size())).isEqualTo(block);
+            });
+
+            it("should read a chunk that doesn't exist as empty", () -> {
+                assertThat(read(storage.loadEvents("MyEvent-from-2016_11_09_13_29_28_030"))).isEmpty();
+            });
+
+            it("should keep the manifest and the offset", () -> {
+                assertThat(await(storage.loadOffset())).isEqualTo(0l);
+
+                ManifestEntry entry1 = store(events.take(50));
+                ManifestEntry entry2 = store(events.drop(50));
+                await(storage.addToManifest("MyEvent", entry1));
+                await(storage.addToManifest("MyEvent", entry2));
+                await(storage.saveOffset(entry2.getLastTimestamp()));
+
+                assertThat(read(storage.loadManifest("MyEvent"))).containsExactly(entry1, entry2);
+                assertThat(await(storage.loadOffset())).isEqualTo(entry2.getLastTimestamp());
+            });
+        });
+    }
+}
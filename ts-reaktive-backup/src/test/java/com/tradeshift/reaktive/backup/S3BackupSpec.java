@@ -2,22 +2,32 @@ package com.tradeshift.reaktive.backup;
 
 import static com.tradeshift.reaktive.testkit.Await.within;
 import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.forgerock.cuppa.Cuppa.beforeEach;
 import static org.forgerock.cuppa.Cuppa.describe;
 import static org.forgerock.cuppa.Cuppa.it;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.forgerock.cuppa.junit.CuppaRunner;
 import org.junit.runner.RunWith;
 
 import com.tradeshift.reaktive.akka.UUIDs;
+import com.tradeshift.reaktive.akka.rest.EventMarshallers;
+import com.tradeshift.reaktive.protobuf.BackupMessages.ManifestEntry;
 import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
 import com.typesafe.config.ConfigFactory;
 
@@ -28,14 +38,16 @@ import akka.persistence.query.EventEnvelope;
 import akka.persistence.query.NoOffset;
 import akka.persistence.query.TimeBasedUUID;
 import akka.persistence.query.javadsl.EventsByTagQuery;
+import akka.stream.javadsl.Sink;
 import akka.stream.javadsl.Source;
 import akka.testkit.javadsl.TestKit;
-import io.vavr.collection.Vector;
 
 @RunWith(CuppaRunner.class)
 public class S3BackupSpec extends SharedActorSystemSpec {
     private final EventsByTagQuery query = mock(EventsByTagQuery.class);
     private final S3 s3 = mock(S3.class);
+    /** The events of each chunk that was uploaded to the mocked S3 */
+    private final Queue<List<EventEnvelope>> uploads = new ConcurrentLinkedQueue<>();
     
     public S3BackupSpec() {
         super(ConfigFactory.parseString(
@@ -53,6 +65,13 @@ public class S3BackupSpec extends SharedActorSystemSpec {
                 reset(query, s3);
                 when(s3.loadOffset()).thenReturn(completedFuture(0l));
                 when(s3.saveOffset(anyLong())).thenReturn(completedFuture(Done.getInstance()));
+                uploads.clear();
+                when(s3.store(eq("tag"), any(EventEnvelope.class))).thenAnswer(i ->
+                    Sink.<EventEnvelope>seq().mapMaterializedValue(f -> f.thenApply(events -> {
+                        uploads.add(events);
+                        return ManifestEntry.newBuilder().setLastTimestamp(EventMarshallers.getOffsetAsEpoch(events.get(events.size() - 1))).build();
+                    })));
+                when(s3.addToManifest(eq("tag"), any(ManifestEntry.class))).thenReturn(completedFuture(Done.getInstance()));
             });
             
             it("stops itself if the query stream ends", () -> {
@@ -65,6 +84,17 @@ public class S3BackupSpec extends SharedActorSystemSpec {
                 probe.expectTerminated(actor);
             });
             
+            it("resumes the query from the offset that was saved before", () -> {
+                when(s3.loadOffset()).thenReturn(completedFuture(1234l));
+                when(query.eventsByTag("tag", new TimeBasedUUID(UUIDs.startOf(1234l)))).thenReturn(Source.maybe());
+                
+                actor();
+                
+                within(500, TimeUnit.MILLISECONDS).eventuallyDo(() -> {
+                    verify(query).eventsByTag("tag", new TimeBasedUUID(UUIDs.startOf(1234l)));
+                });
+            });
+            
             it("stops itself if the query stream fails", () -> {
                 when(query.eventsByTag("tag", NoOffset.getInstance())).thenReturn(Source.failed(new RuntimeException("simulated failure")));
                 
@@ -81,13 +111,14 @@ public class S3BackupSpec extends SharedActorSystemSpec {
                 CompletableFuture<EventEnvelope> event1 = new CompletableFuture<>();
                 CompletableFuture<EventEnvelope> event2 = new CompletableFuture<>();
                 when(query.eventsByTag("tag", NoOffset.getInstance())).thenReturn(Source.fromCompletionStage(event1).concat(Source.fromCompletionStage(event2)));
-                when(s3.store("tag", Vector.of(envelope1))).thenReturn(completedFuture(Done.getInstance()));
                 
                 actor();
                 event1.complete(envelope1);
                 Thread.sleep(1500);
                 
-                verify(s3).store("tag", Vector.of(envelope1));
+                assertThat(uploads).containsExactly(Arrays.asList(envelope1));
+                verify(s3).addToManifest("tag", ManifestEntry.newBuilder().setLastTimestamp(1l).build());
+                verify(s3).saveOffset(1l);
             });
             
             it("uploads a chunk after the specified number of events, even if the interval hasn't elapsed yet", () -> {
@@ -98,7 +129,6 @@ public class S3BackupSpec extends SharedActorSystemSpec {
                 CompletableFuture<EventEnvelope> event2 = new CompletableFuture<>();
                 CompletableFuture<EventEnvelope> event3 = new CompletableFuture<>();
                 when(query.eventsByTag("tag", NoOffset.getInstance())).thenReturn(Source.fromCompletionStage(event1).concat(Source.fromCompletionStage(event2)).concat(Source.fromCompletionStage(event3)));
-                when(s3.store("tag", Vector.of(envelope1, envelope2))).thenReturn(completedFuture(Done.getInstance()));
                 
                 actor();
                 event1.complete(envelope1);
@@ -106,7 +136,27 @@ public class S3BackupSpec extends SharedActorSystemSpec {
 
                 // before event-chunk-max-duration, the events should have been stored
                 within(500, TimeUnit.MILLISECONDS).eventuallyDo(() -> {
-                    verify(s3).store("tag", Vector.of(envelope1, envelope2));
+                    assertThat(uploads).containsExactly(Arrays.asList(envelope1, envelope2));
+                    verify(s3).saveOffset(2l);
+                });
+            });
+            
+            it("only saves the offset of a chunk after its upload has completed", () -> {
+                EventEnvelope envelope1 = EventEnvelope.apply(new TimeBasedUUID(UUIDs.startOf(1l)), "persistenceId", 0, "hello, world");
+                EventEnvelope envelope2 = EventEnvelope.apply(new TimeBasedUUID(UUIDs.startOf(2l)), "persistenceId", 1, "hello, world");
+                
+                CompletableFuture<ManifestEntry> uploaded = new CompletableFuture<>();
+                when(s3.store(eq("tag"), any(EventEnvelope.class))).thenAnswer(i ->
+                    Sink.<EventEnvelope>ignore().mapMaterializedValue(f -> f.thenCompose(done -> uploaded)));
+                when(query.eventsByTag("tag", NoOffset.getInstance())).thenReturn(Source.from(Arrays.asList(envelope1, envelope2)).concat(Source.maybe()));
+                
+                actor();
+                Thread.sleep(200);
+                verify(s3, never()).saveOffset(anyLong());
+                
+                uploaded.complete(ManifestEntry.newBuilder().setLastTimestamp(2l).build());
+                within(500, TimeUnit.MILLISECONDS).eventuallyDo(() -> {
+                    verify(s3).saveOffset(2l);
                 });
             });
         });
@@ -0,0 +1,96 @@
+package com.tradeshift.reaktive.backup;
+
+import static com.tradeshift.reaktive.testkit.Await.within;
+import static org.forgerock.cuppa.Cuppa.beforeEach;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import com.tradeshift.reaktive.protobuf.Query;
+import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.stream.javadsl.Source;
+import akka.testkit.javadsl.TestKit;
+import io.vavr.collection.Vector;
+
+@RunWith(CuppaRunner.class)
+public class S3ParallelRestoreSpec extends SharedActorSystemSpec {
+    public S3ParallelRestoreSpec() {
+        super(ConfigFactory.parseString(
+            "ts-reaktive.backup.restore.update-accuracy = 1 millisecond\n"
+          + "ts-reaktive.backup.restore.parallel-objects = 2\n"));
+    }
+
+    private final S3 s3 = mock(S3.class);
+    private final TestKit shardRegion = new TestKit(system);
+
+    private ActorRef actor() {
+        return system.actorOf(Props.create(S3Restore.class, () -> new S3Restore(s3, "MyEvent", shardRegion.getRef())));
+    }
+
+    {
+        describe("The S3Restore actor, restoring objects in parallel", () -> {
+            CompletableFuture<Query.EventEnvelope> slowEvent = new CompletableFuture<>();
+
+            beforeEach(() -> {
+                reset(s3);
+                when(s3.listKeys("MyEvent")).thenReturn(Source.from(Vector.of(
+                    "MyEvent-from-2016_11_09_13_29_28_030.v2",
+                    "MyEvent-from-2016_11_09_13_31_11_259.v2")));
+                when(s3.loadEvents("MyEvent-from-2016_11_09_13_29_28_030.v2")).thenReturn(
+                    Source.fromCompletionStage(slowEvent).concat(Source.single(eventEnvelope(1478698168031l, 1))));
+                when(s3.loadEvents("MyEvent-from-2016_11_09_13_31_11_259.v2")).thenReturn(Source.from(Vector.of(eventEnvelope(1478698271259l, 2), eventEnvelope(1478698271260l, 3))));
+            });
+
+            it("should load objects ahead, but still send all events in order, and not restore completed objects again when resumed", () -> {
+                ActorRef actor = actor();
+
+                // The second object is being loaded while the first one is still downloading
+                within(1, TimeUnit.SECONDS).eventuallyDo(() -> {
+                    verify(s3).loadEvents("MyEvent-from-2016_11_09_13_31_11_259.v2");
+                });
+                shardRegion.expectNoMessage(Duration.ofMillis(200));
+                slowEvent.complete(eventEnvelope(1478698168030l, 0));
+
+                shardRegion.expectMsgEquals(eventEnvelope(1478698168030l,0));
+                shardRegion.reply(1478698168030l);
+                shardRegion.expectMsgEquals(eventEnvelope(1478698168031l,1));
+                shardRegion.reply(1478698168031l);
+                shardRegion.expectMsgEquals(eventEnvelope(1478698271259l,2));
+                shardRegion.reply(1478698271259l);
+                shardRegion.expectMsgEquals(eventEnvelope(1478698271260l,3));
+                shardRegion.reply(1478698271260l);
+
+                TestKit probe = new TestKit(system);
+                probe.watch(actor);
+                probe.expectTerminated(actor);
+
+                actor = actor();
+                probe.watch(actor);
+                probe.expectTerminated(actor);
+                shardRegion.expectNoMessage(Duration.ofMillis(200));
+            });
+        });
+    }
+
+    private com.tradeshift.reaktive.protobuf.Query.EventEnvelope eventEnvelope(long seqnr, long offset) {
+        return Query.EventEnvelope.newBuilder()
+            .setPersistenceId("pid")
+            .setSequenceNr(seqnr)
+            .setTimestamp(offset)
+            .build();
+    }
+}
@@ -7,8 +7,6 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.when;
 
-import java.time.Instant;
-
 import org.forgerock.cuppa.junit.CuppaRunner;
 import org.junit.runner.RunWith;
 
@@ -18,7 +16,6 @@ import com.typesafe.config.ConfigFactory;
 
 import akka.actor.ActorRef;
 import akka.actor.Props;
-import akka.stream.alpakka.s3.javadsl.ListBucketResultContents;
 import akka.stream.javadsl.Source;
 import akka.testkit.javadsl.TestKit;
 import io.vavr.collection.Vector;
@@ -40,9 +37,9 @@ public class S3RestoreSpec extends SharedActorSystemSpec {
         describe("The S3Restore actor", () -> {
             beforeEach(() -> {
                 reset(s3);
-                when(s3.list("MyEvent")).thenReturn(Source.from(Vector.of(
-            		ListBucketResultContents.apply("", "prefix/MyEvent-from-2016_11_09_13_29_28_030", "", 100, Instant.now(), ""),
-            		ListBucketResultContents.apply("", "prefix/MyEvent-from-2016_11_09_13_31_11_259", "", 100, Instant.now(), ""))));
+                when(s3.listKeys("MyEvent")).thenReturn(Source.from(Vector.of(
+            		"MyEvent-from-2016_11_09_13_29_28_030",
+            		"MyEvent-from-2016_11_09_13_31_11_259")));
                 when(s3.loadEvents("MyEvent-from-2016_11_09_13_29_28_030")).thenReturn(Source.from(Vector.of(eventEnvelope(1478698168030l, 0), eventEnvelope(1478698168031l, 1))));
                 when(s3.loadEvents("MyEvent-from-2016_11_09_13_31_11_259")).thenReturn(Source.from(Vector.of(eventEnvelope(1478698271259l, 2), eventEnvelope(1478698271260l, 3))));
             });
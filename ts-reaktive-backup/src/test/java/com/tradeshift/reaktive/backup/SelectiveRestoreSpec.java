@@ -0,0 +1,117 @@
+package com.tradeshift.reaktive.backup;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.beforeEach;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import com.tradeshift.reaktive.protobuf.BackupMessages.Index;
+import com.tradeshift.reaktive.protobuf.BackupMessages.IndexEntry;
+import com.tradeshift.reaktive.protobuf.Query;
+import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
+
+import akka.actor.ActorRef;
+import akka.stream.javadsl.Source;
+import akka.testkit.TestActor;
+import akka.testkit.javadsl.TestKit;
+import io.vavr.collection.Vector;
+
+@RunWith(CuppaRunner.class)
+public class SelectiveRestoreSpec extends SharedActorSystemSpec {
+    private static final String OBJECT1 = "MyEvent-from-2016_11_09_13_29_28_030";
+    private static final String OBJECT2 = "MyEvent-from-2016_11_09_13_31_11_259.v2";
+    private static final String OBJECT3 = "MyEvent-from-2016_11_09_13_35_00_000";
+
+    private final S3 s3 = mock(S3.class);
+    private TestKit shardRegion;
+
+    private long restore(RestoreFilter filter) throws Exception {
+        CompletionStage<Long> result = new SelectiveRestore(system, s3, "MyEvent", shardRegion.getRef(), filter).run();
+        return result.toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    {
+        describe("SelectiveRestore", () -> {
+            beforeEach(() -> {
+                reset(s3);
+                shardRegion = new TestKit(system);
+                // acknowledge everything, replying with the event's timestamp
+                shardRegion.setAutoPilot(new TestActor.AutoPilot() {
+                    @Override
+                    public TestActor.AutoPilot run(ActorRef sender, Object msg) {
+                        sender.tell(Query.EventEnvelope.class.cast(msg).getTimestamp(), ActorRef.noSender());
+                        return this;
+                    }
+                });
+
+                when(s3.listKeys("MyEvent")).thenReturn(Source.from(Vector.of(
+                    OBJECT1,
+                    OBJECT2,
+                    OBJECT3)));
+                when(s3.loadEvents(OBJECT1)).thenReturn(Source.from(Vector.of(
+                    eventEnvelope("doc1", 1, 1478698168030l), eventEnvelope("doc2", 1, 1478698168031l))));
+                when(s3.loadEvents(OBJECT2)).thenReturn(Source.from(Vector.of(
+                    eventEnvelope("doc1", 2, 1478698271259l), eventEnvelope("doc2", 2, 1478698271260l), eventEnvelope("doc3", 1, 1478698271261l))));
+                when(s3.loadEvents(OBJECT3)).thenReturn(Source.from(Vector.of(
+                    eventEnvelope("doc1", 3, 1478698500000l))));
+                when(s3.loadIndex(OBJECT2)).thenReturn(completedFuture(Index.newBuilder()
+                    .addEntries(IndexEntry.newBuilder().setPersistenceId("doc1").setBlockOffset(0).setBlockLength(100))
+                    .addEntries(IndexEntry.newBuilder().setPersistenceId("doc2").setBlockOffset(0).setBlockLength(100))
+                    .addEntries(IndexEntry.newBuilder().setPersistenceId("doc3").setBlockOffset(100).setBlockLength(50))
+                    .build()));
+                when(s3.loadBlock(OBJECT2, 0, 100)).thenReturn(Source.from(Vector.of(
+                    eventEnvelope("doc1", 2, 1478698271259l), eventEnvelope("doc2", 2, 1478698271260l))));
+                when(s3.loadBlock(OBJECT2, 100, 50)).thenReturn(Source.from(Vector.of(
+                    eventEnvelope("doc3", 1, 1478698271261l))));
+            });
+
+            it("should restore all events if not filtering", () -> {
+                assertThat(restore(RestoreFilter.ALL)).isEqualTo(6);
+            });
+
+            it("should only restore events of selected persistenceIds, using the index of objects that have one", () -> {
+                assertThat(restore(RestoreFilter.ALL.withPersistenceIds(Vector.of("doc3")))).isEqualTo(1);
+
+                shardRegion.expectMsgEquals(eventEnvelope("doc3", 1, 1478698271261l));
+                verify(s3, never()).loadEvents(OBJECT2);
+                verify(s3, never()).loadBlock(OBJECT2, 0, 100);
+            });
+
+            it("should restore events of persistenceIds starting with a prefix", () -> {
+                assertThat(restore(RestoreFilter.ALL.withPersistenceIdPrefix("doc1"))).isEqualTo(3);
+            });
+
+            it("should skip objects that can't contain events of the time window", () -> {
+                assertThat(restore(RestoreFilter.ALL.withTimeWindow(Instant.ofEpochMilli(1478698271260l), Instant.ofEpochMilli(1478698300000l)))).isEqualTo(2);
+
+                shardRegion.expectMsgEquals(eventEnvelope("doc2", 2, 1478698271260l));
+                shardRegion.expectMsgEquals(eventEnvelope("doc3", 1, 1478698271261l));
+                verify(s3, never()).loadEvents(OBJECT1);
+                verify(s3, never()).loadEvents(OBJECT3);
+                verify(s3, never()).loadIndex(anyString());
+            });
+        });
+    }
+
+    private Query.EventEnvelope eventEnvelope(String persistenceId, long sequenceNr, long timestamp) {
+        return Query.EventEnvelope.newBuilder()
+            .setPersistenceId(persistenceId)
+            .setSequenceNr(sequenceNr)
+            .setTimestamp(timestamp)
+            .build();
+    }
+}
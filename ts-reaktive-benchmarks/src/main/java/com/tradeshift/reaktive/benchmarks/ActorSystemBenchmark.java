@@ -0,0 +1,76 @@
+package com.tradeshift.reaktive.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+/**
+ * Base class for benchmarks that need an actor system. Each benchmark trial gets a fresh actor system, which is
+ * configured with an in-memory journal and snapshot store (see application.conf).
+ *
+ * All benchmarks measure the throughput of running one complete fixture, i.e. the number of operations per second
+ * is the number of documents (or streams) per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1G", "-Xmx1G" })
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public abstract class ActorSystemBenchmark {
+    protected ActorSystem system;
+    protected Materializer materializer;
+
+    @Setup(Level.Trial)
+    public void startActorSystem() throws Exception {
+        system = ActorSystem.create("benchmark", config());
+        materializer = ActorMaterializer.create(system);
+        setup();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopActorSystem() throws Exception {
+        Await.result(system.terminate(), Duration.Inf());
+    }
+
+    /**
+     * Prepares the fixtures for a trial, after the actor system has been started.
+     */
+    protected void setup() throws Exception {}
+
+    /**
+     * Returns the configuration for the actor system. Subclasses can override this to tune settings based on
+     * their parameters, which JMH has already injected by the time this is called.
+     */
+    protected Config config() {
+        return ConfigFactory.load();
+    }
+
+    /**
+     * Runs the given source to completion, returning the number of elements it emitted.
+     */
+    protected <T> long count(Source<T,?> source) throws Exception {
+        return source.runWith(Sink.fold(0L, (n, elem) -> n + 1), materializer).toCompletableFuture().get();
+    }
+}
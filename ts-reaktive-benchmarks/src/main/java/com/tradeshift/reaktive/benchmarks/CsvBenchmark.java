@@ -0,0 +1,53 @@
+package com.tradeshift.reaktive.benchmarks;
+
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+import com.tradeshift.reaktive.csv.CsvEvent;
+import com.tradeshift.reaktive.csv.CsvParser;
+import com.tradeshift.reaktive.csv.CsvSettings;
+import com.tradeshift.reaktive.csv.CsvWriter;
+
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import io.vavr.collection.Vector;
+
+/**
+ * Measures parsing CSV with {@link CsvParser} and writing it with {@link CsvWriter}.
+ *
+ * The fixture is a CSV document with [items] lines of [fields] quoted values each, which the parser receives
+ * as strings of [chunkSize] characters.
+ */
+public class CsvBenchmark extends ActorSystemBenchmark {
+    private static final CsvSettings settings = CsvSettings.RFC4180;
+
+    @Param({"100", "10000"})
+    public int items;
+
+    @Param({"5", "50"})
+    public int fields;
+
+    @Param({"8192"})
+    public int chunkSize;
+
+    private Vector<String> document;
+    private List<CsvEvent> events;
+
+    @Override
+    protected void setup() throws Exception {
+        document = Fixtures.chunks(Fixtures.csv(settings, Fixtures.rows(items, fields, 20)), chunkSize);
+        events = Source.from(document).via(new CsvParser(settings)).runWith(Sink.seq(), materializer).toCompletableFuture().get();
+    }
+
+    @Benchmark
+    public long parse() throws Exception {
+        return count(Source.from(document).via(new CsvParser(settings)));
+    }
+
+    @Benchmark
+    public long write() throws Exception {
+        return count(Source.from(events).via(new CsvWriter(settings)));
+    }
+}
@@ -0,0 +1,38 @@
+package com.tradeshift.reaktive.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+import com.tradeshift.reaktive.protobuf.DelimitedProtobufFraming;
+
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import io.vavr.collection.Vector;
+
+/**
+ * Measures splitting a stream of length-delimited protobuf messages with {@link DelimitedProtobufFraming}.
+ *
+ * The fixture is [messages] messages of [messageSize] bytes each, arriving in chunks of [chunkSize] bytes.
+ */
+public class DelimitedProtobufFramingBenchmark extends ActorSystemBenchmark {
+    @Param({"10000"})
+    public int messages;
+
+    @Param({"50", "5000"})
+    public int messageSize;
+
+    @Param({"8192"})
+    public int chunkSize;
+
+    private Vector<ByteString> stream;
+
+    @Override
+    protected void setup() {
+        stream = Fixtures.chunks(Fixtures.delimited(messages, messageSize), chunkSize);
+    }
+
+    @Benchmark
+    public long deframe() throws Exception {
+        return count(Source.from(stream).via(DelimitedProtobufFraming.instance));
+    }
+}
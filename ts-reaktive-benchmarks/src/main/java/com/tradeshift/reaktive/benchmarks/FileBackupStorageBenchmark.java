@@ -0,0 +1,83 @@
+package com.tradeshift.reaktive.benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.tradeshift.reaktive.backup.FileBackupStorage;
+import com.tradeshift.reaktive.backup.S3Backup;
+import com.tradeshift.reaktive.backup.S3Restore;
+import com.tradeshift.reaktive.protobuf.BackupMessages.ManifestEntry;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Sequence;
+import akka.stream.javadsl.Source;
+import io.vavr.collection.Vector;
+
+/**
+ * Measures writing and reading backup chunks of [events] events for [aggregates] persistence IDs on local disk,
+ * in backup [format] 1 or 2, using the {@link FileBackupStorage} that {@link S3Backup} and {@link S3Restore} can run on.
+ *
+ * Each operation writes or reads one complete chunk, so the number of events per second is the score times [events].
+ */
+public class FileBackupStorageBenchmark extends ActorSystemBenchmark {
+    @Param({"10000"})
+    public int events;
+
+    @Param({"100"})
+    public int aggregates;
+
+    @Param({"1", "2"})
+    public int format;
+
+    private Path directory;
+    private FileBackupStorage storage;
+    private Vector<EventEnvelope> envelopes;
+    private String key;
+
+    @Override
+    protected Config config() {
+        return ConfigFactory.parseString("ts-reaktive.backup.backup.format = " + format).withFallback(super.config());
+    }
+
+    @Override
+    protected void setup() throws Exception {
+        directory = Files.createTempDirectory("backup-benchmark");
+        storage = new FileBackupStorage(system, directory);
+        envelopes = Fixtures.envelopes(events, aggregates).map(e ->
+            new EventEnvelope(Sequence.apply(e.getTimestamp()), e.getPersistenceId(), e.getSequenceNr(), e.getEvent().toByteArray()));
+        key = store().getKey();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDirectory() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     * Writes all events as one chunk. Every operation overwrites the same chunk.
+     */
+    @Benchmark
+    public ManifestEntry store() throws Exception {
+        return Source.from(envelopes).runWith(storage.store("MyEvent", envelopes.head()), materializer).toCompletableFuture().get();
+    }
+
+    /**
+     * Reads all events of the chunk back, through a memory-mapped file.
+     */
+    @Benchmark
+    public long restore() throws Exception {
+        return count(storage.loadEvents(key));
+    }
+}
@@ -0,0 +1,183 @@
+package com.tradeshift.reaktive.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.UUID;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.protobuf.CodedOutputStream;
+import com.tradeshift.reaktive.csv.CsvSettings;
+import com.tradeshift.reaktive.protobuf.Query;
+
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import io.vavr.collection.Vector;
+
+/**
+ * Generates the documents that the benchmarks run against. Everything is derived from a fixed random seed, so
+ * every run (and every JMH fork) sees exactly the same input, without needing any files or network access.
+ */
+public class Fixtures {
+    private static final long SEED = 4711;
+
+    /** Characters that values are made of, including some that need escaping in JSON, XML and CSV */
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 \"'<>&;,\u00e6\u00f8\u00e5";
+
+    /**
+     * Returns [count] distinct field names.
+     */
+    public static Vector<String> fieldNames(int count) {
+        return Vector.range(0, count).map(i -> "field" + i);
+    }
+
+    /**
+     * Returns [items] rows of [fields] random values each, every value being between 1 and [maxValueLength] characters.
+     */
+    public static Vector<Vector<String>> rows(int items, int fields, int maxValueLength) {
+        Random random = new Random(SEED);
+        return Vector.range(0, items).map(i -> Vector.range(0, fields).map(f -> value(random, maxValueLength)));
+    }
+
+    /**
+     * Returns a JSON array with an object for each row, having the given field names.
+     */
+    public static byte[] json(Vector<String> fieldNames, Vector<Vector<String>> rows) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            JsonGenerator gen = new JsonFactory().createGenerator(out);
+            gen.writeStartArray();
+            for (Vector<String> row: rows) {
+                gen.writeStartObject();
+                for (int i = 0; i < row.size(); i++) {
+                    gen.writeStringField(fieldNames.get(i), row.get(i));
+                }
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+            gen.close();
+            return out.toByteArray();
+        } catch (IOException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    /**
+     * Returns an &lt;items&gt; XML document with an &lt;item&gt; for each row, having a sub-tag per field.
+     */
+    public static byte[] xml(Vector<String> fieldNames, Vector<Vector<String>> rows) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement("items");
+            for (Vector<String> row: rows) {
+                writer.writeStartElement("item");
+                for (int i = 0; i < row.size(); i++) {
+                    writer.writeStartElement(fieldNames.get(i));
+                    writer.writeCharacters(row.get(i));
+                    writer.writeEndElement();
+                }
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+            return out.toByteArray();
+        } catch (XMLStreamException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    /**
+     * Returns a CSV document with a quoted field for each value, and a line per row.
+     */
+    public static String csv(CsvSettings settings, Vector<Vector<String>> rows) {
+        String quote = String.valueOf(settings.getQuote());
+        StringBuilder s = new StringBuilder();
+        for (Vector<String> row: rows) {
+            s.append(row.map(v -> quote + settings.escape(v) + quote).mkString(String.valueOf(settings.getSeparator())));
+            s.append('\n');
+        }
+        return s.toString();
+    }
+
+    /**
+     * Returns [count] random messages of [size] bytes each, with each message preceded by its varint length,
+     * as written by protobuf's writeDelimitedTo().
+     */
+    public static byte[] delimited(int count, int size) {
+        try {
+            Random random = new Random(SEED);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            CodedOutputStream coded = CodedOutputStream.newInstance(out);
+            byte[] message = new byte[size];
+            for (int i = 0; i < count; i++) {
+                random.nextBytes(message);
+                coded.writeRawVarint32(size);
+                coded.writeRawBytes(message);
+            }
+            coded.flush();
+            return out.toByteArray();
+        } catch (IOException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    /**
+     * Returns [count] replicated events, for [aggregates] different persistence IDs, with consecutive timestamps.
+     * Each event is a small protobuf message with a type name and a random text value, the way a typical domain
+     * event would be serialized.
+     */
+    public static Vector<Query.EventEnvelope> envelopes(int count, int aggregates) {
+        Random random = new Random(SEED);
+        Vector<String> persistenceIds = Vector.range(0, aggregates).map(i -> "Document_" + new UUID(random.nextLong(), random.nextLong()));
+        return Vector.range(0, count).map(i -> {
+            try {
+                ByteStringBuilder event = new ByteStringBuilder();
+                CodedOutputStream coded = CodedOutputStream.newInstance(event.asOutputStream());
+                coded.writeString(1, "com.tradeshift.documents.DocumentEvent$ContentChanged");
+                coded.writeString(2, value(random, 200));
+                coded.flush();
+                return Query.EventEnvelope.newBuilder()
+                    .setPersistenceId(persistenceIds.get(random.nextInt(aggregates)))
+                    .setSequenceNr(1 + i / aggregates)
+                    .setTimestamp(1500000000000l + i)
+                    .setEvent(com.google.protobuf.ByteString.copyFrom(event.result().toArray()))
+                    .build();
+            } catch (IOException x) {
+                throw new IllegalStateException(x);
+            }
+        });
+    }
+
+    /**
+     * Splits [bytes] into chunks of [chunkSize], the way they would arrive from a network connection or file.
+     */
+    public static Vector<ByteString> chunks(byte[] bytes, int chunkSize) {
+        return Vector.range(0, (bytes.length + chunkSize - 1) / chunkSize).map(i ->
+            ByteString.fromArray(bytes, i * chunkSize, Math.min(chunkSize, bytes.length - i * chunkSize)));
+    }
+
+    /**
+     * Splits [s] into chunks of [chunkSize] characters.
+     */
+    public static Vector<String> chunks(String s, int chunkSize) {
+        return Vector.range(0, (s.length() + chunkSize - 1) / chunkSize).map(i ->
+            s.substring(i * chunkSize, Math.min(s.length(), (i + 1) * chunkSize)));
+    }
+
+    private static String value(Random random, int maxLength) {
+        int length = 1 + random.nextInt(maxLength);
+        StringBuilder s = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            s.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return s.toString();
+    }
+}
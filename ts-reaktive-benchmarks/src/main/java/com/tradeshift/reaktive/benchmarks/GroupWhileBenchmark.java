@@ -0,0 +1,46 @@
+package com.tradeshift.reaktive.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+import com.tradeshift.reaktive.materialize.GroupWhile;
+
+import akka.stream.javadsl.Source;
+import io.vavr.collection.Vector;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * Measures grouping a stream with {@link GroupWhile}, the way MaterializerActor groups events with the same timestamp,
+ * against its earlier implementation {@link VectorGroupWhile}. Run with "-prof gc" to compare their allocation rates.
+ *
+ * The fixture is [elements] integers, in runs of [runLength] equal values. The maximum group size is set to
+ * [runLength], so the largest runs exactly fill the group buffer.
+ */
+public class GroupWhileBenchmark extends ActorSystemBenchmark {
+    private static final FiniteDuration idleEmitTimeout = FiniteDuration.create(1, TimeUnit.SECONDS);
+
+    @Param({"100000"})
+    public int elements;
+
+    @Param({"1", "10", "1000"})
+    public int runLength;
+
+    private Vector<Integer> stream;
+
+    @Override
+    protected void setup() {
+        stream = Vector.range(0, elements).map(i -> i / runLength);
+    }
+
+    @Benchmark
+    public long group() throws Exception {
+        return count(Source.from(stream).via(GroupWhile.apply((Integer a, Integer b) -> a.equals(b), runLength, idleEmitTimeout)));
+    }
+
+    @Benchmark
+    public long groupWithVector() throws Exception {
+        return count(Source.from(stream).via(VectorGroupWhile.apply((Integer a, Integer b) -> a.equals(b), runLength, idleEmitTimeout)));
+    }
+}
@@ -0,0 +1,73 @@
+package com.tradeshift.reaktive.benchmarks;
+
+import static com.tradeshift.reaktive.json.JSONProtocol.array;
+import static com.tradeshift.reaktive.json.JSONProtocol.field;
+import static com.tradeshift.reaktive.json.JSONProtocol.stringValue;
+
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+import com.tradeshift.reaktive.json.JSONEvent;
+import com.tradeshift.reaktive.json.ObjectReadProtocol;
+import com.tradeshift.reaktive.marshal.ReadProtocol;
+import com.tradeshift.reaktive.marshal.stream.ActsonReader;
+import com.tradeshift.reaktive.marshal.stream.JacksonWriter;
+import com.tradeshift.reaktive.marshal.stream.ProtocolReader;
+
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import io.vavr.collection.Vector;
+
+/**
+ * Measures parsing JSON with {@link ActsonReader}, writing it with {@link JacksonWriter}, and reading objects with
+ * many fields through {@link ObjectReadProtocol}.
+ *
+ * The fixture is a JSON array of [items] objects, each having [fields] string fields.
+ */
+public class JsonBenchmark extends ActorSystemBenchmark {
+    @Param({"100", "10000"})
+    public int items;
+
+    @Param({"5", "50"})
+    public int fields;
+
+    @Param({"8192"})
+    public int chunkSize;
+
+    private Vector<ByteString> document;
+    private List<JSONEvent> events;
+    private ReadProtocol<JSONEvent, List<?>> protocol;
+
+    @Override
+    protected void setup() throws Exception {
+        Vector<String> names = Fixtures.fieldNames(fields);
+        document = Fixtures.chunks(Fixtures.json(names, Fixtures.rows(items, fields, 20)), chunkSize);
+        events = Source.from(document).via(ActsonReader.instance).runWith(Sink.seq(), materializer).toCompletableFuture().get();
+        protocol = array(new ObjectReadProtocol<List<?>>(
+            names.<ReadProtocol<JSONEvent,?>>map(name -> field(name, stringValue)).toJavaList(),
+            values -> values));
+    }
+
+    @Benchmark
+    public long parse() throws Exception {
+        return count(Source.from(document).via(ActsonReader.instance));
+    }
+
+    @Benchmark
+    public long write() throws Exception {
+        return count(Source.from(events).via(JacksonWriter.flow()));
+    }
+
+    @Benchmark
+    public long readObjects() throws Exception {
+        return count(Source.from(events).via(ProtocolReader.of(protocol)));
+    }
+
+    @Benchmark
+    public long parseAndReadObjects() throws Exception {
+        return count(Source.from(document).via(ActsonReader.instance).via(ProtocolReader.of(protocol)));
+    }
+}
@@ -0,0 +1,95 @@
+package com.tradeshift.reaktive.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tradeshift.reaktive.protobuf.Query;
+import com.tradeshift.reaktive.replication.io.Deflate;
+import com.tradeshift.reaktive.replication.io.WebSocketDataCenterClient;
+
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import io.vavr.collection.Vector;
+
+/**
+ * Measures the CPU cost and bytes on the wire of encoding replicated events into web socket messages, the way
+ * {@link WebSocketDataCenterClient} does, in batches of [batchSize] events, with [compression] "none" or "deflate".
+ *
+ * The fixture is [events] events for [aggregates] persistence IDs. Each operation encodes all of them.
+ * The "bytes" and "events" counters are reported as rates; "bytes" divided by "events" is the number of bytes
+ * sent per event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1G", "-Xmx1G" })
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ReplicationCompressionBenchmark {
+    @Param({"10000"})
+    public int events;
+
+    @Param({"100"})
+    public int aggregates;
+
+    @Param({"1", "10", "100", "1000"})
+    public int batchSize;
+
+    @Param({"none", "deflate"})
+    public String compression;
+
+    @Param({"1"})
+    public int compressionLevel;
+
+    private Vector<Vector<Query.EventEnvelope>> batches;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Wire {
+        public long bytes;
+        public long events;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            events = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        batches = Fixtures.envelopes(events, aggregates).grouped(batchSize).toVector();
+    }
+
+    @Benchmark
+    public long encode(Wire wire) throws Exception {
+        long size = 0;
+        for (Vector<Query.EventEnvelope> batch: batches) {
+            ByteStringBuilder bytes = new ByteStringBuilder();
+            for (Query.EventEnvelope e: batch) {
+                e.writeDelimitedTo(bytes.asOutputStream());
+            }
+            ByteString message = bytes.result();
+            if (compression.equals("deflate")) {
+                message = Deflate.deflate(message, compressionLevel);
+            }
+            size += message.size();
+        }
+        wire.bytes += size;
+        wire.events += events;
+        return size;
+    }
+}
@@ -0,0 +1,145 @@
+package com.tradeshift.reaktive.benchmarks;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+
+import com.tradeshift.reaktive.actors.AbstractState;
+import com.tradeshift.reaktive.actors.AbstractStatefulPersistentActor;
+import com.tradeshift.reaktive.actors.SnapshotSerializer;
+import com.tradeshift.reaktive.actors.SynchronousCommandHandler;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import akka.Done;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.pattern.PatternsCS;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * Measures how long an {@link AbstractStatefulPersistentActor} takes to recover from a journal with [events] events,
+ * when it saves a snapshot every [snapshotEvery] events (or never, for 0).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SnapshotRecoveryBenchmark extends ActorSystemBenchmark {
+    private static final long timeout = 30000;
+
+    @Param({"1000", "10000"})
+    public int events;
+
+    @Param({"0", "100"})
+    public int snapshotEvery;
+
+    private int incarnation = 0;
+
+    @Override
+    protected Config config() {
+        return ConfigFactory.parseString("ts-reaktive.actors.snapshots.every-events = " + snapshotEvery).withFallback(super.config());
+    }
+
+    @Override
+    protected void setup() throws Exception {
+        ActorRef actor = start();
+        for (int i = 0; i < events; i++) {
+            PatternsCS.ask(actor, "increment", timeout).toCompletableFuture().get();
+        }
+        stop(actor);
+    }
+
+    @Benchmark
+    public Object recover() throws Exception {
+        ActorRef actor = start();
+        Object count = PatternsCS.ask(actor, "get", timeout).toCompletableFuture().get();
+        stop(actor);
+        return count;
+    }
+
+    private ActorRef start() {
+        incarnation++;
+        return system.actorOf(Props.create(CounterActor.class), "counter" + incarnation);
+    }
+
+    private void stop(ActorRef actor) throws Exception {
+        PatternsCS.gracefulStop(actor, FiniteDuration.create(timeout, TimeUnit.MILLISECONDS)).toCompletableFuture().get();
+    }
+
+    public static class Incremented implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public static class Counter extends AbstractState<Incremented, Counter> {
+        private final long count;
+
+        public Counter(long count) {
+            this.count = count;
+        }
+
+        @Override
+        public Counter apply(Incremented event) {
+            return new Counter(count + 1);
+        }
+    }
+
+    public static class CounterActor extends AbstractStatefulPersistentActor<String, Incremented, Counter> {
+        public CounterActor() {
+            super(String.class, Incremented.class, new Handler());
+        }
+
+        @Override
+        public String persistenceId() {
+            // All incarnations (which need unique actor names) share the same journal
+            return "counter";
+        }
+
+        @Override
+        protected Counter initialState() {
+            return new Counter(0);
+        }
+
+        @Override
+        protected SnapshotSerializer<Counter> getSnapshotSerializer() {
+            return new SnapshotSerializer<Counter>() {
+                @Override
+                public Object toSnapshot(Counter state) {
+                    return state.count;
+                }
+
+                @Override
+                public Counter fromSnapshot(Object snapshot) {
+                    return new Counter((Long) snapshot);
+                }
+            };
+        }
+
+        private static class Handler implements SynchronousCommandHandler<String, Incremented, Counter> {
+            @Override
+            public boolean canHandle(String cmd) {
+                return cmd.equals("increment") || cmd.equals("get");
+            }
+
+            @Override
+            public Results<Incremented> handleSynchronously(Counter state, String cmd) {
+                return new Results<Incremented>() {
+                    @Override
+                    public Seq<Incremented> getEventsToEmit() {
+                        return cmd.equals("increment") ? Vector.of(new Incremented()) : Vector.empty();
+                    }
+
+                    @Override
+                    public Object getReply(Seq<Incremented> emittedEvents, long lastSequenceNr) {
+                        return cmd.equals("increment") ? Done.getInstance() : state.count;
+                    }
+                };
+            }
+        }
+    }
+}
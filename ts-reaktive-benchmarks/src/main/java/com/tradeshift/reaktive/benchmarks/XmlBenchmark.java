@@ -0,0 +1,81 @@
+package com.tradeshift.reaktive.benchmarks;
+
+import static com.tradeshift.reaktive.xml.XMLProtocol.body;
+import static com.tradeshift.reaktive.xml.XMLProtocol.qname;
+import static com.tradeshift.reaktive.xml.XMLProtocol.tag;
+
+import java.util.List;
+
+import javax.xml.stream.events.XMLEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+import com.tradeshift.reaktive.marshal.ReadProtocol;
+import com.tradeshift.reaktive.marshal.stream.AaltoReader;
+import com.tradeshift.reaktive.marshal.stream.ProtocolReader;
+import com.tradeshift.reaktive.marshal.stream.StaxWriter;
+import com.tradeshift.reaktive.xml.TagReadProtocol;
+
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
+
+/**
+ * Measures parsing XML with {@link AaltoReader}, writing it with {@link StaxWriter}, and reading tags with
+ * many sub-tags through {@link TagReadProtocol}.
+ *
+ * The fixture is an &lt;items&gt; document with [items] &lt;item&gt; tags, each having [fields] sub-tags with text.
+ */
+public class XmlBenchmark extends ActorSystemBenchmark {
+    @Param({"100", "10000"})
+    public int items;
+
+    @Param({"5", "50"})
+    public int fields;
+
+    @Param({"8192"})
+    public int chunkSize;
+
+    private Vector<ByteString> document;
+    private List<XMLEvent> events;
+    private ReadProtocol<XMLEvent, List<?>> protocol;
+
+    @Override
+    protected void setup() throws Exception {
+        Vector<String> names = Fixtures.fieldNames(fields);
+        document = Fixtures.chunks(Fixtures.xml(names, Fixtures.rows(items, fields, 20)), chunkSize);
+        events = Source.from(document).via(AaltoReader.instance).runWith(Sink.seq(), materializer).toCompletableFuture().get();
+        protocol = tag(qname("items"), new TagReadProtocol<List<?>>(
+            Option.some(qname("item")),
+            names.<ReadProtocol<XMLEvent,?>>map(name -> tag(qname(name), body)),
+            values -> values));
+    }
+
+    @Benchmark
+    public long parse() throws Exception {
+        return count(Source.from(document).via(AaltoReader.instance));
+    }
+
+    @Benchmark
+    public long parseBatchedWithoutLocations() throws Exception {
+        return count(Source.from(document).via(new AaltoReader(true, false)));
+    }
+
+    @Benchmark
+    public long write() throws Exception {
+        return count(Source.from(events).via(StaxWriter.flow()));
+    }
+
+    @Benchmark
+    public long readTags() throws Exception {
+        return count(Source.from(events).via(ProtocolReader.of(protocol)));
+    }
+
+    @Benchmark
+    public long parseAndReadTags() throws Exception {
+        return count(Source.from(document).via(AaltoReader.instance).via(ProtocolReader.of(protocol)));
+    }
+}
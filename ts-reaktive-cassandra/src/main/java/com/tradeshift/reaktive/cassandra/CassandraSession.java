@@ -18,6 +18,7 @@ import akka.persistence.cassandra.ConfigSessionProvider;
 import akka.persistence.cassandra.session.CassandraSessionSettings;
 import akka.stream.javadsl.Source;
 import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
 import io.vavr.control.Option;
 /**
  * Provides asynchronous, non-blocking access to a cassandra session.
@@ -67,4 +68,8 @@ public class CassandraSession {
     public CompletionStage<Option<Row>> selectOne(Statement stmt) {
         return delegate.selectOne(stmt).thenApply(Option::ofOptional);
     }
+
+    public CompletionStage<Seq<Row>> selectAll(Statement stmt) {
+        return delegate.selectAll(stmt).<Seq<Row>>thenApply(Vector::ofAll);
+    }
 }
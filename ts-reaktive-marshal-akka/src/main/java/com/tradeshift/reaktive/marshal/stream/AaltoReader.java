@@ -14,6 +14,8 @@ import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.xml.stream.XMLEventFactory;
@@ -43,16 +45,42 @@ import io.vavr.control.Option;
 /**
  * Wraps the Aalto XML parser as an akka flow of ByteString to XMLEvent.
  * 
+ * By default, one event is parsed per downstream pull, and each event carries its location in the document
+ * (as required by {@link com.tradeshift.reaktive.xml.XMLProtocol#locator}). For large documents, a reader can be created
+ * that instead parses all events available from each incoming chunk at once, and/or skips location tracking.
+ * 
  * @see https://github.com/FasterXML/aalto-xml
  */
 public class AaltoReader extends GraphStage<FlowShape<ByteString,XMLEvent>> {
     private static final AsyncXMLInputFactory factory = new InputFactoryImpl();
     
+    /** Reader that parses one event per pull, tracking locations */
     public static final AaltoReader instance = new AaltoReader();
 
     private final Inlet<ByteString> in = Inlet.create("in");
     private final Outlet<XMLEvent> out = Outlet.create("out");
     private final FlowShape<ByteString, XMLEvent> shape = FlowShape.of(in, out);
+    
+    private final boolean batched;
+    private final boolean trackLocation;
+
+    /**
+     * Creates a new AaltoReader that parses one event per pull, tracking locations.
+     */
+    public AaltoReader() {
+        this(false, true);
+    }
+
+    /**
+     * Creates a new AaltoReader.
+     * @param batched Whether to parse all events available from each incoming chunk, and emit them together
+     * @param trackLocation Whether to set the location on each emitted event. If false, events have no location, and
+     *        {@link com.tradeshift.reaktive.xml.XMLProtocol#locator} can't be used on them.
+     */
+    public AaltoReader(boolean batched, boolean trackLocation) {
+        this.batched = batched;
+        this.trackLocation = trackLocation;
+    }
 
     @Override
     public FlowShape<ByteString, XMLEvent> shape() {
@@ -64,6 +92,13 @@ public class AaltoReader extends GraphStage<FlowShape<ByteString,XMLEvent>> {
         XMLEventFactory efactory = XMLEventFactory.newFactory();
         AsyncXMLStreamReader<AsyncByteBufferFeeder> parser = factory.createAsyncForByteBuffer();
         return new GraphStageLogic(shape) {
+            // Scratch lists, which are safe to re-use since the event factory copies their content into each event
+            private final List<Attribute> attributes = new ArrayList<>();
+            private final List<Namespace> namespaces = new ArrayList<>();
+            // Events parsed in batched mode. Only re-used after all of its events have been emitted, since we only
+            // parse a new batch on a pull, or on a push that answers our own pull.
+            private final List<XMLEvent> batch = new ArrayList<>();
+            
             {
                 setHandler(out, new AbstractOutHandler() {
                     @Override
@@ -92,6 +127,7 @@ public class AaltoReader extends GraphStage<FlowShape<ByteString,XMLEvent>> {
                     
                     public void onUpstreamFinish() {
                         parser.getInputFeeder().endOfInput();
+                        // A batch might still be being emitted, so we collect the remaining events separately
                         List<XMLEvent> events = new ArrayList<>();
                         try {
                             while (parser.hasNext()) {
@@ -114,10 +150,10 @@ public class AaltoReader extends GraphStage<FlowShape<ByteString,XMLEvent>> {
             }
             
             private void emitNext() throws XMLStreamException {
-                if (parser.hasNext()) {
+                if (batched) {
+                    emitBatch();
+                } else if (parser.hasNext()) {
                     Option<XMLEvent> next = next();
-                    // calling into Stax2 directly gives more accurate location information within a byte chunk
-                    efactory.setLocation(((LocationInfo) parser).getCurrentLocation());
                     if (next.isDefined()) {
                         push(out, next.get());
                     } else {
@@ -128,28 +164,54 @@ public class AaltoReader extends GraphStage<FlowShape<ByteString,XMLEvent>> {
                 }
             }
             
+            private void emitBatch() throws XMLStreamException {
+                batch.clear();
+                while (parser.hasNext()) {
+                    Option<XMLEvent> next = next();
+                    if (next.isDefined()) {
+                        batch.add(next.get());
+                    } else {
+                        break;
+                    }
+                }
+                
+                if (!batch.isEmpty()) {
+                    emitMultiple(out, batch.iterator());
+                    if (!parser.hasNext()) {
+                        // The document has ended, so we can complete once the batch has been emitted
+                        cancel(in);
+                        complete(out);
+                    }
+                } else if (parser.hasNext()) {
+                    pull(in);
+                } else {
+                    completeStage();
+                }
+            }
+            
             private Option<XMLEvent> next() throws XMLStreamException {
+                Option<XMLEvent> event = parseNext();
+                if (trackLocation) {
+                    // calling into Stax2 directly gives more accurate location information within a byte chunk
+                    efactory.setLocation(((LocationInfo) parser).getCurrentLocation());
+                }
+                return event;
+            }
+            
+            private Option<XMLEvent> parseNext() throws XMLStreamException {
                 switch(parser.next()) {
                 case EVENT_INCOMPLETE: return none();
                 case START_DOCUMENT: return some(efactory.createStartDocument());
                 case END_DOCUMENT: return some(efactory.createEndDocument());
                 case START_ELEMENT: {
-                    List<Attribute> attributes = new ArrayList<>();
+                    attributes.clear();
                     for (int i = 0; i < parser.getAttributeCount(); i++) {
                         attributes.add(efactory.createAttribute(parser.getAttributeName(i), parser.getAttributeValue(i)));
                     }
-                    List<Namespace> namespaces = new ArrayList<>();
-                    for (int i = 0; i < parser.getNamespaceCount(); i++) {
-                        namespaces.add(efactory.createNamespace(parser.getNamespacePrefix(i), parser.getNamespaceURI(i)));
-                    }
-                    return some(efactory.createStartElement(parser.getName(), attributes.iterator(), namespaces.iterator()));
+                    return some(efactory.createStartElement(parser.getName(), attributes.iterator(), namespaces()));
                 }
                 case END_ELEMENT: {
-                    List<Namespace> namespaces = new ArrayList<>();
-                    for (int i = 0; i < parser.getNamespaceCount(); i++) {
-                        namespaces.add(efactory.createNamespace(parser.getNamespacePrefix(i), parser.getNamespaceURI(i)));
-                    }
-                    return some(efactory.createEndElement(parser.getName(), namespaces.iterator()));
+                    return some(efactory.createEndElement(parser.getName(), namespaces()));
                 }
                 case CHARACTERS: return some(efactory.createCharacters(parser.getText()));
                 case PROCESSING_INSTRUCTION: return some(efactory.createProcessingInstruction(parser.getPITarget(), parser.getPIData()));
@@ -158,6 +220,18 @@ public class AaltoReader extends GraphStage<FlowShape<ByteString,XMLEvent>> {
                 default: throw new IllegalStateException("Unhandled event");
                 }
             }
+            
+            private Iterator<Namespace> namespaces() {
+                int count = parser.getNamespaceCount();
+                if (count == 0) {
+                    return Collections.emptyIterator();
+                }
+                namespaces.clear();
+                for (int i = 0; i < count; i++) {
+                    namespaces.add(efactory.createNamespace(parser.getNamespacePrefix(i), parser.getNamespaceURI(i)));
+                }
+                return namespaces.iterator();
+            }
         };
     }
 }
@@ -1,12 +1,5 @@
 package com.tradeshift.reaktive.marshal.stream;
 
-import static io.vavr.control.Option.none;
-import static io.vavr.control.Option.some;
-
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
-
 import com.tradeshift.reaktive.json.JSONEvent;
 
 import akka.stream.Attributes;
@@ -17,17 +10,23 @@ import akka.stream.stage.AbstractInHandler;
 import akka.stream.stage.AbstractOutHandler;
 import akka.stream.stage.GraphStage;
 import akka.stream.stage.GraphStageLogic;
+import akka.util.ByteIterator;
 import akka.util.ByteString;
 import de.undercouch.actson.JsonEvent;
+import de.undercouch.actson.JsonFeeder;
 import de.undercouch.actson.JsonParser;
-import io.vavr.control.Option;
 
 /**
  * Wraps the Actson JSON parser as an akka flow of ByteString to JSONEvent
  *
+ * Events are parsed on demand, one per downstream pull. Actson only accepts byte arrays, so incoming bytes are
+ * copied into a scratch buffer that is reused for the lifetime of the stage.
+ *
  * @see https://www.michel-kraemer.com/actson-reactive-json-parser/
  */
 public class ActsonReader extends GraphStage<FlowShape<ByteString,JSONEvent>> {
+    private static final int SCRATCH_SIZE = 8192;
+
     private final Inlet<ByteString> in = Inlet.create("in");
     private final Outlet<JSONEvent> out = Outlet.create("out");
     private final FlowShape<ByteString, JSONEvent> shape = FlowShape.of(in, out);
@@ -42,77 +41,99 @@ public class ActsonReader extends GraphStage<FlowShape<ByteString,JSONEvent>> {
     @Override
     public GraphStageLogic createLogic(Attributes attr) throws Exception {
         JsonParser parser = new JsonParser();
+        JsonFeeder feeder = parser.getFeeder();
         return new GraphStageLogic(shape) {
+            private final byte[] scratch = new byte[SCRATCH_SIZE];
+            private int scratchPos = 0;
+            private int scratchEnd = 0;
+            private ByteIterator input = ByteString.empty().iterator();
+            private boolean upstreamFinished = false;
+
             {
                 setHandler(out, new AbstractOutHandler() {
                     @Override
                     public void onPull() throws Exception {
-                        List<JSONEvent> events = new ArrayList<>();
-                        parseInto(events);
-                        if (events.isEmpty()) {
-                            pull(in);
-                        } else {
-                            emitMultiple(out, events.iterator());
-                        }
+                        emitNext();
                     }
                 });
 
                 setHandler(in, new AbstractInHandler() {
                     @Override
                     public void onPush() throws Exception {
-                        List<JSONEvent> events = new ArrayList<>();
-                        ByteString bytes = grab(in);
-                        // TODO either PR ByteBuffer support into actson, or sneaky-access the underlying byte array fields here
-                        for (ByteBuffer b: bytes.getByteBuffers()) {
-                            byte[] buf= new byte[b.remaining()];
-                            b.get(buf, 0, b.remaining());
-                            int i = 0;
-                            while (i < buf.length) {
-                              i += parser.getFeeder().feed(buf, i, buf.length - i);
-                              parseInto(events);
-                            }
-                        }
-                        if (events.isEmpty()) {
-                            pull(in);
-                        } else {
-                            emitMultiple(out, events.iterator());
-                        }
+                        input = grab(in).iterator();
+                        emitNext();
                     }
 
+                    @Override
                     public void onUpstreamFinish() throws Exception {
-                        parser.getFeeder().done();
-                        List<JSONEvent> events = new ArrayList<>();
-                        parseInto(events);
-                        emitMultiple(out, events.iterator());
-                        complete(out);
+                        upstreamFinished = true;
+                        if (isAvailable(out)) {
+                            emitNext();
+                        }
                     }
                 });
             }
 
-            private void parseInto(List<JSONEvent> events) {
-                Option<JSONEvent> evt = next();
-                while (evt.isDefined()) {
-                    events.add(evt.get());
-                    evt = next();
+            /**
+             * Pushes the next event, feeding the parser as needed, or pulls if all received input has been parsed.
+             */
+            private void emitNext() {
+                while (true) {
+                    int event = parser.nextEvent();
+                    if (event == JsonEvent.NEED_MORE_INPUT) {
+                        if (!feed()) {
+                            if (!upstreamFinished) {
+                                pull(in);
+                                return;
+                            } else if (!feeder.isDone()) {
+                                feeder.done();
+                            } else {
+                                completeStage();
+                                return;
+                            }
+                        }
+                    } else if (event == JsonEvent.EOF) {
+                        completeStage();
+                        return;
+                    } else {
+                        push(out, toEvent(event));
+                        return;
+                    }
                 }
-            };
+            }
+
+            /**
+             * Feeds the parser from the scratch buffer, refilling that from the current input if needed.
+             * Returns false if there was no input left to feed.
+             */
+            private boolean feed() {
+                if (scratchPos == scratchEnd) {
+                    if (!input.hasNext()) {
+                        return false;
+                    }
+                    int n = Math.min(input.len(), scratch.length);
+                    input.getBytes(scratch, 0, n);
+                    scratchPos = 0;
+                    scratchEnd = n;
+                }
+                scratchPos += feeder.feed(scratch, scratchPos, scratchEnd - scratchPos);
+                return true;
+            }
 
-            private Option<JSONEvent> next() {
-                switch(parser.nextEvent()) {
-                case JsonEvent.END_ARRAY: return some(JSONEvent.END_ARRAY);
-                case JsonEvent.END_OBJECT: return some(JSONEvent.END_OBJECT);
+            private JSONEvent toEvent(int event) {
+                switch(event) {
+                case JsonEvent.END_ARRAY: return JSONEvent.END_ARRAY;
+                case JsonEvent.END_OBJECT: return JSONEvent.END_OBJECT;
                 case JsonEvent.ERROR: throw new IllegalArgumentException("There was a parse error at around character " + parser.getParsedCharacterCount());
-                case JsonEvent.EOF: return none();
-                case JsonEvent.FIELD_NAME: return some(new JSONEvent.FieldName(parser.getCurrentString()));
-                case JsonEvent.NEED_MORE_INPUT: return none();
-                case JsonEvent.START_ARRAY: return some(JSONEvent.START_ARRAY);
-                case JsonEvent.START_OBJECT: return some(JSONEvent.START_OBJECT);
-                case JsonEvent.VALUE_DOUBLE: return some(new JSONEvent.NumericValue(String.valueOf(parser.getCurrentDouble())));
-                case JsonEvent.VALUE_FALSE: return some(JSONEvent.FALSE);
-                case JsonEvent.VALUE_INT: return some(new JSONEvent.NumericValue(parser.getCurrentString()));
-                case JsonEvent.VALUE_NULL: return some(JSONEvent.NULL);
-                case JsonEvent.VALUE_STRING: return some(new JSONEvent.StringValue(parser.getCurrentString()));
-                case JsonEvent.VALUE_TRUE: return some(JSONEvent.TRUE);
+                case JsonEvent.FIELD_NAME: return new JSONEvent.FieldName(parser.getCurrentString());
+                case JsonEvent.START_ARRAY: return JSONEvent.START_ARRAY;
+                case JsonEvent.START_OBJECT: return JSONEvent.START_OBJECT;
+                case JsonEvent.VALUE_DOUBLE: return new JSONEvent.NumericValue(String.valueOf(parser.getCurrentDouble()));
+                case JsonEvent.VALUE_FALSE: return JSONEvent.FALSE;
+                case JsonEvent.VALUE_INT: return new JSONEvent.NumericValue(parser.getCurrentString());
+                case JsonEvent.VALUE_NULL: return JSONEvent.NULL;
+                case JsonEvent.VALUE_STRING: return new JSONEvent.StringValue(parser.getCurrentString());
+                case JsonEvent.VALUE_TRUE: return JSONEvent.TRUE;
                 default: throw new UnsupportedOperationException("Unexpected event in JSON parser");
                 }
             }
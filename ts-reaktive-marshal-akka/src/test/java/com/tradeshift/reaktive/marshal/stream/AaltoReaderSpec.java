@@ -47,6 +47,27 @@ public class AaltoReaderSpec extends SharedActorSystemSpec {{
             assertThat(list).hasSize(116);
         });
         
+        it("should parse XML input equivalent to Stax when emitting batches without locations", () -> {
+            ByteString result = FileIO.fromPath(Paths.get(getClass().getResource("/test.xml").getFile()), 16)
+                .via(new AaltoReader(true, false))
+                .via(StaxWriter.flow())
+                .runFold(ByteString.empty(), (s1,s2) -> s1.concat(s2), materializer)
+                .toCompletableFuture().get(1, TimeUnit.SECONDS);
+            
+            assertThat(result.toArray(), isIdenticalTo(Input.fromURL(getClass().getResource("/test.xml"))));
+        });
+        
+        it("should emit the same events in batched mode", () -> {
+            List<XMLEvent> list = StreamConverters.fromInputStream(() -> getClass().getResourceAsStream("/smallubl_extref.xml"))
+                .via(new AaltoReader(true, true))
+                .runWith(Sink.seq(), materializer)
+                .toCompletableFuture()
+                .get(1, TimeUnit.SECONDS);
+            
+            assertThat(list).hasSize(116);
+            assertThat(list.get(list.size() - 1).isEndDocument()).isTrue();
+        });
+        
         it("should fail the stream if the XML ends prematurely", () -> {
             assertThat(
                 StreamConverters.fromInputStream(() -> getClass().getResourceAsStream("/smallubl_incomplete.xml"))
@@ -54,5 +75,13 @@ public class AaltoReaderSpec extends SharedActorSystemSpec {{
                 .runWith(Sink.seq(), materializer)
             ).failure().hasMessageContaining("Unexpected end of XML");
         });
+        
+        it("should fail the stream if the XML ends prematurely in batched mode", () -> {
+            assertThat(
+                StreamConverters.fromInputStream(() -> getClass().getResourceAsStream("/smallubl_incomplete.xml"))
+                .via(new AaltoReader(true, false))
+                .runWith(Sink.seq(), materializer)
+            ).failure().hasMessageContaining("Unexpected end of XML");
+        });
     });
 }}
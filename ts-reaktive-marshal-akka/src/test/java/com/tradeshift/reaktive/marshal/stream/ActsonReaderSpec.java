@@ -1,12 +1,15 @@
 package com.tradeshift.reaktive.marshal.stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.forgerock.cuppa.Cuppa.describe;
 import static org.forgerock.cuppa.Cuppa.it;
 
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.forgerock.cuppa.junit.CuppaRunner;
@@ -20,6 +23,9 @@ import com.tradeshift.reaktive.testkit.SharedActorSystemSpec;
 
 import akka.stream.javadsl.FileIO;
 import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import io.vavr.collection.Stream;
 
 @RunWith(CuppaRunner.class)
 public class ActsonReaderSpec extends SharedActorSystemSpec {{
@@ -38,5 +44,30 @@ public class ActsonReaderSpec extends SharedActorSystemSpec {{
             
             assertThat(result).containsExactlyElementsOf(events);
         });
+        
+        it("Should parse the same events when the input arrives one byte at a time", () -> {
+            byte[] bytes = Files.readAllBytes(Paths.get(getClass().getResource("/test.json").getFile()));
+            
+            List<JSONEvent> expected = Source.single(ByteString.fromArray(bytes))
+                .via(ActsonReader.instance)
+                .runWith(Sink.seq(), materializer)
+                .toCompletableFuture().get(1, TimeUnit.SECONDS);
+            
+            List<JSONEvent> result = Source.from(Stream.range(0, bytes.length).map(i -> ByteString.fromArray(bytes, i, 1)))
+                .via(ActsonReader.instance)
+                .runWith(Sink.seq(), materializer)
+                .toCompletableFuture().get(5, TimeUnit.SECONDS);
+            
+            assertThat(result).containsExactlyElementsOf(expected);
+        });
+        
+        it("Should fail on a truncated document", () -> {
+            assertThatThrownBy(() ->
+                Source.single(ByteString.fromString("{\"a\":[1,2"))
+                    .via(ActsonReader.instance)
+                    .runWith(Sink.seq(), materializer)
+                    .toCompletableFuture().get(1, TimeUnit.SECONDS)
+            ).isInstanceOf(ExecutionException.class).hasCauseInstanceOf(IllegalArgumentException.class);
+        });
     });
 }}
@@ -5,6 +5,7 @@ import static com.tradeshift.reaktive.marshal.ReadProtocol.none;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.tradeshift.reaktive.marshal.Protocol;
 import com.tradeshift.reaktive.marshal.ReadProtocol;
 import com.tradeshift.reaktive.marshal.Reader;
 import com.tradeshift.reaktive.marshal.WriteProtocol;
@@ -20,9 +21,27 @@ import io.vavr.control.Try;
 public class FieldProtocol {
     private static final Logger log = LoggerFactory.getLogger(FieldProtocol.class);
     
+    /**
+     * Implemented by the read protocols of this class, so that {@link ObjectReadProtocol} can route the events for
+     * a field directly to the protocols that read that field.
+     */
+    interface Named {
+        /** Returns the name of the field that this protocol reads */
+        String getFieldName();
+    }
+    
+    interface NamedReadProtocol<T> extends ReadProtocol<JSONEvent, T>, Named {}
+    
+    interface NamedProtocol<T> extends Protocol<JSONEvent, T>, Named {}
+    
     public static <T> ReadProtocol<JSONEvent, T> read(String fieldName, ReadProtocol<JSONEvent, T> innerProtocol) {
         JSONEvent field = new JSONEvent.FieldName(fieldName);
-        return new ReadProtocol<JSONEvent, T>() {
+        return new NamedReadProtocol<T>() {
+            @Override
+            public String getFieldName() {
+                return fieldName;
+            }
+            
             @Override
             public Try<T> empty() {
                 return innerProtocol.empty();
@@ -86,6 +105,42 @@ public class FieldProtocol {
         };
     }
     
+    public static <T> Protocol<JSONEvent, T> readWrite(String fieldName, Protocol<JSONEvent, T> innerProtocol) {
+        ReadProtocol<JSONEvent, T> read = read(fieldName, innerProtocol);
+        WriteProtocol<JSONEvent, T> write = write(fieldName, innerProtocol);
+        return new NamedProtocol<T>() {
+            @Override
+            public String getFieldName() {
+                return fieldName;
+            }
+            
+            @Override
+            public Writer<JSONEvent, T> writer() {
+                return write.writer();
+            }
+
+            @Override
+            public Class<? extends JSONEvent> getEventType() {
+                return write.getEventType();
+            }
+
+            @Override
+            public Reader<JSONEvent, T> reader() {
+                return read.reader();
+            }
+            
+            @Override
+            public Try<T> empty() {
+                return read.empty();
+            }
+            
+            @Override
+            public String toString() {
+                return read.toString();
+            }
+        };
+    }
+    
     public static <T> WriteProtocol<JSONEvent, T> write(String fieldName, WriteProtocol<JSONEvent, T> innerProtocol) {
         JSONEvent field = new JSONEvent.FieldName(fieldName);
         
@@ -101,7 +101,7 @@ public class JSONProtocol<T> {
         if (inner instanceof IterableProtocolMarker) {
             throw new UnsupportedOperationException("Iterable protocols can not occur as field body, since there must be exactly 1 value there.");
         }
-        return Protocol.of(FieldProtocol.read(name, inner), FieldProtocol.write(name, inner));
+        return FieldProtocol.readWrite(name, inner);
     }
     
     public static <T> ReadProtocol<JSONEvent, T> field(String name, ReadProtocol<JSONEvent, T> inner) {
@@ -4,9 +4,13 @@ import static com.tradeshift.reaktive.marshal.ReadProtocol.isNone;
 import static com.tradeshift.reaktive.marshal.ReadProtocol.none;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +39,10 @@ public class ObjectReadProtocol<T> implements ReadProtocol<JSONEvent, T> {
     private final Seq<ReadProtocol<JSONEvent, ?>> protocols;
     private final Function<List<?>, T> produce;
     private final Seq<ReadProtocol<JSONEvent, ConstantProtocol.Present>> conditions;
+    /** For each field name that has a field protocol, the indices of the readers that should see that field's events */
+    private final Map<String, int[]> routes = new HashMap<>();
+    /** The indices of the readers that should see the events of all other fields, i.e. the non-field protocols */
+    private final int[] broadcast;
 
     public ObjectReadProtocol(ReadProtocol<JSONEvent, T> inner) {
         this(Vector.of(inner), identity(), Vector.empty());
@@ -55,6 +63,19 @@ public class ObjectReadProtocol<T> implements ReadProtocol<JSONEvent, T> {
         this.protocols = protocols;
         this.produce = produce;
         this.conditions = conditions;
+        
+        Seq<ReadProtocol<JSONEvent, ?>> all = protocols.appendAll(conditions);
+        this.broadcast = indicesOf(all, p -> !(p instanceof FieldProtocol.Named));
+        for (ReadProtocol<JSONEvent, ?> p: all) {
+            if (p instanceof FieldProtocol.Named) {
+                routes.computeIfAbsent(FieldProtocol.Named.class.cast(p).getFieldName(), name -> indicesOf(all, q ->
+                    !(q instanceof FieldProtocol.Named) || FieldProtocol.Named.class.cast(q).getFieldName().equals(name)));
+            }
+        }
+    }
+    
+    private static int[] indicesOf(Seq<ReadProtocol<JSONEvent, ?>> all, Predicate<ReadProtocol<JSONEvent, ?>> include) {
+        return IntStream.range(0, all.size()).filter(i -> include.test(all.get(i))).toArray();
     }
 
     @Override
@@ -65,6 +86,8 @@ public class ObjectReadProtocol<T> implements ReadProtocol<JSONEvent, T> {
             private final Try<Object>[] values = (Try<Object>[]) new Try<?>[readers.size()];
             private int nestedObjects = 0;
             private boolean matched = false;
+            /** The readers that the events of the current field are forwarded to */
+            private int[] route = broadcast;
             
             {
                 reset();
@@ -79,6 +102,7 @@ public class ObjectReadProtocol<T> implements ReadProtocol<JSONEvent, T> {
                 }
                 nestedObjects = 0;
                 matched = false;
+                route = broadcast;
                 return none();
             }
             
@@ -134,6 +158,10 @@ public class ObjectReadProtocol<T> implements ReadProtocol<JSONEvent, T> {
                         if (isIdentity()) {
                             result = (Try<T>) readers.get(0).apply(evt);
                         } else {
+                            if (nestedObjects == 1 && evt instanceof JSONEvent.FieldName) {
+                                // Only the protocols for this field (and any non-field protocols) need to see its events
+                                route = routes.getOrDefault(JSONEvent.FieldName.class.cast(evt).getName(), broadcast);
+                            }
                             forward(evt);
                         }
                     }
@@ -149,9 +177,8 @@ public class ObjectReadProtocol<T> implements ReadProtocol<JSONEvent, T> {
             }
 
             private void forward(JSONEvent evt) {
-                for (int i = 0; i < readers.size(); i++) {
-                    int idx = i;
-                    Reader<JSONEvent, Object> r = readers.get(i);
+                for (int idx: route) {
+                    Reader<JSONEvent, Object> r = readers.get(idx);
                     Try<Object> t = r.apply(evt);
                     if (!ReadProtocol.isNone(t)) {
                         values[idx] = t;
@@ -540,4 +540,17 @@ public class JSONProtocolSpec {{
                 .contains(new DTO1(42, none(), Vector.empty()));
         });
     });
+    
+    describe("a JSONProtocol with fields of the same name on different levels", () -> {
+        ReadProtocol<JSONEvent, Tuple2<String,String>> proto = object(
+            field("a", stringValue),
+            field("b", object(field("a", stringValue))),
+            (a, b) -> Tuple.of(a, b)
+        );
+        
+        it("should only read each field from its own level, ignoring unknown fields", () -> {
+            assertThat(jackson.parse("{\"b\":{\"a\":\"inner\"},\"c\":{\"a\":\"other\"},\"a\":\"outer\"}", proto.reader()).findFirst())
+                .contains(Tuple.of("outer", "inner"));
+        });
+    });
 }}
@@ -0,0 +1,55 @@
+package com.tradeshift.reaktive.replication;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletionStage;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.tradeshift.reaktive.protobuf.Query;
+
+import akka.Done;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+
+/**
+ * Parks events in the parked_events table of the replication keyspace, so they survive passivation, rebalancing and restarts.
+ */
+public class CassandraParkingStore implements ParkingStore {
+    private final VisibilityCassandraSession session;
+    private final Materializer materializer;
+    private final CompletionStage<PreparedStatement> parkStmt;
+    private final CompletionStage<PreparedStatement> loadStmt;
+    private final CompletionStage<PreparedStatement> removeStmt;
+
+    public CassandraParkingStore(VisibilityCassandraSession session, Materializer materializer) {
+        this.session = session;
+        this.materializer = materializer;
+        String ks = session.getKeyspace();
+
+        parkStmt = session.prepare("INSERT INTO " + ks + ".parked_events (persistenceid, sequencenr, envelope) VALUES (?, ?, ?)");
+        loadStmt = session.prepare("SELECT envelope FROM " + ks + ".parked_events WHERE persistenceid = ? AND sequencenr >= ? LIMIT ?");
+        removeStmt = session.prepare("DELETE FROM " + ks + ".parked_events WHERE persistenceid = ? AND sequencenr = ?");
+    }
+
+    @Override
+    public CompletionStage<Done> park(Query.EventEnvelope envelope) {
+        return parkStmt
+            .thenCompose(stmt -> session.executeWrite(stmt.bind(envelope.getPersistenceId(), envelope.getSequenceNr(), ByteBuffer.wrap(envelope.toByteArray()))));
+    }
+
+    @Override
+    public CompletionStage<Seq<Query.EventEnvelope>> load(String persistenceId, long fromSequenceNr, int limit) {
+        return loadStmt
+            .thenCompose(stmt -> session.select(stmt.bind(persistenceId, fromSequenceNr, limit))
+                .map(row -> Query.EventEnvelope.parseFrom(com.google.protobuf.ByteString.copyFrom(row.getBytes("envelope"))))
+                .runWith(Sink.seq(), materializer))
+            .<Seq<Query.EventEnvelope>>thenApply(Vector::ofAll);
+    }
+
+    @Override
+    public CompletionStage<Done> remove(String persistenceId, long sequenceNr) {
+        return removeStmt
+            .thenCompose(stmt -> session.executeWrite(stmt.bind(persistenceId, sequenceNr)));
+    }
+}
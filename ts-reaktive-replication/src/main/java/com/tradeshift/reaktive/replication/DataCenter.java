@@ -17,4 +17,12 @@ public interface DataCenter {
      * emit the offset of events that have been successfully uploaded.
      */
     Flow<EventEnvelope,Long,?> uploadFlow();
+
+    /**
+     * Returns a flow that uploads events to this data center over a single connection. This is used for streams that
+     * don't benefit from several connections, e.g. the events of a single persistenceId. By default, this is uploadFlow().
+     */
+    default Flow<EventEnvelope,Long,?> singleConnectionUploadFlow() {
+        return uploadFlow();
+    }
 }
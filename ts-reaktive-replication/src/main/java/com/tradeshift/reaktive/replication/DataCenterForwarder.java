@@ -3,14 +3,17 @@ package com.tradeshift.reaktive.replication;
 import static akka.pattern.PatternsCS.pipe;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.datastax.driver.core.utils.UUIDs;
+import com.typesafe.config.Config;
 
 import akka.Done;
 import akka.NotUsed;
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
 import akka.actor.Props;
 import akka.actor.Status.Failure;
 import akka.cluster.singleton.ClusterSingletonManager;
@@ -24,12 +27,15 @@ import akka.persistence.query.EventEnvelope;
 import akka.persistence.query.NoOffset;
 import akka.persistence.query.TimeBasedUUID;
 import akka.persistence.query.javadsl.CurrentEventsByPersistenceIdQuery;
+import akka.persistence.query.javadsl.CurrentPersistenceIdsQuery;
 import akka.persistence.query.javadsl.EventsByTagQuery;
 import akka.stream.Materializer;
 import akka.stream.javadsl.Flow;
 import akka.stream.javadsl.Sink;
-import io.vavr.Tuple;
+import io.vavr.collection.Map;
 import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
 import scala.concurrent.duration.Duration;
 
 /**
@@ -51,6 +57,25 @@ public class DataCenterForwarder<E> extends AbstractActor {
      */
     public static <E> void startAll(ActorSystem system, Materializer materializer, DataCenterRepository dataRepo, VisibilityRepository visibilityRepo, Class<E> eventType,
         EventsByTagQuery eventsByTagQuery, CurrentEventsByPersistenceIdQuery currentEventsByPersistenceIdQuery) {
+        startAll(system, materializer, dataRepo, visibilityRepo, eventType, eventsByTagQuery, currentEventsByPersistenceIdQuery, Option.none());
+    }
+    
+    /**
+     * Starts a DataCenterForwarder for each of the known data centers in the {@link DataCenterRepository}.
+     * @param system Actor system to create the DataCenterForwarder actors in
+     * @param dataRepo Repository that knows about all data centers
+     * @param materializer Akka streams materializer to use
+     * @param visibilityRepo Repository that stores the current visiblity of aggregates
+     * @param eventRepo Classifier that determines which additional datacenters an event should trigger replication for
+     * @param eventsByTagQuery Query to use to find a continuous stream of all events
+     * @param tag Tag to pass to {@link EventsByTagQuery} (all events must be tagged by this)
+     * @param currentEventsByPersistenceIdQuery Query to find all current events for a specific persistenceId
+     * @param currentPersistenceIdsQuery Query to find all persistenceIds, for an {@link InitialSync} of new data centers
+     *        (if enabled by ts-reaktive.replication.initial-sync.enabled)
+     */
+    public static <E> void startAll(ActorSystem system, Materializer materializer, DataCenterRepository dataRepo, VisibilityRepository visibilityRepo, Class<E> eventType,
+        EventsByTagQuery eventsByTagQuery, CurrentEventsByPersistenceIdQuery currentEventsByPersistenceIdQuery,
+        Option<CurrentPersistenceIdsQuery> currentPersistenceIdsQuery) {
         
         String tag = Replication.get(system).getEventTag(eventType);
         for (DataCenter dataCenter: dataRepo.getRemotes().values()) {
@@ -58,7 +83,7 @@ public class DataCenterForwarder<E> extends AbstractActor {
                 BackoffSupervisor.props(
                     Backoff.onFailure(
                         Props.create(DataCenterForwarder.class, () -> new DataCenterForwarder<>(materializer, dataCenter, visibilityRepo, eventType,
-                            eventsByTagQuery, currentEventsByPersistenceIdQuery)),
+                            eventsByTagQuery, currentEventsByPersistenceIdQuery, currentPersistenceIdsQuery)),
                         "f",
                         Duration.create(1, TimeUnit.SECONDS),
                         Duration.create(1, TimeUnit.SECONDS), // TODO make these 3 configurable
@@ -79,6 +104,17 @@ public class DataCenterForwarder<E> extends AbstractActor {
     private final int parallelism;
     private final String localDataCenterName;
     private final EventsByTagQuery eventsByTagQuery;
+    private final PersistenceIdReplays replays;
+    private final ReplicationMetrics metrics;
+    private final int visibilityBatchSize;
+    private final java.time.Duration visibilityBatchDelay;
+    private final Cancellable metricsTick;
+    private final Option<InitialSync<E>> initialSync;
+    /**
+     * This actor's share of the visibility backlog gauge, so it can be taken out again when the actor stops.
+     * Set to -1 once stopped, since the updateVisibility() stream isn't tied to this actor and may still emit.
+     */
+    private final AtomicLong visibilityBacklog = new AtomicLong();
     
     private long updatingVisibilityOffset = 0;
     private int updatingVisibilityOffsetCount = 0;
@@ -98,6 +134,24 @@ public class DataCenterForwarder<E> extends AbstractActor {
      */
     public DataCenterForwarder(Materializer materializer, DataCenter dataCenter, VisibilityRepository visibilityRepo, Class<E> eventType,
         EventsByTagQuery eventsByTagQuery, CurrentEventsByPersistenceIdQuery currentEventsByPersistenceIdQuery) {
+        this(materializer, dataCenter, visibilityRepo, eventType, eventsByTagQuery, currentEventsByPersistenceIdQuery, Option.none());
+    }
+    
+    /**
+     * Creates a new DataCenterForwarder and starts to forward events to a data center. If the data center hasn't received
+     * any events yet, and ts-reaktive.replication.initial-sync.enabled is on, an {@link InitialSync} is run first.
+     * @param materializer Akka streams materializer to use
+     * @param dataCenter Target data center to forward events to.
+     * @param visibilityRepo Repository that stores the current visiblity of aggregates
+     * @param eventRepo Classifier that determines which additional datacenters an event should trigger replication for
+     * @param eventsByTagQuery Query to use to find a continuous stream of all events
+     * @param tag Tag to pass to {@link EventsByTagQuery} (all events must be tagged by this)
+     * @param currentEventsByPersistenceIdQuery Query to find all current events for a specific persistenceId
+     * @param currentPersistenceIdsQuery Query to find all persistenceIds, for an initial sync
+     */
+    public DataCenterForwarder(Materializer materializer, DataCenter dataCenter, VisibilityRepository visibilityRepo, Class<E> eventType,
+        EventsByTagQuery eventsByTagQuery, CurrentEventsByPersistenceIdQuery currentEventsByPersistenceIdQuery,
+        Option<CurrentPersistenceIdsQuery> currentPersistenceIdsQuery) {
         
 		final Replication replication = Replication.get(context().system());
         
@@ -110,6 +164,15 @@ public class DataCenterForwarder<E> extends AbstractActor {
         this.localDataCenterName = replication.getLocalDataCenterName();
         this.currentEventsByPersistenceIdQuery = currentEventsByPersistenceIdQuery;
         this.parallelism = context().system().settings().config().getInt("ts-reaktive.replication.parallellism");
+        this.replays = replication.getReplays();
+        this.visibilityBatchSize = context().system().settings().config().getInt("ts-reaktive.replication.visibility-batch.max-size");
+        this.visibilityBatchDelay = context().system().settings().config().getDuration("ts-reaktive.replication.visibility-batch.max-delay");
+        this.metrics = new ReplicationMetrics(dataCenter.getName(), tag);
+        Config initialSyncConfig = context().system().settings().config().getConfig("ts-reaktive.replication.initial-sync");
+        this.initialSync = currentPersistenceIdsQuery.filter(q -> initialSyncConfig.getBoolean("enabled")).map(q ->
+            new InitialSync<>(materializer, dataCenter, visibilityRepo, tag, eventType, classifier, localDataCenterName, q, currentEventsByPersistenceIdQuery, metrics, initialSyncConfig));
+        this.metricsTick = context().system().scheduler().schedule(
+            Duration.create(1, TimeUnit.SECONDS), Duration.create(1, TimeUnit.SECONDS), self(), MetricsTick.INSTANCE, context().dispatcher(), self());
 
         pipe(visibilityRepo.getLastEventOffset(dataCenter, tag).thenApply(LastEventOffsetKnown::new), context().dispatcher()).to(self());
         log.debug("Started");
@@ -118,6 +181,10 @@ public class DataCenterForwarder<E> extends AbstractActor {
     @Override
     public Receive createReceive() {
         return ReceiveBuilder.create()
+            .match(LastEventOffsetKnown.class, msg -> msg.offset == 0 && initialSync.isDefined(), msg -> {
+                log.info("{} hasn't received any events yet, running initial sync.", dataCenter.getName());
+                pipe(initialSync.get().run().thenApply(LastEventOffsetKnown::new), context().dispatcher()).to(self());
+            })
             .match(LastEventOffsetKnown.class, msg -> {
                 log.debug("Last offset known is {}", msg.offset);
                 lastEventOffset = Math.max(0, msg.offset - context().system().settings().config().getDuration("ts-reaktive.replication.allowed-clock-drift").toMillis());
@@ -151,6 +218,11 @@ public class DataCenterForwarder<E> extends AbstractActor {
                      updateLastEventOffset();
                  }
             })
+            .match(MetricsTick.class, msg -> {
+                if (lastEventOffset > 0) {
+                    metrics.getLag().set(Math.max(0, System.currentTimeMillis() - lastEventOffset));
+                }
+            })
             .match(Done.class, msg -> {})
             .match(Failure.class, msg -> {
                 log.error(msg.cause(), "A future created from this actor has failed");
@@ -159,6 +231,29 @@ public class DataCenterForwarder<E> extends AbstractActor {
             .build();
     }
     
+    @Override
+    public void postStop() {
+        metricsTick.cancel();
+        // Events still in flight won't be handled by this actor anymore, and will be counted again after a restart.
+        long remaining = visibilityBacklog.getAndSet(-1);
+        if (remaining > 0) {
+            metrics.getVisibilityBacklog().decrement(remaining);
+        }
+    }
+    
+    private void incrementVisibilityBacklog() {
+        if (visibilityBacklog.getAndUpdate(c -> (c < 0) ? c : c + 1) >= 0) {
+            metrics.getVisibilityBacklog().increment();
+        }
+    }
+    
+    private void decrementVisibilityBacklog(long times) {
+        long before = visibilityBacklog.getAndUpdate(c -> (c < 0) ? c : Math.max(0, c - times));
+        if (before > 0) {
+            metrics.getVisibilityBacklog().decrement(Math.min(before, times));
+        }
+    }
+    
     private void updateLastEventOffset() {
         log.debug("Considering updating event offset, count={}, visibility={}, lastDelivered={}", updatingVisibilityOffsetCount, updatingVisibilityOffset, lastDeliveredEventOffset);
         if (updatingVisibilityOffsetCount == 0) {
@@ -187,13 +282,17 @@ public class DataCenterForwarder<E> extends AbstractActor {
     private Sink<EventEnvelope,NotUsed> filteredDataCenterSink() {
         log.debug("filteredDataCenterSink()");
         return Flow.<EventEnvelope>create()
-            .mapAsync(parallelism, e -> {
-                return visibilityRepo.isVisibleTo(dataCenter, e.persistenceId()).thenApply(v -> {
-                    log.debug("Visibility of {}: {}", e, v);
-                    return Tuple.of(e,v);});
+            .groupedWithin(visibilityBatchSize, visibilityBatchDelay)
+            .mapAsync(parallelism, events ->
+                visibilityRepo.getVisibilities(Vector.ofAll(events).map(EventEnvelope::persistenceId)).thenApply(visibilities -> {
+                    log.debug("Visibility of {}: {}", events, visibilities);
+                    return Vector.ofAll(events).filter(e -> visibilities.get(e.persistenceId()).getOrElse(Visibility.EMPTY).isVisibleTo(dataCenter));
+                })
+            )
+            .mapConcat(events -> {
+                metrics.getForwardedEvents().increment(events.size());
+                return events;
             })
-            .filter(t -> t._2)
-            .map(t -> t._1)
             .via(dataCenter.uploadFlow())
             .map(EventDelivered::new)
             .to(Sink.actorRef(self(), new Failure(new IllegalStateException("Remote datacenter closed connection"))));
@@ -206,41 +305,84 @@ public class DataCenterForwarder<E> extends AbstractActor {
         ActorRef self = self(); // not safe to close over self() inside e.g. mapAsync
         
         return Flow.<EventEnvelope>create()
-            .mapAsync(parallelism, e -> {
-                log.debug("updateVisibility {}", e);
-                Seq<String> names = classifier.getDataCenterNames((E) e.event());
-                if (e.sequenceNr() == 1) { // First event, which should contain the master data center name
-                    boolean weAreMaster = !names.isEmpty() && names.head().equals(localDataCenterName);
-                    boolean shouldMakeVisible = weAreMaster && names.contains(dataCenter.getName());
-                    log.debug("initial master:{} / visible:{}", weAreMaster, shouldMakeVisible);
-                    return visibilityRepo.setMaster(e.persistenceId(), weAreMaster).thenApply(done -> Tuple.of(e, shouldMakeVisible));
-                } else {
-                    return visibilityRepo.getVisibility(e.persistenceId()).thenApply(v -> {
+            .map(e -> {
+                incrementVisibilityBacklog();
+                return e;
+            })
+            .groupedWithin(visibilityBatchSize, visibilityBatchDelay)
+            // Batches are handled one at a time, so each batch sees the visibility changes of the batches before it.
+            .mapAsync(1, events -> {
+                log.debug("updateVisibility {}", events);
+                Seq<EventEnvelope> batch = Vector.ofAll(events);
+                // We only need to read the visibility of persistenceIds for which we don't see the first event here.
+                Seq<String> toRead = batch.filter(e -> e.sequenceNr() > 1).map(EventEnvelope::persistenceId)
+                    .removeAll(batch.filter(e -> e.sequenceNr() == 1).map(EventEnvelope::persistenceId));
+                return visibilityRepo.getVisibilities(toRead).thenCompose(read -> {
+                    Map<String,Visibility> visibilities = read;
+                    Seq<VisibilityChange> changes = Vector.empty();
+                    Seq<EventEnvelope> madeVisible = Vector.empty();
+                    for (EventEnvelope e: batch) {
+                        Seq<String> names = classifier.getDataCenterNames((E) e.event());
+                        Visibility v;
+                        if (e.sequenceNr() == 1) { // First event, which should contain the master data center name
+                            boolean weAreMaster = !names.isEmpty() && names.head().equals(localDataCenterName);
+                            log.debug("initial master of {}: {}", e.persistenceId(), weAreMaster);
+                            changes = changes.append(VisibilityChange.setMaster(e.persistenceId(), weAreMaster));
+                            v = Visibility.EMPTY.withMaster(weAreMaster);
+                            if (!isNamedIn(names, dataCenter)) {
+                                visibilities = visibilities.put(e.persistenceId(), v);
+                                continue;
+                            }
+                        } else {
+                            v = visibilities.get(e.persistenceId()).getOrElse(Visibility.EMPTY);
+                        }
                         log.debug("visibility of {} is {}", e, v);
-                        return Tuple.of(e, v.isMaster() && !v.isVisibleTo(dataCenter));});
-                }
+                        if (v.isMaster() && !v.isVisibleTo(dataCenter)) {
+                            changes = changes.append(VisibilityChange.makeVisibleTo(e.persistenceId(), dataCenter.getName()));
+                            madeVisible = madeVisible.append(e);
+                            v = v.add(dataCenter.getName());
+                        }
+                        visibilities = visibilities.put(e.persistenceId(), v);
+                    }
+                    Seq<EventEnvelope> result = madeVisible;
+                    decrementVisibilityBacklog(batch.size() - result.size());
+                    return visibilityRepo.update(changes).thenApply(done -> {
+                        result.forEach(e -> self.tell(new UpdatingVisibility(getTimestamp(e)), self));
+                        return result;
+                    });
+                });
             })
-            .filter(t -> t._2)
-            .map(t -> t._1)
-            .mapAsync(parallelism, e ->
-                visibilityRepo.makeVisibleTo(dataCenter, e.persistenceId()).thenApply(done -> {
-                    self.tell(new UpdatingVisibility(getTimestamp(e)), self);
-                    return e;
-                })
+            .mapConcat(events -> events)
+            .mapAsyncUnordered(parallelism, e ->
+                // Replays of the same persistenceId are coalesced, so subsequent events don't cause duplicate replays.
+                replays.replay(dataCenter.getName(), e.persistenceId(), e.sequenceNr(), () -> {
+                    log.info("{} Replaying persistence ID {} into {}", self, e.persistenceId(), dataCenter.getName());
+                    AtomicLong replayedUpTo = new AtomicLong();
+                    return currentEventsByPersistenceIdQuery.currentEventsByPersistenceId(e.persistenceId(), 0, Long.MAX_VALUE)
+                        .alsoTo(stopOnError("currentEventsByPersistenceId"))
+                        .map(replayed -> {
+                            replayedUpTo.set(replayed.sequenceNr());
+                            metrics.getReplayedEvents().increment();
+                            return replayed;
+                        })
+                        .via(dataCenter.singleConnectionUploadFlow())
+                        .runWith(Sink.ignore(), materializer)
+                        .thenApply(done -> replayedUpTo.get());
+                }).thenApply(done -> e)
             )
-            .mapAsyncUnordered(parallelism, e -> {
-                // TODO (optimization) don't (or queue) replay when a current replay already is in progress.
-                // The above probably should be done at the same time as having clustered (non-persistent) actors per persistenceId.
-                // Currently, subsequent events for the same persistenceId will trigger lots of "WARN: Received duplicate event" in ReplicatedActor.
-                log.info("{} Replaying persistence ID {} into {}", self(), e.persistenceId(), dataCenter.getName());
-                return currentEventsByPersistenceIdQuery.currentEventsByPersistenceId(e.persistenceId(), 0, Long.MAX_VALUE)
-                                .alsoTo(stopOnError("currentEventsByPersistenceId"))
-                                .via(dataCenter.uploadFlow())
-                                .runWith(Sink.ignore(), materializer)
-                                .thenApply(done -> e);
-            })
             .alsoTo(stopOnError("updateVisibility"))
-            .to(Sink.foreach(event -> self.tell(new VisibilityUpdated(getTimestamp(event)), self)));
+            .to(Sink.foreach(event -> {
+                decrementVisibilityBacklog(1);
+                self.tell(new VisibilityUpdated(getTimestamp(event)), self);
+            }));
+    }
+    
+    /**
+     * Returns whether the data center names of a persistenceId's first event make it visible to the given data center
+     * right away. Shared with {@link InitialSync}, so both decide the same way.
+     */
+    static boolean isNamedIn(Seq<String> names, DataCenter dataCenter) {
+        return names.contains(dataCenter.getName()) || names.contains("*");
     }
     
     private static long getTimestamp(EventEnvelope e) {
@@ -259,6 +401,10 @@ public class DataCenterForwarder<E> extends AbstractActor {
         });
     }
     
+    private static class MetricsTick {
+        private static final MetricsTick INSTANCE = new MetricsTick();
+    }
+    
     private static class LastEventOffsetKnown {
         private final Long offset;
 
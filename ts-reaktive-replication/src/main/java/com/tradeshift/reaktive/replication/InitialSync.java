@@ -0,0 +1,153 @@
+package com.tradeshift.reaktive.replication;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.typesafe.config.Config;
+
+import akka.Done;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.javadsl.CurrentEventsByPersistenceIdQuery;
+import akka.persistence.query.javadsl.CurrentPersistenceIdsQuery;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
+
+/**
+ * Brings a new remote data center up to date by going through all persistenceIds in bulk, rather than through
+ * all events of a tag one by one. For each persistenceId in a batch, its first events decide whether the local data
+ * center is its master and whether it's visible to the remote data center. The events of those that are both are then
+ * streamed over a single connection. Several batches are handled concurrently.
+ *
+ * The offset at which the sync started is stored first. Progress is kept in the visibility table: a persistenceId
+ * is only made visible to the data center after its events have been uploaded, and is skipped if the sync is
+ * restarted. Once all persistenceIds have been handled, the start offset is stored as the data center's last
+ * event offset, so that normal forwarding by tag takes over from there.
+ */
+public class InitialSync<E> {
+    private static final Logger log = LoggerFactory.getLogger(InitialSync.class);
+
+    private final Materializer materializer;
+    private final DataCenter dataCenter;
+    private final VisibilityRepository visibilityRepo;
+    private final String tag;
+    private final Class<E> eventType;
+    private final EventClassifier<E> classifier;
+    private final String localDataCenterName;
+    private final CurrentPersistenceIdsQuery currentPersistenceIdsQuery;
+    private final CurrentEventsByPersistenceIdQuery currentEventsByPersistenceIdQuery;
+    private final ReplicationMetrics metrics;
+    private final int parallelism;
+    private final int batchSize;
+
+    /**
+     * Creates a new InitialSync
+     * @param eventType Type of events of the tag. PersistenceIds of other types in the journal are skipped.
+     * @param config Settings, in the format of ts-reaktive.replication.initial-sync
+     */
+    public InitialSync(Materializer materializer, DataCenter dataCenter, VisibilityRepository visibilityRepo, String tag,
+        Class<E> eventType, EventClassifier<E> classifier, String localDataCenterName, CurrentPersistenceIdsQuery currentPersistenceIdsQuery,
+        CurrentEventsByPersistenceIdQuery currentEventsByPersistenceIdQuery, ReplicationMetrics metrics, Config config) {
+
+        this.materializer = materializer;
+        this.dataCenter = dataCenter;
+        this.visibilityRepo = visibilityRepo;
+        this.tag = tag;
+        this.eventType = eventType;
+        this.classifier = classifier;
+        this.localDataCenterName = localDataCenterName;
+        this.currentPersistenceIdsQuery = currentPersistenceIdsQuery;
+        this.currentEventsByPersistenceIdQuery = currentEventsByPersistenceIdQuery;
+        this.metrics = metrics;
+        this.parallelism = config.getInt("parallelism");
+        this.batchSize = config.getInt("batch-size");
+    }
+
+    /**
+     * Runs (or resumes) the initial sync.
+     * @return The offset from which normal forwarding should continue, which has also been stored as last event offset.
+     */
+    public CompletionStage<Long> run() {
+        return visibilityRepo.getInitialSyncStart(dataCenter, tag).thenCompose(previous -> {
+            long startOffset = previous.getOrElse(System.currentTimeMillis());
+            log.info("{} initial sync of {} into {} from offset {}", previous.isDefined() ? "Resuming" : "Starting", tag, dataCenter.getName(), startOffset);
+            CompletionStage<Done> started = previous.isDefined()
+                ? CompletableFuture.completedFuture(Done.getInstance())
+                : visibilityRepo.setInitialSyncStart(dataCenter, tag, startOffset);
+
+            return started
+                .thenCompose(done -> currentPersistenceIdsQuery.currentPersistenceIds()
+                    .grouped(batchSize)
+                    .mapAsyncUnordered(parallelism, persistenceIds -> syncBatch(Vector.ofAll(persistenceIds)))
+                    .runWith(Sink.ignore(), materializer))
+                .thenCompose(done -> visibilityRepo.setLastEventOffset(dataCenter, tag, startOffset))
+                .thenApply(done -> {
+                    log.info("Finished initial sync of {} into {}", tag, dataCenter.getName());
+                    return startOffset;
+                });
+        });
+    }
+
+    private CompletionStage<Done> syncBatch(Seq<String> persistenceIds) {
+        return visibilityRepo.getVisibilities(persistenceIds).thenCompose(visibilities -> {
+            ConcurrentLinkedQueue<VisibilityChange> changes = new ConcurrentLinkedQueue<>();
+            Seq<String> todo = persistenceIds.filter(id -> !visibilities.get(id).getOrElse(Visibility.EMPTY).isVisibleTo(dataCenter));
+
+            return Source.from(todo)
+                // Only the first two events are read to decide, so a long history is never held in memory.
+                .mapAsync(1, id -> currentEventsByPersistenceIdQuery.currentEventsByPersistenceId(id, 0, Long.MAX_VALUE)
+                    .take(2)
+                    .runWith(Sink.seq(), materializer)
+                    .thenApply(first -> select(id, Vector.ofAll(first), visibilities.get(id).getOrElse(Visibility.EMPTY), changes)
+                        ? Option.some(id) : Option.<String>none()))
+                .mapConcat(id -> id)
+                .flatMapConcat(id -> {
+                    metrics.getInitialSyncPersistenceIds().increment();
+                    return currentEventsByPersistenceIdQuery.currentEventsByPersistenceId(id, 0, Long.MAX_VALUE).map(e -> {
+                        metrics.getInitialSyncEvents().increment();
+                        return e;
+                    });
+                })
+                .via(dataCenter.singleConnectionUploadFlow())
+                .runWith(Sink.ignore(), materializer)
+                // Only mark persistenceIds as visible after their events have been uploaded
+                .thenCompose(done -> visibilityRepo.update(Vector.ofAll(changes)));
+        });
+    }
+
+    /**
+     * Returns whether the events of a persistenceId should be uploaded, given its first (up to) two events, collecting
+     * the visibility changes that should be written once they have. As in {@link DataCenterForwarder}, the first event
+     * decides the master, and a persistenceId we're master of becomes visible right away if the first event names the
+     * data center (see {@link DataCenterForwarder#isNamedIn}), or otherwise once it has more than one event.
+     *
+     * The journal may also contain persistenceIds of other types (which have other tags, or aren't replicated at all).
+     * Those are never selected.
+     */
+    private boolean select(String persistenceId, Seq<EventEnvelope> first, Visibility visibility, ConcurrentLinkedQueue<VisibilityChange> changes) {
+        if (first.isEmpty() || !eventType.isInstance(first.head().event())) {
+            return false;
+        }
+        Seq<String> names = classifier.getDataCenterNames(eventType.cast(first.head().event()));
+        boolean master = !names.isEmpty() && names.head().equals(localDataCenterName);
+        if (!master) {
+            return false;
+        }
+        if (!visibility.isMaster()) {
+            changes.add(VisibilityChange.setMaster(persistenceId, true));
+        }
+        boolean visible = DataCenterForwarder.isNamedIn(names, dataCenter) || first.size() > 1;
+        if (!visible) {
+            return false;
+        }
+        changes.add(VisibilityChange.makeVisibleTo(persistenceId, dataCenter.getName()));
+        return true;
+    }
+}
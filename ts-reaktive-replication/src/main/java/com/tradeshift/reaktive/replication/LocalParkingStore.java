@@ -0,0 +1,45 @@
+package com.tradeshift.reaktive.replication;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.tradeshift.reaktive.protobuf.Query;
+
+import akka.Done;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+
+/**
+ * Parks events in memory of the current node. Parked events are kept when a ReplicatedActor is passivated,
+ * but lost when the actor moves to another node, or the node restarts.
+ */
+public class LocalParkingStore implements ParkingStore {
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<Long, Query.EventEnvelope>> parked = new ConcurrentHashMap<>();
+
+    @Override
+    public CompletionStage<Done> park(Query.EventEnvelope envelope) {
+        parked.computeIfAbsent(envelope.getPersistenceId(), id -> new ConcurrentSkipListMap<>()).put(envelope.getSequenceNr(), envelope);
+        return completedFuture(Done.getInstance());
+    }
+
+    @Override
+    public CompletionStage<Seq<Query.EventEnvelope>> load(String persistenceId, long fromSequenceNr, int limit) {
+        ConcurrentSkipListMap<Long, Query.EventEnvelope> events = parked.get(persistenceId);
+        if (events == null) {
+            return completedFuture(Vector.empty());
+        }
+        return completedFuture(Vector.ofAll(events.tailMap(fromSequenceNr).values()).take(limit));
+    }
+
+    @Override
+    public CompletionStage<Done> remove(String persistenceId, long sequenceNr) {
+        parked.computeIfPresent(persistenceId, (id, events) -> {
+            events.remove(sequenceNr);
+            return events.isEmpty() ? null : events;
+        });
+        return completedFuture(Done.getInstance());
+    }
+}
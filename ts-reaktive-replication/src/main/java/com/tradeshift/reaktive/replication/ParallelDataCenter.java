@@ -0,0 +1,170 @@
+package com.tradeshift.reaktive.replication;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.tradeshift.reaktive.akka.rest.EventMarshallers;
+
+import akka.NotUsed;
+import akka.persistence.query.EventEnvelope;
+import akka.stream.FlowShape;
+import akka.stream.UniformFanInShape;
+import akka.stream.UniformFanOutShape;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.GraphDSL;
+import akka.stream.javadsl.Merge;
+import akka.stream.javadsl.Partition;
+import akka.stream.javadsl.Source;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
+
+/**
+ * A data center that uploads events over several parallel connections of another data center, in order to fill high-latency
+ * links that a single connection can't.
+ *
+ * Events are spread over the connections by persistenceId, so events of one persistenceId keep their order. The upload flow
+ * only emits an offset once all events up to that offset have been acknowledged, on all connections. If any connection
+ * is closed or fails before all events have been sent, the whole upload fails, so it can be restarted from the last
+ * emitted offset.
+ */
+public class ParallelDataCenter implements DataCenter {
+    private final DataCenter delegate;
+    private final int connections;
+
+    /**
+     * Creates a new ParallelDataCenter
+     * @param delegate Data center to open connections to, by invoking its uploadFlow() once for each connection
+     * @param connections Number of connections to open
+     */
+    public ParallelDataCenter(DataCenter delegate, int connections) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("connections must be at least 1, but is " + connections);
+        }
+        this.delegate = delegate;
+        this.connections = connections;
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    /**
+     * Returns a flow that uploads events over [connections] connections. Each returned flow must only be materialized once,
+     * and expects the offsets of incoming events to be increasing, as those of an eventsByTag query are.
+     */
+    @Override
+    public Flow<EventEnvelope,Long,NotUsed> uploadFlow() {
+        Acknowledgements acks = new Acknowledgements(connections);
+
+        return Flow.fromGraph(GraphDSL.create(b -> {
+            // The end of the input and of each connection is marked with none(), so a connection that completes before the
+            // input has can be told apart.
+            FlowShape<EventEnvelope, Tuple2<Integer, EventEnvelope>> assign = b.add(Flow.<EventEnvelope>create()
+                .map(Option::some)
+                .concat(Source.single(Option.none()))
+                .mapConcat(o -> {
+                    if (o.isEmpty()) {
+                        acks.finished();
+                        return Vector.<Tuple2<Integer, EventEnvelope>>empty();
+                    }
+                    EventEnvelope e = o.get();
+                    int connection = Math.floorMod(e.persistenceId().hashCode(), connections);
+                    acks.sent(connection, EventMarshallers.getOffsetAsEpoch(e));
+                    return Vector.of(Tuple.of(connection, e));
+                }));
+            // A connection that stops accepting events cancels the whole input, rather than having its events dropped.
+            UniformFanOutShape<Tuple2<Integer, EventEnvelope>, Tuple2<Integer, EventEnvelope>> partition = b.add(
+                Partition.<Tuple2<Integer, EventEnvelope>>create(connections, t -> t._1, true));
+            UniformFanInShape<Long, Long> merge = b.add(Merge.<Long>create(connections));
+            FlowShape<Long, Long> progress = b.add(Flow.<Long>create().filter(offset -> offset > 0));
+
+            b.from(assign.out()).toInlet(partition.in());
+            for (int i = 0; i < connections; i++) {
+                final int connection = i;
+                FlowShape<Tuple2<Integer, EventEnvelope>, Long> upload = b.add(Flow.<Tuple2<Integer, EventEnvelope>>create()
+                    .map(t -> t._2)
+                    .via(delegate.uploadFlow())
+                    .map(offset -> Option.some(acks.acknowledged(connection, offset)))
+                    .concat(Source.single(Option.none()))
+                    .mapConcat(o -> {
+                        if (o.isEmpty() && !acks.isFinished()) {
+                            throw new IllegalStateException("Connection " + connection + " to " + getName() + " was closed");
+                        }
+                        return o;
+                    }));
+                b.from(partition.out(i)).via(upload).toInlet(merge.in(i));
+            }
+            b.from(merge.out()).toInlet(progress.in());
+            return FlowShape.of(assign.in(), progress.out());
+        }));
+    }
+
+    /**
+     * Returns the delegate's upload flow, since events of a single persistenceId all go over the same connection anyway.
+     */
+    @Override
+    public Flow<EventEnvelope,Long,?> singleConnectionUploadFlow() {
+        return delegate.uploadFlow();
+    }
+
+    /**
+     * Keeps track of the offsets that have been sent, but not yet acknowledged, on each connection.
+     */
+    private static class Acknowledgements {
+        private final List<ArrayDeque<Long>> pending = new ArrayList<>();
+        private long highestSent = 0;
+        private long lastEmitted = 0;
+        private boolean finished = false;
+
+        public Acknowledgements(int connections) {
+            for (int i = 0; i < connections; i++) {
+                pending.add(new ArrayDeque<>());
+            }
+        }
+
+        public synchronized void sent(int connection, long offset) {
+            pending.get(connection).add(offset);
+            highestSent = Math.max(highestSent, offset);
+        }
+
+        /**
+         * Marks that all events have been sent, so connections are expected to complete.
+         */
+        public synchronized void finished() {
+            finished = true;
+        }
+
+        public synchronized boolean isFinished() {
+            return finished;
+        }
+
+        /**
+         * Marks all events up to [offset] on the given connection as acknowledged.
+         * @return The new offset up to which all connections have acknowledged all events, or 0 if that hasn't moved.
+         */
+        public synchronized long acknowledged(int connection, long offset) {
+            ArrayDeque<Long> queue = pending.get(connection);
+            while (!queue.isEmpty() && queue.peek() <= offset) {
+                queue.poll();
+            }
+
+            long safe = highestSent;
+            for (ArrayDeque<Long> q: pending) {
+                if (!q.isEmpty()) {
+                    safe = Math.min(safe, q.peek() - 1);
+                }
+            }
+
+            if (safe > lastEmitted) {
+                lastEmitted = safe;
+                return safe;
+            } else {
+                return 0;
+            }
+        }
+    }
+}
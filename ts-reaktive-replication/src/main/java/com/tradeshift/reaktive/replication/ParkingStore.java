@@ -0,0 +1,29 @@
+package com.tradeshift.reaktive.replication;
+
+import java.util.concurrent.CompletionStage;
+
+import com.tradeshift.reaktive.protobuf.Query;
+
+import akka.Done;
+import io.vavr.collection.Seq;
+
+/**
+ * Stores replicated events that have arrived at a ReplicatedActor ahead of earlier events, and that don't fit
+ * in the actor's in-memory reorder buffer.
+ */
+public interface ParkingStore {
+    /**
+     * Stores the given event, replacing any event already parked with the same persistenceId and sequence number.
+     */
+    CompletionStage<Done> park(Query.EventEnvelope envelope);
+
+    /**
+     * Returns up to [limit] parked events for the given persistenceId, starting at [fromSequenceNr], ordered by sequence number.
+     */
+    CompletionStage<Seq<Query.EventEnvelope>> load(String persistenceId, long fromSequenceNr, int limit);
+
+    /**
+     * Removes a parked event, typically because it has been persisted.
+     */
+    CompletionStage<Done> remove(String persistenceId, long sequenceNr);
+}
@@ -0,0 +1,173 @@
+package com.tradeshift.reaktive.replication;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+import akka.Done;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import kamon.Kamon;
+import kamon.metric.Counter;
+import kamon.metric.GaugeMetric;
+import kamon.metric.Histogram;
+import kamon.metric.MeasurementUnit;
+
+/**
+ * Runs replays of all current events of a persistenceId into a data center, at most [maxConcurrent] at a time
+ * across all users of this instance (typically, all DataCenterForwarder actors on a node).
+ *
+ * Replays are keyed by data center and persistenceId. Triggering a replay that is already queued merges the trigger
+ * into the queued replay. Triggering a replay that is already running queues (or merges into) a single follow-up
+ * replay, which is skipped if the running replay turns out to have covered the triggering event anyway.
+ *
+ * The number of queued and running replays are reported per data center.
+ */
+public class PersistenceIdReplays {
+    private final int maxConcurrent;
+    private final Map<Tuple2<String,String>, Replay> replays = new HashMap<>();
+    private final Queue<Replay> queue = new ArrayDeque<>();
+    private int running = 0;
+
+    private final GaugeMetric queued = Kamon.gauge("replication.replays.queued");
+    private final GaugeMetric runningGauge = Kamon.gauge("replication.replays.running");
+    private final Counter coalesced = Kamon.counter("replication.replays.coalesced");
+    private final Histogram duration = Kamon.histogram("replication.replays.duration", MeasurementUnit.time().milliseconds());
+
+    public PersistenceIdReplays(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * Requests a replay of [persistenceId] into [dataCenterName], because of an event with the given [sequenceNr].
+     * @param run Starts the actual replay, returning the highest sequence number that was replayed
+     * @return A CompletionStage that completes when a replay that was started after this call has completed
+     */
+    public CompletionStage<Done> replay(String dataCenterName, String persistenceId, long sequenceNr, Supplier<CompletionStage<Long>> run) {
+        Tuple2<String,String> key = Tuple.of(dataCenterName, persistenceId);
+        CompletionStage<Done> result;
+        synchronized (this) {
+            Replay replay = replays.get(key);
+            if (replay == null) {
+                replay = new Replay(key, sequenceNr, run);
+                replays.put(key, replay);
+                enqueue(replay);
+                result = replay.done;
+            } else if (!replay.started) {
+                replay.merge(sequenceNr);
+                result = replay.done;
+            } else if (replay.next == null) {
+                replay.next = new Replay(key, sequenceNr, run);
+                result = replay.next.done;
+            } else {
+                replay.next.merge(sequenceNr);
+                result = replay.next.done;
+            }
+        }
+        startQueued();
+        return result;
+    }
+
+    /**
+     * Returns the number of replays that are waiting for a slot in the concurrency budget.
+     */
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of replays that are currently running.
+     */
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    private void enqueue(Replay replay) {
+        queue.add(replay);
+        queued.refine("data-center", replay.key._1).increment();
+    }
+
+    private void startQueued() {
+        while (true) {
+            Replay replay;
+            synchronized (this) {
+                if (running >= maxConcurrent || queue.isEmpty()) {
+                    return;
+                }
+                replay = queue.poll();
+                queued.refine("data-center", replay.key._1).decrement();
+                replay.started = true;
+                replay.startedAt = System.nanoTime();
+                running++;
+                runningGauge.refine("data-center", replay.key._1).increment();
+            }
+
+            CompletionStage<Long> result;
+            try {
+                result = replay.run.get();
+            } catch (RuntimeException x) {
+                CompletableFuture<Long> failed = new CompletableFuture<>();
+                failed.completeExceptionally(x);
+                result = failed;
+            }
+            result.whenComplete((replayedUpTo, failure) -> finished(replay, replayedUpTo, failure));
+        }
+    }
+
+    private void finished(Replay replay, Long replayedUpTo, Throwable failure) {
+        Replay skipped = null;
+        synchronized (this) {
+            running--;
+            runningGauge.refine("data-center", replay.key._1).decrement();
+            duration.record((System.nanoTime() - replay.startedAt) / 1000000);
+
+            Replay next = replay.next;
+            if (next == null) {
+                replays.remove(replay.key);
+            } else if (failure == null && replayedUpTo >= next.sequenceNr) {
+                replays.remove(replay.key);
+                skipped = next;
+            } else {
+                replays.put(replay.key, next);
+                enqueue(next);
+            }
+        }
+
+        if (failure == null) {
+            replay.done.complete(Done.getInstance());
+        } else {
+            replay.done.completeExceptionally(failure);
+        }
+        if (skipped != null) {
+            skipped.done.complete(Done.getInstance());
+        }
+        startQueued();
+    }
+
+    private class Replay {
+        private final Tuple2<String,String> key;
+        private final Supplier<CompletionStage<Long>> run;
+        private final CompletableFuture<Done> done = new CompletableFuture<>();
+        /** The highest sequence number of the events that triggered this replay */
+        private long sequenceNr;
+        private boolean started = false;
+        private long startedAt;
+        /** A follow-up replay for triggers that arrived while this replay was running */
+        private Replay next = null;
+
+        public Replay(Tuple2<String,String> key, long sequenceNr, Supplier<CompletionStage<Long>> run) {
+            this.key = key;
+            this.sequenceNr = sequenceNr;
+            this.run = run;
+        }
+
+        private void merge(long sequenceNr) {
+            this.sequenceNr = Math.max(this.sequenceNr, sequenceNr);
+            coalesced.increment();
+        }
+    }
+}
@@ -26,6 +26,7 @@ import akka.actor.Extension;
 import akka.http.javadsl.ConnectionContext;
 import akka.persistence.query.PersistenceQuery;
 import akka.persistence.query.javadsl.CurrentEventsByPersistenceIdQuery;
+import akka.persistence.query.javadsl.CurrentPersistenceIdsQuery;
 import akka.persistence.query.javadsl.EventsByTagQuery;
 import akka.persistence.query.javadsl.ReadJournal;
 import akka.stream.ActorMaterializer;
@@ -44,12 +45,47 @@ public class Replication implements Extension {
     
     private final ActorSystem system;
     private final Config config;
+    private final PersistenceIdReplays replays;
     
     private Option<CompletionStage<Done>> started = none();
+    private Option<VisibilityCassandraSession> session = none();
+    private Option<ParkingStore> parkingStore = none();
     
     public Replication(ActorSystem system) {
         this.system = system;
         this.config = system.settings().config().getConfig("ts-reaktive.replication");
+        this.replays = new PersistenceIdReplays(config.getInt("replay.max-concurrent"));
+    }
+    
+    /**
+     * Returns the replays of persistenceIds into remote data centers, which share a concurrency budget for this node.
+     */
+    public PersistenceIdReplays getReplays() {
+        return replays;
+    }
+    
+    /**
+     * Returns the store for events that ReplicatedActor receives out of order, according to ts-reaktive.replication.parking.store
+     */
+    public synchronized ParkingStore getParkingStore() {
+        if (parkingStore.isEmpty()) {
+            String store = config.getString("parking.store");
+            if (store.equals("cassandra")) {
+                parkingStore = some(new CassandraParkingStore(getSession(), SharedActorMaterializer.get(system)));
+            } else if (store.equals("local")) {
+                parkingStore = some(new LocalParkingStore());
+            } else {
+                throw new IllegalArgumentException("Unsupported ts-reaktive.replication.parking.store, expecting \"cassandra\" or \"local\": " + store);
+            }
+        }
+        return parkingStore.get();
+    }
+    
+    private synchronized VisibilityCassandraSession getSession() {
+        if (session.isEmpty()) {
+            session = some(new VisibilityCassandraSession(system, "visibilitySession"));
+        }
+        return session.get();
     }
     
     public String getLocalDataCenterName() {
@@ -100,8 +136,8 @@ public class Replication implements Extension {
 
         ActorMaterializer materializer = SharedActorMaterializer.get(system);
         
-        VisibilityCassandraSession session = new VisibilityCassandraSession(system, "visibilitySession");
-        VisibilityRepository visibilityRepo = new VisibilityRepository(session);
+        VisibilityCassandraSession session = getSession();
+        VisibilityRepository visibilityRepo = new VisibilityRepository(session, VisibilityCache.fromConfig(config.getConfig("visibility-cache")));
         
         // We consider ourselves started when the HTTP binding succeeds, and we've successfully connected to cassandra.
         // The below client flows just start some child actors, so there's nothing to wait on.
@@ -114,10 +150,13 @@ public class Replication implements Extension {
             Seq<DataCenter> remotes = Vector.ofAll(remoteDatacenters.root().keySet()).map(name -> {
                 Config dcConfig = remoteDatacenters.getConfig(name);
                 String url = dcConfig.getString("url") + "/events/" + eventTag;
-                ConnectionContext connOpts = SSLFactory.createSSLContext(dcConfig.withFallback(config.getConfig("client")))
+                Config clientConfig = dcConfig.withFallback(config.getConfig("client"));
+                ConnectionContext connOpts = SSLFactory.createSSLContext(clientConfig)
                         .map(sslCtx -> (ConnectionContext) ConnectionContext.https(sslCtx))
                         .getOrElse(ConnectionContext.noEncryption());
-                return new WebSocketDataCenterClient(system, connOpts, name, url);
+                DataCenter client = new WebSocketDataCenterClient(system, connOpts, name, eventTag, url, clientConfig);
+                int connections = clientConfig.getInt("connections");
+                return (connections > 1) ? new ParallelDataCenter(client, connections) : client;
             });
             
             DataCenterRepository dataCenterRepository = new DataCenterRepository() {
@@ -134,8 +173,10 @@ public class Replication implements Extension {
             
             ReadJournal journal = PersistenceQuery.get(system).getReadJournalFor(ReadJournal.class, config.getString("read-journal-plugin-id"));
             
+            Option<CurrentPersistenceIdsQuery> persistenceIdsQuery = (journal instanceof CurrentPersistenceIdsQuery)
+                ? some((CurrentPersistenceIdsQuery) journal) : none();
             DataCenterForwarder.startAll(system, materializer, dataCenterRepository, visibilityRepo, eventType,
-                (EventsByTagQuery)journal, (CurrentEventsByPersistenceIdQuery) journal);
+                (EventsByTagQuery)journal, (CurrentEventsByPersistenceIdQuery) journal, persistenceIdsQuery);
         });
         
         return started.get();
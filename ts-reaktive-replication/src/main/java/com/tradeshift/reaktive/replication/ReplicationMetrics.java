@@ -0,0 +1,74 @@
+package com.tradeshift.reaktive.replication;
+
+import io.vavr.collection.HashMap;
+import kamon.Kamon;
+import kamon.metric.Counter;
+import kamon.metric.Gauge;
+import kamon.metric.Histogram;
+import kamon.metric.MeasurementUnit;
+
+/**
+ * Metrics for replicating events with one tag into one remote data center, tagged with "data-center" and "tag".
+ */
+public class ReplicationMetrics {
+    /** The number of events that have been sent to the remote data center, excluding replays */
+    private final Counter forwardedEvents;
+    /** The number of events that have been sent to the remote data center while replaying a persistenceId */
+    private final Counter replayedEvents;
+    /** The number of bytes that have been sent in web socket messages */
+    private final Counter bytesSent;
+    /** The time, in milliseconds, between sending a web socket message and receiving its acknowledgement */
+    private final Histogram ackLatency;
+    /** The time, in milliseconds, between now() and the offset up to which all events have been replicated */
+    private final Gauge lag;
+    /** The number of events for which visibility is being updated */
+    private final Gauge visibilityBacklog;
+    /** The number of persistenceIds that have been handled by an initial sync */
+    private final Counter initialSyncPersistenceIds;
+    /** The number of events that have been sent by an initial sync */
+    private final Counter initialSyncEvents;
+
+    public ReplicationMetrics(String dataCenterName, String tag) {
+        java.util.Map<String, String> tags = HashMap.of("data-center", dataCenterName).put("tag", tag).toJavaMap();
+        this.forwardedEvents = Kamon.counter("replication.forwarded-events").refine(tags);
+        this.replayedEvents = Kamon.counter("replication.replayed-events").refine(tags);
+        this.bytesSent = Kamon.counter("replication.bytes-sent", MeasurementUnit.information().bytes()).refine(tags);
+        this.ackLatency = Kamon.histogram("replication.ack-latency", MeasurementUnit.time().milliseconds()).refine(tags);
+        this.lag = Kamon.gauge("replication.lag", MeasurementUnit.time().milliseconds()).refine(tags);
+        this.visibilityBacklog = Kamon.gauge("replication.visibility-backlog").refine(tags);
+        this.initialSyncPersistenceIds = Kamon.counter("replication.initial-sync.persistence-ids").refine(tags);
+        this.initialSyncEvents = Kamon.counter("replication.initial-sync.events").refine(tags);
+    }
+
+    public Counter getForwardedEvents() {
+        return forwardedEvents;
+    }
+
+    public Counter getReplayedEvents() {
+        return replayedEvents;
+    }
+
+    public Counter getBytesSent() {
+        return bytesSent;
+    }
+
+    public Histogram getAckLatency() {
+        return ackLatency;
+    }
+
+    public Gauge getLag() {
+        return lag;
+    }
+
+    public Gauge getVisibilityBacklog() {
+        return visibilityBacklog;
+    }
+
+    public Counter getInitialSyncPersistenceIds() {
+        return initialSyncPersistenceIds;
+    }
+
+    public Counter getInitialSyncEvents() {
+        return initialSyncEvents;
+    }
+}
@@ -0,0 +1,162 @@
+package com.tradeshift.reaktive.replication;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import com.typesafe.config.Config;
+
+import io.vavr.control.Option;
+import kamon.Kamon;
+import kamon.metric.Counter;
+
+/**
+ * A bounded, in-memory cache of {@link Visibility} per persistenceId, which evicts the least recently used entry
+ * once [maxSize] is exceeded, and considers entries older than [ttl] to be expired.
+ *
+ * The TTL bounds how long we might act on a visibility that has been changed by another node in the cluster;
+ * changes made through this node are applied to the cache directly (see {@link #update}).
+ *
+ * Each persistenceId has a version, which changes whenever it's updated, so that a value read from the database
+ * before an update isn't cached after it. The versions of the last [maxSize] updated persistenceIds are kept; other
+ * persistenceIds share the highest version that has been forgotten.
+ */
+public class VisibilityCache {
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier nanoTime;
+    private final LinkedHashMap<String, Entry> entries;
+    private final LinkedHashMap<String, Long> versions;
+    private final Counter hits = Kamon.counter("replication.visibility-cache.hits");
+    private final Counter misses = Kamon.counter("replication.visibility-cache.misses");
+
+    /** The number of updates made so far, which is the version given to the next updated persistenceId. */
+    private long updates = 0;
+
+    /** The highest version that has been evicted from [versions] */
+    private long evictedVersion = 0;
+
+    /**
+     * Creates a VisibilityCache from the ts-reaktive.replication.visibility-cache config section.
+     */
+    public static VisibilityCache fromConfig(Config config) {
+        return new VisibilityCache(config.getInt("max-size"), config.getDuration("ttl"));
+    }
+
+    /**
+     * Returns a VisibilityCache that never holds any entries.
+     */
+    public static VisibilityCache disabled() {
+        return new VisibilityCache(0, Duration.ZERO);
+    }
+
+    public VisibilityCache(int maxSize, Duration ttl) {
+        this(maxSize, ttl, System::nanoTime);
+    }
+
+    VisibilityCache(int maxSize, Duration ttl, LongSupplier nanoTime) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.nanoTime = nanoTime;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > VisibilityCache.this.maxSize;
+            }
+        };
+        this.versions = new LinkedHashMap<String, Long>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if (size() > VisibilityCache.this.maxSize) {
+                    evictedVersion = Math.max(evictedVersion, eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0 && ttlNanos > 0;
+    }
+
+    /**
+     * Returns the cached visibility for the given persistenceId, if present and not expired.
+     */
+    public synchronized Option<Visibility> get(String persistenceId) {
+        if (!isEnabled()) {
+            return Option.none();
+        }
+        Entry entry = entries.get(persistenceId);
+        if (entry != null && isExpired(entry)) {
+            entries.remove(persistenceId);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.increment();
+            return Option.none();
+        } else {
+            hits.increment();
+            return Option.some(entry.visibility);
+        }
+    }
+
+    /**
+     * Returns the current version of the given persistenceId, to pass to {@link #put} after loading its visibility
+     * from the database.
+     */
+    public synchronized long version(String persistenceId) {
+        return versions.getOrDefault(persistenceId, evictedVersion);
+    }
+
+    /**
+     * Caches a visibility that was loaded from the database, unless the persistenceId has been updated since
+     * the given [version] was obtained (in which case the loaded value might already be outdated).
+     */
+    public synchronized void put(String persistenceId, Visibility visibility, long version) {
+        if (isEnabled() && version == version(persistenceId)) {
+            entries.put(persistenceId, new Entry(visibility, nanoTime.getAsLong()));
+        }
+    }
+
+    /**
+     * Applies a change, that has been successfully written to the database, to the cached visibility of
+     * the given persistenceId, if any. The entry keeps its original expiry time.
+     */
+    public synchronized void update(String persistenceId, Function<Visibility, Visibility> f) {
+        if (!isEnabled()) {
+            return;
+        }
+        updates++;
+        versions.remove(persistenceId);
+        versions.put(persistenceId, updates);
+        Entry entry = entries.get(persistenceId);
+        if (entry != null) {
+            entries.put(persistenceId, new Entry(f.apply(entry.visibility), entry.loadedAt));
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private boolean isExpired(Entry entry) {
+        return nanoTime.getAsLong() - entry.loadedAt >= ttlNanos;
+    }
+
+    private static class Entry {
+        private final Visibility visibility;
+        private final long loadedAt;
+
+        public Entry(Visibility visibility, long loadedAt) {
+            this.visibility = visibility;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -32,7 +32,9 @@ public class VisibilityCassandraSession extends CassandraSession {
         return Vector.of(
             "CREATE KEYSPACE IF NOT EXISTS " + keyspace + " WITH REPLICATION = { 'class' : " + replStrategy + " } ",
             "CREATE TABLE IF NOT EXISTS " + keyspace + ".meta (datacenter text, tag text, lastEventOffset bigint, PRIMARY KEY(datacenter, tag))",
-            "CREATE TABLE IF NOT EXISTS " + keyspace + ".visibility (persistenceid text PRIMARY KEY, master boolean, datacenters set<text>)"
+            "CREATE TABLE IF NOT EXISTS " + keyspace + ".initial_sync (datacenter text, tag text, startOffset bigint, PRIMARY KEY(datacenter, tag))",
+            "CREATE TABLE IF NOT EXISTS " + keyspace + ".visibility (persistenceid text PRIMARY KEY, master boolean, datacenters set<text>)",
+            "CREATE TABLE IF NOT EXISTS " + keyspace + ".parked_events (persistenceid text, sequencenr bigint, envelope blob, PRIMARY KEY (persistenceid, sequencenr))"
         );
     }
 }
@@ -0,0 +1,77 @@
+package com.tradeshift.reaktive.replication;
+
+import java.util.Collections;
+import java.util.Objects;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Statement;
+
+import io.vavr.control.Option;
+
+/**
+ * A change to the visibility of a persistenceId, to be written using {@link VisibilityRepository#update}.
+ */
+public class VisibilityChange {
+    private final String persistenceId;
+    private final Option<Boolean> master;
+    private final Option<String> dataCenter;
+
+    /**
+     * Returns a change that marks whether the current data center is the master for the persistenceId.
+     */
+    public static VisibilityChange setMaster(String persistenceId, boolean master) {
+        return new VisibilityChange(persistenceId, Option.some(master), Option.none());
+    }
+
+    /**
+     * Returns a change that makes the persistenceId visible to the given data center.
+     */
+    public static VisibilityChange makeVisibleTo(String persistenceId, String dataCenterName) {
+        return new VisibilityChange(persistenceId, Option.none(), Option.some(dataCenterName));
+    }
+
+    private VisibilityChange(String persistenceId, Option<Boolean> master, Option<String> dataCenter) {
+        this.persistenceId = persistenceId;
+        this.master = master;
+        this.dataCenter = dataCenter;
+    }
+
+    public String getPersistenceId() {
+        return persistenceId;
+    }
+
+    /**
+     * Returns the given visibility with this change applied.
+     */
+    public Visibility applyTo(Visibility v) {
+        return dataCenter.isDefined() ? v.add(dataCenter.get()) : v.withMaster(master.get());
+    }
+
+    /**
+     * Binds the statement that writes this change.
+     */
+    Statement bind(PreparedStatement setMasterStmt, PreparedStatement addVisibilityStmt) {
+        return dataCenter.isDefined()
+            ? addVisibilityStmt.bind(Collections.singleton(dataCenter.get()), persistenceId)
+            : setMasterStmt.bind(master.get(), persistenceId);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof VisibilityChange)) {
+            return false;
+        }
+        VisibilityChange other = (VisibilityChange) obj;
+        return persistenceId.equals(other.persistenceId) && master.equals(other.master) && dataCenter.equals(other.dataCenter);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(persistenceId, master, dataCenter);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + persistenceId + ": " + (dataCenter.isDefined() ? "visible to " + dataCenter.get() : "master=" + master.get()) + "]";
+    }
+}
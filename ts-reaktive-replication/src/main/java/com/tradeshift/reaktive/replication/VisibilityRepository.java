@@ -1,33 +1,61 @@
 package com.tradeshift.reaktive.replication;
 
-import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
+import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
 
 import akka.Done;
+import io.vavr.Tuple;
+import io.vavr.collection.HashMap;
 import io.vavr.collection.HashSet;
+import io.vavr.collection.Map;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
 
 /**
- * Stores which persistenceIds should be visible in other data centers (in addition to the current one)
+ * Stores which persistenceIds should be visible in other data centers (in addition to the current one).
  * 
- * TODO add some caching to this class, but only considering that the thing may be clustered later.
+ * Visibility is cached in a {@link VisibilityCache}, which is shared by all users of this repository (typically,
+ * all DataCenterForwarder actors on a node). Since other nodes may change visibility as well, cache entries expire
+ * after a configurable TTL.
+ * 
+ * Visibility can be read and changed for many persistenceIds at once, using {@link #getVisibilities} and {@link #update}.
  */
 public class VisibilityRepository {
     private final VisibilityCassandraSession session;
+    private final VisibilityCache cache;
     private final CompletionStage<PreparedStatement> getEventOffsetStmt;
     private final CompletionStage<PreparedStatement> setEventOffsetStmt;
+    private final CompletionStage<PreparedStatement> getInitialSyncStmt;
+    private final CompletionStage<PreparedStatement> setInitialSyncStmt;
     private final CompletionStage<PreparedStatement> getVisibilityStmt;
+    private final CompletionStage<PreparedStatement> getVisibilitiesStmt;
     private final CompletionStage<PreparedStatement> addVisibilityStmt;
     private final CompletionStage<PreparedStatement> setMasterStmt;
     
+    /**
+     * Creates a VisibilityRepository that does not cache visibility.
+     */
     public VisibilityRepository(VisibilityCassandraSession session) {
+        this(session, VisibilityCache.disabled());
+    }
+    
+    public VisibilityRepository(VisibilityCassandraSession session, VisibilityCache cache) {
         this.session = session;
+        this.cache = cache;
         String ks = session.getKeyspace();
         
         getEventOffsetStmt = session.prepare("SELECT lastEventOffset FROM " + ks + ".meta WHERE datacenter = ? AND tag = ?");
         setEventOffsetStmt = session.prepare("INSERT INTO " + ks + ".meta (datacenter, tag, lastEventOffset) VALUES (?, ?, ?)");
+        getInitialSyncStmt = session.prepare("SELECT startOffset FROM " + ks + ".initial_sync WHERE datacenter = ? AND tag = ?");
+        setInitialSyncStmt = session.prepare("INSERT INTO " + ks + ".initial_sync (datacenter, tag, startOffset) VALUES (?, ?, ?)");
         getVisibilityStmt = session.prepare("SELECT master, datacenters FROM " + ks + ".visibility WHERE persistenceid = ?");
+        getVisibilitiesStmt = session.prepare("SELECT persistenceid, master, datacenters FROM " + ks + ".visibility WHERE persistenceid IN ?");
         addVisibilityStmt = session.prepare("UPDATE " + ks + ".visibility SET datacenters = datacenters + ? WHERE persistenceid = ?");
         setMasterStmt = session.prepare("UPDATE " + ks + ".visibility SET master = ? WHERE persistenceid = ?");
     }
@@ -47,6 +75,20 @@ public class VisibilityRepository {
             .thenCompose(stmt -> session.executeWrite(stmt.bind(dataCenter.getName(), tag, offset)));
     }
 
+    /**
+     * Returns the offset at which a running {@link InitialSync} of the given data center and tag has started, if any.
+     */
+    public CompletionStage<Option<Long>> getInitialSyncStart(DataCenter dataCenter, String tag) {
+        return getInitialSyncStmt
+            .thenCompose(stmt -> session.selectOne(stmt.bind(dataCenter.getName(), tag)))
+            .thenApply(opt -> opt.map(row -> row.getLong("startOffset")));
+    }
+    
+    public CompletionStage<Done> setInitialSyncStart(DataCenter dataCenter, String tag, long offset) {
+        return setInitialSyncStmt
+            .thenCompose(stmt -> session.executeWrite(stmt.bind(dataCenter.getName(), tag, offset)));
+    }
+
     public CompletionStage<Boolean> isVisibleTo(DataCenter target, String persistenceId) {
         return getVisibility(persistenceId).thenApply(v -> v.isVisibleTo(target));
     }
@@ -55,22 +97,88 @@ public class VisibilityRepository {
      * Returns the data center names to which the given persistenceId is currently visible
      */
     public CompletionStage<Visibility> getVisibility(String persistenceId) {
+        Option<Visibility> cached = cache.get(persistenceId);
+        if (cached.isDefined()) {
+            return CompletableFuture.completedFuture(cached.get());
+        }
+        long version = cache.version(persistenceId);
         return getVisibilityStmt
             .thenCompose(stmt -> session.selectOne(stmt.bind(persistenceId)))
-            .thenApply(opt ->
-                opt.map(row ->
-                    new Visibility(HashSet.ofAll(row.getSet("datacenters", String.class)), row.getBool("master"))
-                ).getOrElse(Visibility.EMPTY)
-            );
+            .thenApply(opt -> opt.map(VisibilityRepository::toVisibility).getOrElse(Visibility.EMPTY))
+            .thenApply(v -> {
+                cache.put(persistenceId, v, version);
+                return v;
+            });
+    }
+    
+    /**
+     * Returns the visibility of each of the given persistenceIds, reading the ones that aren't cached in a single query.
+     */
+    public CompletionStage<Map<String,Visibility>> getVisibilities(Seq<String> persistenceIds) {
+        Map<String,Visibility> result = HashMap.empty();
+        Seq<String> missing = Vector.empty();
+        for (String persistenceId: persistenceIds.distinct()) {
+            Option<Visibility> cached = cache.get(persistenceId);
+            if (cached.isDefined()) {
+                result = result.put(persistenceId, cached.get());
+            } else {
+                missing = missing.append(persistenceId);
+            }
+        }
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(result);
+        }
+        
+        Map<String,Long> versions = HashMap.ofEntries(missing.map(persistenceId -> Tuple.of(persistenceId, cache.version(persistenceId))));
+        Map<String,Visibility> cached = result;
+        Seq<String> toRead = missing;
+        return getVisibilitiesStmt
+            .thenCompose(stmt -> session.selectAll(stmt.bind(toRead.toJavaList())))
+            .thenApply(rows -> {
+                Map<String,Visibility> read = HashMap.ofEntries(rows.map(row -> Tuple.of(row.getString("persistenceid"), toVisibility(row))));
+                Map<String,Visibility> all = cached;
+                for (String persistenceId: toRead) {
+                    Visibility v = read.get(persistenceId).getOrElse(Visibility.EMPTY);
+                    cache.put(persistenceId, v, versions.apply(persistenceId));
+                    all = all.put(persistenceId, v);
+                }
+                return all;
+            });
     }
 
     public CompletionStage<Done> makeVisibleTo(DataCenter target, String persistenceId) {
-        return addVisibilityStmt
-            .thenCompose(stmt -> session.executeWrite(stmt.bind(Collections.singleton(target.getName()), persistenceId)));
+        return update(Vector.of(VisibilityChange.makeVisibleTo(persistenceId, target.getName())));
     }
     
     public CompletionStage<Done> setMaster(String persistenceId, boolean master) {
-        return setMasterStmt
-            .thenCompose(stmt -> session.executeWrite(stmt.bind(master, persistenceId)));
+        return update(Vector.of(VisibilityChange.setMaster(persistenceId, master)));
+    }
+    
+    /**
+     * Writes the given changes. Changes for the same persistenceId are written together in an unlogged batch, since they
+     * go to the same partition. Changes for different persistenceIds are written concurrently.
+     */
+    public CompletionStage<Done> update(Seq<VisibilityChange> changes) {
+        if (changes.isEmpty()) {
+            return CompletableFuture.completedFuture(Done.getInstance());
+        }
+        return setMasterStmt.thenCombine(addVisibilityStmt, Tuple::of).thenCompose(stmts -> 
+            changes.groupBy(VisibilityChange::getPersistenceId).map(t -> {
+                String persistenceId = t._1;
+                Seq<VisibilityChange> forPersistenceId = t._2;
+                Seq<Statement> statements = forPersistenceId.map(c -> c.bind(stmts._1, stmts._2));
+                Statement stmt = (statements.size() == 1) ? statements.head() 
+                    : new BatchStatement(BatchStatement.Type.UNLOGGED).addAll(statements);
+                return session.executeWrite(stmt).thenApply(done -> {
+                    cache.update(persistenceId, v -> forPersistenceId.foldLeft(v, (vis, c) -> c.applyTo(vis)));
+                    return done;
+                });
+            }).<CompletionStage<Done>>foldLeft(CompletableFuture.completedFuture(Done.getInstance()), (all, write) ->
+                all.thenCombine(write, (a, b) -> Done.getInstance()))
+        );
+    }
+    
+    private static Visibility toVisibility(Row row) {
+        return new Visibility(HashSet.ofAll(row.getSet("datacenters", String.class)), row.getBool("master"));
     }
 }
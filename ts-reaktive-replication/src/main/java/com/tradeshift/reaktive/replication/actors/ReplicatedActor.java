@@ -1,6 +1,9 @@
 package com.tradeshift.reaktive.replication.actors;
 
+import static akka.pattern.PatternsCS.pipe;
+
 import java.io.Serializable;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.tradeshift.reaktive.actors.CommandHandler;
@@ -11,13 +14,19 @@ import com.tradeshift.reaktive.replication.EventClassifier;
 import com.tradeshift.reaktive.replication.Replication;
 import com.tradeshift.reaktive.replication.ReplicationId;
 
+import akka.actor.ActorRef;
 import akka.actor.Status.Failure;
 import akka.japi.pf.ReceiveBuilder;
 import akka.persistence.RecoveryCompleted;
 import akka.serialization.SerializationExtension;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
 import io.vavr.control.Option;
 import static io.vavr.control.Option.none;
 import static io.vavr.control.Option.some;
+import kamon.Kamon;
+import kamon.metric.Counter;
+import kamon.metric.Gauge;
 
 /**
  * An extension to {@link AbstractStatefulPersistentActor} which allows persistent actors to work across data centers and legal regions.
@@ -44,8 +53,28 @@ public abstract class ReplicatedActor<C,E,S extends AbstractState<E,S>> extends
      */
     public static final String DEFAULT_NOT_FOUND_MESSAGE = "actor_not_found";
 
+    private static final Gauge bufferedEvents = Kamon.gauge("replication.parking.buffered");
+    private static final Counter parkedEvents = Kamon.counter("replication.parking.parked");
+    private static final Counter unparkedEvents = Kamon.counter("replication.parking.unparked");
+
     private final Replication replication = ReplicationId.INSTANCE.get(context().system());
     private final Receive receiveRecover;
+    private final int reorderBufferSize = Math.max(1, context().system().settings().config().getInt("ts-reaktive.replication.parking.buffer-size"));
+    /** Events received ahead of their predecessors while in slave mode, by sequence number */
+    private final TreeMap<Long, Parked> reorderBuffer = new TreeMap<>();
+    /**
+     * Whether the parking store has been checked for the next event since anything was last parked there. Starts out
+     * as true, since most activations have nothing parked, and is only reset by the first envelope received.
+     */
+    private boolean parkingStoreChecked = true;
+    /** Whether this incarnation has received any envelope yet */
+    private boolean receivedEnvelope = false;
+    /** Number of loads from the parking store that have been started */
+    private long parkingStoreLoads = 0;
+    /** Whether the last load from the parking store was limited by the reorder buffer size */
+    private boolean moreParked = false;
+    /** Highest sequence number that has been moved to, or loaded from, the parking store */
+    private long highestParked = 0;
 
     public ReplicatedActor(Class<C> commandType, Class<E> eventType, CommandHandler<C, E, S> handler) {
         super(commandType, eventType, handler);
@@ -65,8 +94,10 @@ public abstract class ReplicatedActor<C,E,S extends AbstractState<E,S>> extends
                     } else {
                         getContext().become(justCreated());
                     }
+                } else if (slave.get().get()) {
+                    getContext().become(slave());
                 } else {
-                    getContext().become(slave.get().get() ? slave() : master());
+                    getContext().become(master());
                 }
                 if (invokeSuper.onMessage().isDefinedAt(msg)) {
                     invokeSuper.onMessage().apply(msg);
@@ -76,6 +107,21 @@ public abstract class ReplicatedActor<C,E,S extends AbstractState<E,S>> extends
             .orElse(invokeSuper);
     }
     
+    /**
+     * Replicated actors find out whether they're master or slave from their first event, so they don't save snapshots
+     * (which would hide that event during recovery).
+     */
+    @Override
+    protected int getSnapshotEveryEvents() {
+        return 0;
+    }
+
+    /** See {@link #getSnapshotEveryEvents()} */
+    @Override
+    protected java.time.Duration getSnapshotEveryTime() {
+        return java.time.Duration.ZERO;
+    }
+
     protected EventClassifier<E> classifier() {
         return replication.getEventClassifier(eventType);
     }
@@ -185,6 +231,8 @@ public abstract class ReplicatedActor<C,E,S extends AbstractState<E,S>> extends
             .match(Query.EventEnvelope.class, e -> {
                 receiveEnvelope(e);
             })
+            .match(Unparked.class, this::receiveUnparked)
+            .match(MovedToParkingStore.class, this::receiveMovedToParkingStore)
             .match(commandType, c -> !isReadOnly(c), c ->
                 sender().tell(new Failure(new IllegalStateException("Actor is in slave mode and does not accept non-readOnly command " + c)), self())
             )
@@ -193,26 +241,162 @@ public abstract class ReplicatedActor<C,E,S extends AbstractState<E,S>> extends
     }
     
     protected void receiveEnvelope(Query.EventEnvelope envelope) {
+        if (receivedEnvelope) {
+            receiveEnvelope(envelope, Vector.of(sender()), false);
+            return;
+        }
+        // An earlier incarnation may have parked events. They can only be persisted after the event before them, so
+        // rather than reading the parking store on every activation, we look there once replication traffic arrives.
+        receivedEnvelope = true;
+        parkingStoreChecked = false;
+        boolean next = envelope.getSequenceNr() == lastSequenceNr() + 1;
+        receiveEnvelope(envelope, Vector.of(sender()), false);
+        if (!next) {
+            // The parked events may already follow on from what we have, so we don't wait for a persist to look.
+            unpark();
+        }
+    }
+    
+    /**
+     * Persists the given envelope if it's the next one we expect, or parks it otherwise.
+     * @param replyTo Actors waiting for the envelope to be persisted
+     * @param fromStore Whether the envelope has been loaded from the parking store, and should be removed from there once persisted
+     */
+    private void receiveEnvelope(Query.EventEnvelope envelope, Seq<ActorRef> replyTo, boolean fromStore) {
         if (envelope.getSequenceNr() > lastSequenceNr() + 1) {
-            // TODO: park this in a cassandra table and piece it together later.
-            log.warning("Received sequence nr {}, but only at {} myself. Stashing and waiting for the rest.", envelope.getSequenceNr(), lastSequenceNr());
-            stash();
+            park(envelope, replyTo, fromStore);
         } else if (envelope.getSequenceNr() <= lastSequenceNr()) {
             log.warning("Received duplicate event {} while already at {}. Assuming idempotent.", envelope.getSequenceNr(), lastSequenceNr());
             // TODO actually check that the event is idempotent with what we already have in the journal
-            sender().tell(envelope.getTimestamp(), self());
+            replyTo.forEach(r -> r.tell(envelope.getTimestamp(), self()));
+            if (fromStore || mayBeParked(envelope)) {
+                removeFromParkingStore(envelope);
+            }
         } else if (!envelope.getPersistenceId().equals(persistenceId())) {
             throw new IllegalStateException("Received event envelope for a different actor: " + envelope.getPersistenceId());
         } else {
             log.debug("Saving event nr {}, I'm at {}", envelope.getSequenceNr(), lastSequenceNr());
             E event = SerializationExtension.get(context().system()).deserialize(envelope.getEvent().toByteArray(), eventType).get();
             persistEvent(event, e -> {
-                sender().tell(envelope.getTimestamp(), self());
-                unstashAll();
+                replyTo.forEach(r -> r.tell(envelope.getTimestamp(), self()));
+                if (fromStore || mayBeParked(envelope)) {
+                    removeFromParkingStore(envelope);
+                }
+                if (fromStore && moreParked) {
+                    parkingStoreChecked = false;
+                }
+                unpark();
             });
         }
     }
     
+    /**
+     * Keeps an envelope that arrived ahead of earlier ones in the reorder buffer. If the buffer is full, the envelope
+     * with the highest sequence number moves to the parking store instead.
+     */
+    private void park(Query.EventEnvelope envelope, Seq<ActorRef> replyTo, boolean fromStore) {
+        long sequenceNr = envelope.getSequenceNr();
+        Parked existing = reorderBuffer.get(sequenceNr);
+        if (existing != null) {
+            log.debug("Received event nr {} again while it's waiting in the reorder buffer", sequenceNr);
+            reorderBuffer.put(sequenceNr, new Parked(existing.envelope, existing.replyTo.appendAll(replyTo), existing.fromStore || fromStore));
+        } else if (reorderBuffer.size() < reorderBufferSize) {
+            log.debug("Received sequence nr {}, but only at {} myself. Waiting for the rest.", sequenceNr, lastSequenceNr());
+            reorderBuffer.put(sequenceNr, new Parked(envelope, replyTo, fromStore));
+            bufferedEvents.increment();
+        } else if (sequenceNr < reorderBuffer.lastKey()) {
+            Parked highest = reorderBuffer.pollLastEntry().getValue();
+            reorderBuffer.put(sequenceNr, new Parked(envelope, replyTo, fromStore));
+            moveToParkingStore(highest.envelope, highest.replyTo, highest.fromStore);
+        } else {
+            moveToParkingStore(envelope, replyTo, fromStore);
+        }
+    }
+    
+    private void moveToParkingStore(Query.EventEnvelope envelope, Seq<ActorRef> replyTo, boolean fromStore) {
+        if (fromStore) {
+            parkingStoreChecked = false;
+            return; // still in there, we'll load it again once we get to it.
+        }
+        log.warning("Reorder buffer full, parking sequence nr {} while at {}.", envelope.getSequenceNr(), lastSequenceNr());
+        highestParked = Math.max(highestParked, envelope.getSequenceNr());
+        long loads = parkingStoreLoads;
+        pipe(replication.getParkingStore().park(envelope).handle((done, failure) ->
+            new MovedToParkingStore(envelope, replyTo, loads, Option.of(failure))
+        ), context().dispatcher()).to(self());
+    }
+    
+    /**
+     * Acknowledges an envelope once it's in the parking store. Only then can a load from the parking store see it, so
+     * a load that was started in the mean time might have missed it, and is repeated.
+     */
+    private void receiveMovedToParkingStore(MovedToParkingStore msg) {
+        if (msg.failure.isDefined()) {
+            msg.replyTo.forEach(r -> r.tell(new Failure(msg.failure.get()), self()));
+            return;
+        }
+        parkedEvents.increment();
+        msg.replyTo.forEach(r -> r.tell(msg.envelope.getTimestamp(), self()));
+        parkingStoreChecked = false;
+        if (parkingStoreLoads != msg.loadsBefore) {
+            unpark();
+        }
+    }
+    
+    /**
+     * Returns whether a copy of the given envelope might be in the parking store, even though this copy was
+     * received live, e.g. because the remote data center re-sent an event that we had already parked.
+     */
+    private boolean mayBeParked(Query.EventEnvelope envelope) {
+        return envelope.getSequenceNr() <= highestParked;
+    }
+    
+    private void removeFromParkingStore(Query.EventEnvelope envelope) {
+        replication.getParkingStore().remove(envelope.getPersistenceId(), envelope.getSequenceNr()).thenRun(unparkedEvents::increment);
+    }
+    
+    /**
+     * Persists the next envelope if it is waiting in the reorder buffer, or looks for it in the parking store. 
+     */
+    private void unpark() {
+        while (!reorderBuffer.isEmpty() && reorderBuffer.firstKey() <= lastSequenceNr()) {
+            Parked duplicate = reorderBuffer.pollFirstEntry().getValue();
+            bufferedEvents.decrement();
+            receiveEnvelope(duplicate.envelope, duplicate.replyTo, duplicate.fromStore);
+        }
+        if (!reorderBuffer.isEmpty() && reorderBuffer.firstKey() == lastSequenceNr() + 1) {
+            Parked next = reorderBuffer.pollFirstEntry().getValue();
+            bufferedEvents.decrement();
+            receiveEnvelope(next.envelope, next.replyTo, next.fromStore);
+        } else if (!parkingStoreChecked) {
+            parkingStoreChecked = true;
+            parkingStoreLoads++;
+            pipe(replication.getParkingStore().load(persistenceId(), lastSequenceNr() + 1, reorderBufferSize).handle((envelopes, failure) -> {
+                if (failure != null) {
+                    log.error(failure, "Could not load parked events for {}", persistenceId());
+                    return new Unparked(Vector.empty());
+                }
+                return new Unparked(envelopes);
+            }), context().dispatcher()).to(self());
+        }
+    }
+    
+    private void receiveUnparked(Unparked msg) {
+        moreParked = msg.envelopes.size() >= reorderBufferSize;
+        for (Query.EventEnvelope envelope: msg.envelopes) {
+            highestParked = Math.max(highestParked, envelope.getSequenceNr());
+            park(envelope, Vector.empty(), true);
+        }
+        unpark();
+    }
+    
+    @Override
+    public void postStop() {
+        // Anything still in the reorder buffer is lost, and will be re-sent by the remote data center after its asks time out.
+        bufferedEvents.decrement(reorderBuffer.size());
+        super.postStop();
+    }
+    
     @Override
     protected void validateFirstEvent(E e) {
         if (!includesLocalDataCenter(e)) {
@@ -236,6 +420,44 @@ public abstract class ReplicatedActor<C,E,S extends AbstractState<E,S>> extends
      */
     protected abstract boolean isReadOnly(C command);
     
+    /** An envelope waiting in the reorder buffer, with the actors waiting for it to be persisted */
+    private static final class Parked {
+        private final Query.EventEnvelope envelope;
+        private final Seq<ActorRef> replyTo;
+        private final boolean fromStore;
+
+        public Parked(Query.EventEnvelope envelope, Seq<ActorRef> replyTo, boolean fromStore) {
+            this.envelope = envelope;
+            this.replyTo = replyTo;
+            this.fromStore = fromStore;
+        }
+    }
+
+    /** Sent to self with the events that were loaded from the parking store */
+    private static final class Unparked {
+        private final Seq<Query.EventEnvelope> envelopes;
+
+        public Unparked(Seq<Query.EventEnvelope> envelopes) {
+            this.envelopes = envelopes;
+        }
+    }
+
+    /** Sent to self when an envelope has been written to the parking store (or failed to) */
+    private static final class MovedToParkingStore {
+        private final Query.EventEnvelope envelope;
+        private final Seq<ActorRef> replyTo;
+        /** The number of parking store loads that had been started when the envelope was sent to the parking store */
+        private final long loadsBefore;
+        private final Option<Throwable> failure;
+
+        public MovedToParkingStore(Query.EventEnvelope envelope, Seq<ActorRef> replyTo, long loadsBefore, Option<Throwable> failure) {
+            this.envelope = envelope;
+            this.replyTo = replyTo;
+            this.loadsBefore = loadsBefore;
+            this.failure = failure;
+        }
+    }
+
     private static final class Migrate implements Serializable {
         private static final long serialVersionUID = 1L;
         private static final Migrate INSTANCE = new Migrate();
@@ -0,0 +1,54 @@
+package com.tradeshift.reaktive.replication.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+
+/**
+ * Compresses and decompresses web socket messages for the {@link WebSocketDataCenterServer#BATCHED_DEFLATE_PROTOCOL}
+ * sub-protocol. Each message is compressed on its own, in the zlib format.
+ */
+public class Deflate {
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Compresses the given bytes with the given deflate level (1-9).
+     */
+    public static ByteString deflate(ByteString bytes, int level) throws IOException {
+        Deflater deflater = new Deflater(level);
+        try {
+            ByteStringBuilder out = new ByteStringBuilder();
+            try (DeflaterOutputStream s = new DeflaterOutputStream(out.asOutputStream(), deflater, BUFFER_SIZE)) {
+                s.write(bytes.toArray());
+            }
+            return out.result();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses bytes that were compressed by {@link #deflate}.
+     * @param maxSize Maximum size of the decompressed bytes, since a small message can inflate to a very large one.
+     * @throws IOException if the bytes are not valid, or would decompress to more than [maxSize] bytes
+     */
+    public static ByteString inflate(ByteString bytes, int maxSize) throws IOException {
+        ByteStringBuilder out = new ByteStringBuilder();
+        byte[] buf = new byte[BUFFER_SIZE];
+        try (InputStream in = new InflaterInputStream(bytes.iterator().asInputStream())) {
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                if (out.length() + read > maxSize) {
+                    throw new IOException("Inflated message exceeds maximum size of " + maxSize + " bytes");
+                }
+                out.putBytes(buf, 0, read);
+            }
+        }
+        return out.result();
+    }
+}
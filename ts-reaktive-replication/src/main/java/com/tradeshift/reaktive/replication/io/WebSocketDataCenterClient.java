@@ -1,6 +1,15 @@
 package com.tradeshift.reaktive.replication.io;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 
 import org.slf4j.Logger;
@@ -10,20 +19,50 @@ import com.tradeshift.reaktive.protobuf.ReplicationMessages.EventsPersisted;
 import com.tradeshift.reaktive.akka.rest.EventMarshallers;
 import com.tradeshift.reaktive.protobuf.Query;
 import com.tradeshift.reaktive.replication.DataCenter;
+import com.tradeshift.reaktive.replication.ReplicationMetrics;
+import com.typesafe.config.Config;
 
+import akka.NotUsed;
 import akka.actor.ActorSystem;
 import akka.http.javadsl.ConnectionContext;
 import akka.http.javadsl.Http;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.Uri;
 import akka.http.javadsl.model.ws.BinaryMessage;
 import akka.http.javadsl.model.ws.Message;
 import akka.http.javadsl.model.ws.WebSocketRequest;
+import akka.http.javadsl.model.ws.WebSocketUpgradeResponse;
 import akka.http.javadsl.settings.ClientConnectionSettings;
+import akka.japi.pf.PFBuilder;
 import akka.persistence.query.EventEnvelope;
+import akka.stream.FanInShape2;
+import akka.stream.FlowShape;
+import akka.stream.Graph;
+import akka.stream.SourceShape;
 import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.GraphDSL;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.ZipWith;
 import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
 
 /**
  * A client that can stream events into a datacenter that has exposed its event receiving API using WebSocketDataCenterServer.
+ * 
+ * If the server accepts the {@link WebSocketDataCenterServer#BATCHED_PROTOCOL} sub-protocol, events are sent in batches of
+ * delimited messages. If compression is configured, {@link WebSocketDataCenterServer#BATCHED_DEFLATE_PROTOCOL} is preferred,
+ * which compresses each batch. If the server accepts neither, each event is sent in its own web socket message.
+ * 
+ * Akka HTTP can only request a single sub-protocol per connection, so the sub-protocols are offered in order of preference,
+ * one connection at a time: when a server upgrades a connection without accepting the requested sub-protocol, that
+ * connection completes without acknowledging anything, and the next connection requests the next sub-protocol (or none).
+ * Once a connection that uses a less preferred sub-protocol closes, the next connection offers the preferred one again,
+ * so the client picks up a server that has been upgraded in the mean time.
  */
 public class WebSocketDataCenterClient implements DataCenter {
     private static final Logger log = LoggerFactory.getLogger(WebSocketDataCenterClient.class);
@@ -32,20 +71,63 @@ public class WebSocketDataCenterClient implements DataCenter {
     private final String uri;
     private final ConnectionContext connectionContext;
     private final String name;
+    private final int maxBatchSize;
+    private final Duration maxBatchDelay;
+    private final Option<Integer> deflateLevel;
+    private final ReplicationMetrics metrics;
+    /** The sub-protocols that we'd like the server to accept, in order of preference */
+    private final Seq<String> preferred;
+    /** The sub-protocols that the server might still accept, in order of preference */
+    private final AtomicReference<Seq<String>> protocols;
     private Function<EventEnvelope, Query.EventEnvelope> serializer;
     
     /**
-     * Creates a new WebSocketDataCenterClient
+     * Creates a new WebSocketDataCenterClient, with batch and compression settings from ts-reaktive.replication.client
      * @param name Name of the remote data center
      * @param connectionContext Connection context to apply. Any SSL client certificate should be configured here.
      * @param uri Target URL that the remote datacenter server is listening on ("wss://host:port/events/eventType")
      */
     public WebSocketDataCenterClient(ActorSystem system, ConnectionContext connectionContext, String name, String uri) {
+        this(system, connectionContext, name, tagOf(uri), uri, system.settings().config().getConfig("ts-reaktive.replication.client"));
+    }
+    
+    /**
+     * Creates a new WebSocketDataCenterClient
+     * @param name Name of the remote data center
+     * @param tag Tag of the events that are sent, for metrics
+     * @param connectionContext Connection context to apply. Any SSL client certificate should be configured here.
+     * @param uri Target URL that the remote datacenter server is listening on ("wss://host:port/events/eventType")
+     * @param config Batch and compression settings, in the format of ts-reaktive.replication.client
+     */
+    public WebSocketDataCenterClient(ActorSystem system, ConnectionContext connectionContext, String name, String tag, String uri, Config config) {
         this.system = system;
         this.connectionContext = connectionContext;
         this.name = name;
         this.uri = uri;
         this.serializer = EventMarshallers.getAkkaSerializer(system);
+        this.maxBatchSize = config.getInt("max-batch-size");
+        this.maxBatchDelay = config.getDuration("max-batch-delay");
+        String compression = config.getString("compression");
+        if (compression.equals("deflate")) {
+            this.deflateLevel = Option.some(config.getInt("compression-level"));
+        } else if (compression.equals("none")) {
+            this.deflateLevel = Option.none();
+        } else {
+            throw new IllegalArgumentException("Unsupported compression, expecting \"deflate\" or \"none\": " + compression);
+        }
+        this.preferred = (maxBatchSize <= 1) ? Vector.empty()
+            : deflateLevel.isDefined() ? Vector.of(WebSocketDataCenterServer.BATCHED_DEFLATE_PROTOCOL, WebSocketDataCenterServer.BATCHED_PROTOCOL)
+            : Vector.of(WebSocketDataCenterServer.BATCHED_PROTOCOL);
+        this.protocols = new AtomicReference<>(preferred);
+        this.metrics = new ReplicationMetrics(name, tag);
+    }
+    
+    /**
+     * Returns the tag from a URI in the form "wss://host:port/events/eventType", ignoring any trailing slash or query.
+     */
+    private static String tagOf(String uri) {
+        String path = Uri.create(uri).path().replaceAll("/+$", "");
+        return path.substring(path.lastIndexOf('/') + 1);
     }
 
     @Override
@@ -53,23 +135,143 @@ public class WebSocketDataCenterClient implements DataCenter {
         return name;
     }
     
+    /**
+     * Returns a flow that uploads events over a new web socket connection. Each returned flow must only be materialized once.
+     */
     @Override
     public Flow<EventEnvelope,Long,?> uploadFlow() {
         ClientConnectionSettings settings = ClientConnectionSettings.create(system.settings().config());
+        // The offset of the last event of each message that hasn't been acknowledged yet, and when it was sent
+        ConcurrentLinkedQueue<Tuple2<Long,Long>> unacknowledged = new ConcurrentLinkedQueue<>();
+        
+        Seq<String> offered = protocols.get();
+        if (offered.isEmpty()) {
+            return reofferPreferredAfter(offered, Flow.<EventEnvelope>create()
+                .map(e -> {
+                    ByteString bytes = serialize(e);
+                    metrics.getBytesSent().increment(bytes.size());
+                    unacknowledged.add(Tuple.of(EventMarshallers.getOffsetAsEpoch(e), System.nanoTime()));
+                    return (Message) BinaryMessage.create(bytes);
+                })
+                .via(Http.get(system).webSocketClientFlow(WebSocketRequest.create(uri), connectionContext, Optional.empty(), settings, system.log()))
+                .map(this::parseEventsPersisted)
+                .filter(l -> l > 0)
+                .map(offset -> recordAckLatency(unacknowledged, offset)));
+        }
         
-        return Flow.<EventEnvelope>create()
-            .map(e -> (Message) BinaryMessage.create(serialize(e)))
-            .via(Http.get(system).webSocketClientFlow(WebSocketRequest.create(uri), connectionContext, Optional.empty(), settings, system.log()))
-            .map(msg -> {
-                if (msg.isText()) {
-                    log.warn("Ignoring unexpected text-type WS message {}", msg);
-                    return 0l;
-                } else {
-                    EventsPersisted applied = EventsPersisted.parseFrom(
-                        msg.asBinaryMessage().getStrictData().iterator().asInputStream());
-                    return applied.hasOffset() ? applied.getOffset() : 0l;
-                }})
-            .filter(l -> l > 0);
+        AtomicBoolean rejected = new AtomicBoolean(false);
+        Flow<Message,Message,CompletionStage<WebSocketUpgradeResponse>> webSocket = Http.get(system).webSocketClientFlow(
+            WebSocketRequest.create(uri).requestSubprotocol(offered.head()),
+            connectionContext, Optional.empty(), settings, system.log()
+        ).mapMaterializedValue(upgrade -> upgrade.thenApply(response -> {
+            if (!response.isValid() && response.response().status().equals(StatusCodes.SWITCHING_PROTOCOLS)) {
+                // This is expected from servers that don't know the sub-protocol yet, so this connection completes
+                // rather than fails, and the next connection offers the next sub-protocol.
+                log.info("{} did not accept sub-protocol {}, offering {} on the next connection.",
+                    uri, offered.head(), offered.tail().headOption().getOrElse("none"));
+                rejected.set(true);
+                protocols.compareAndSet(offered, offered.tail());
+            }
+            return response;
+        }));
+        
+        return reofferPreferredAfter(offered, Flow.<EventEnvelope>create()
+            .groupedWithin(maxBatchSize, maxBatchDelay)
+            .map(events -> {
+                unacknowledged.add(Tuple.of(EventMarshallers.getOffsetAsEpoch(events.get(events.size() - 1)), System.nanoTime()));
+                return events;
+            })
+            .via(Flow.fromGraph(GraphDSL.create(webSocket, (b, socket) -> {
+                // We can only encode events once we know whether the server has accepted our sub-protocol.
+                FanInShape2<List<EventEnvelope>, String, List<Message>> encode = b.add(ZipWith.<List<EventEnvelope>, String, List<Message>>create(this::encode));
+                FlowShape<CompletionStage<WebSocketUpgradeResponse>, String> chosen = b.add(
+                    Flow.<CompletionStage<WebSocketUpgradeResponse>>create()
+                        .mapAsync(1, response -> response)
+                        .map(response -> response.chosenSubprotocol().orElse(""))
+                        .flatMapConcat(Source::repeat));
+                FlowShape<List<Message>, Message> flatten = b.add(Flow.<List<Message>>create().mapConcat(list -> list));
+                
+                b.from(b.materializedValue()).via(chosen).toInlet(encode.in1());
+                b.from(encode.out()).via(flatten).toInlet(socket.in());
+                return FlowShape.of(encode.in0(), socket.out());
+            })))
+            // The upgrade has completed with the rejection before the web socket flow fails on it.
+            .recoverWithRetries(1, new PFBuilder<Throwable, Graph<SourceShape<Message>, NotUsed>>()
+                .match(Throwable.class, x -> rejected.get(), x -> Source.empty())
+                .build())
+            .map(this::parseEventsPersisted)
+            .filter(l -> l > 0)
+            .map(offset -> recordAckLatency(unacknowledged, offset)));
+    }
+    
+    /**
+     * Has the client offer its preferred sub-protocol again once the given flow, which was offered a less preferred
+     * sub-protocol, terminates. Unless another connection has changed the sub-protocols to offer in the mean time.
+     */
+    private Flow<EventEnvelope,Long,NotUsed> reofferPreferredAfter(Seq<String> offered, Flow<EventEnvelope,Long,NotUsed> flow) {
+        if (offered.equals(preferred)) {
+            return flow;
+        }
+        return flow.watchTermination((notUsed, done) -> {
+            done.whenComplete((d, x) -> {
+                if (protocols.compareAndSet(offered, preferred)) {
+                    log.info("Connection to {} using sub-protocol {} has closed, offering {} again on the next connection.",
+                        uri, offered.headOption().getOrElse("none"), preferred.head());
+                }
+            });
+            return notUsed;
+        });
+    }
+    
+    /**
+     * Records the time it took to acknowledge the messages up to [offset], and removes them from [unacknowledged].
+     */
+    private long recordAckLatency(ConcurrentLinkedQueue<Tuple2<Long,Long>> unacknowledged, long offset) {
+        Tuple2<Long,Long> acked = null;
+        while (!unacknowledged.isEmpty() && unacknowledged.peek()._1 <= offset) {
+            acked = unacknowledged.poll();
+        }
+        if (acked != null) {
+            metrics.getAckLatency().record((System.nanoTime() - acked._2) / 1000000);
+        }
+        return offset;
+    }
+    
+    private long parseEventsPersisted(Message msg) throws IOException {
+        if (msg.isText()) {
+            log.warn("Ignoring unexpected text-type WS message {}", msg);
+            return 0l;
+        } else {
+            EventsPersisted applied = EventsPersisted.parseFrom(
+                msg.asBinaryMessage().getStrictData().iterator().asInputStream());
+            return applied.hasOffset() ? applied.getOffset() : 0l;
+        }
+    }
+    
+    /**
+     * Encodes the given events into a single web socket message if the server has accepted one of our batched sub-protocols,
+     * or one message per event otherwise.
+     */
+    private List<Message> encode(List<EventEnvelope> events, String protocol) throws IOException {
+        boolean deflate = protocol.equals(WebSocketDataCenterServer.BATCHED_DEFLATE_PROTOCOL);
+        if (deflate || protocol.equals(WebSocketDataCenterServer.BATCHED_PROTOCOL)) {
+            ByteStringBuilder bytes = new ByteStringBuilder();
+            for (EventEnvelope e: events) {
+                serializer.apply(e).writeDelimitedTo(bytes.asOutputStream());
+            }
+            ByteString batch = bytes.result();
+            ByteString message = deflate ? Deflate.deflate(batch, deflateLevel.get()) : batch;
+            metrics.getBytesSent().increment(message.size());
+            return Collections.singletonList(BinaryMessage.create(message));
+        } else {
+            List<Message> messages = new ArrayList<>(events.size());
+            for (EventEnvelope e: events) {
+                ByteString message = serialize(e);
+                metrics.getBytesSent().increment(message.size());
+                messages.add(BinaryMessage.create(message));
+            }
+            return messages;
+        }
     }
 
     protected ByteString serialize(EventEnvelope e) {
@@ -1,25 +1,31 @@
 package com.tradeshift.reaktive.replication.io;
 
 import static akka.http.javadsl.server.Directives.handleWebSocketMessages;
+import static akka.http.javadsl.server.Directives.handleWebSocketMessagesForProtocol;
 import static akka.http.javadsl.server.Directives.path;
 import static akka.http.javadsl.server.Directives.pathPrefix;
 import static akka.http.javadsl.server.Directives.route;
-import static akka.pattern.PatternsCS.ask;
 
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.tradeshift.reaktive.akka.SharedActorMaterializer;
+import com.tradeshift.reaktive.protobuf.DelimitedProtobufFraming;
 import com.tradeshift.reaktive.protobuf.Query;
 import com.tradeshift.reaktive.protobuf.ReplicationMessages.EventsPersisted;
 import com.tradeshift.reaktive.ssl.SSLFactory;
 import com.typesafe.config.Config;
 
+import akka.NotUsed;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.http.javadsl.ConnectHttp;
@@ -31,39 +37,90 @@ import akka.http.javadsl.UseHttp2;
 import akka.http.javadsl.model.ws.BinaryMessage;
 import akka.http.javadsl.model.ws.Message;
 import akka.http.javadsl.server.Route;
+import akka.japi.function.Function;
+import akka.pattern.PatternsCS;
 import akka.stream.ActorMaterializer;
 import akka.stream.TLSClientAuth;
 import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Source;
 import akka.util.ByteString;
 import akka.util.Timeout;
 import io.vavr.collection.Map;
 import io.vavr.control.Option;
+import kamon.Kamon;
+import kamon.metric.Counter;
+import kamon.metric.Gauge;
+import kamon.metric.Histogram;
+import kamon.metric.MeasurementUnit;
 
 /**
  * Server that allows a data center to receive incoming web socket connections from a {@link WebSocketDataCenterClient}, in order
  * to receive incoming replicated events.
+ * 
+ * Clients that request the {@link #BATCHED_PROTOCOL} web socket sub-protocol send one or more length-delimited events in each
+ * web socket message, and receive one acknowledgement per message. The {@link #BATCHED_DEFLATE_PROTOCOL} sub-protocol additionally
+ * compresses each message. Other clients send (and have acknowledged) one event per message.
+ * 
+ * By default, events are sent to their shard region in the order they arrive, with up to max-in-flight of them awaiting
+ * a reply. With ingestion = "per-persistence-id", events for different persistenceIds are sent concurrently, while
+ * events for the same persistenceId wait for each other, so a slow aggregate holds up the others only once max-in-flight
+ * events are waiting behind it. Either way, acknowledgements are only sent for batches of which all events, and all
+ * events before them, have been persisted.
  */
 public class WebSocketDataCenterServer {
+    /**
+     * Web socket sub-protocol for sending batches of delimited EventEnvelope messages in each web socket message
+     */
+    public static final String BATCHED_PROTOCOL = "ts-reaktive-replication-batched";
+    
+    /**
+     * Web socket sub-protocol like {@link #BATCHED_PROTOCOL}, but with each web socket message compressed by {@link Deflate}
+     */
+    public static final String BATCHED_DEFLATE_PROTOCOL = "ts-reaktive-replication-batched-deflate";
+    
     private static final Logger log = LoggerFactory.getLogger(WebSocketDataCenterServer.class);
     
     private final Duration timeout;
     private final int maxInFlight;
+    private final int maxMessageSize;
+    private final boolean perPersistenceId;
+    /** The last pending event for each persistenceId, when ingesting per persistenceId */
+    private final ConcurrentHashMap<String, CompletionStage<Object>> lanes = new ConcurrentHashMap<>();
 
     private CompletionStage<ServerBinding> binding;
     
     /**
-     * Creates the web socket server and binds to the port, according to [config].
+     * Creates the web socket server and binds to the port, according to ts-reaktive.replication.server
      */
     public WebSocketDataCenterServer(ActorSystem system, Map<String,ActorRef> tagsAndShardRegions) {
-        Config config = system.settings().config().getConfig("ts-reaktive.replication.server");
+        this(system, tagsAndShardRegions, system.settings().config().getConfig("ts-reaktive.replication.server"));
+    }
+    
+    /**
+     * Creates the web socket server and binds to the port, according to [config].
+     * @param config Server settings, in the format of ts-reaktive.replication.server
+     */
+    public WebSocketDataCenterServer(ActorSystem system, Map<String,ActorRef> tagsAndShardRegions, Config config) {
         ActorMaterializer materializer = SharedActorMaterializer.get(system);
         this.timeout = config.getDuration("timeout");
         this.maxInFlight = config.getInt("max-in-flight");
+        this.maxMessageSize = config.getBytes("max-message-size").intValue();
+        String ingestion = config.getString("ingestion");
+        if (ingestion.equals("per-persistence-id")) {
+            this.perPersistenceId = true;
+        } else if (ingestion.equals("ordered")) {
+            this.perPersistenceId = false;
+        } else {
+            throw new IllegalArgumentException("Unsupported ingestion, expecting \"per-persistence-id\" or \"ordered\": " + ingestion);
+        }
         Route route = pathPrefix("events", () -> route(
             tagsAndShardRegions.map(t ->
-                path(t._1, () ->
-                    handleWebSocketMessages(flow(t._2))
-                )
+                path(t._1, () -> route(
+                    // Clients that offer both get the compressed protocol
+                    handleWebSocketMessagesForProtocol(batchedFlow(t._1, t._2, true), BATCHED_DEFLATE_PROTOCOL),
+                    handleWebSocketMessagesForProtocol(batchedFlow(t._1, t._2, false), BATCHED_PROTOCOL),
+                    handleWebSocketMessages(flow(t._1, t._2))
+                ))
             ).toJavaArray(Route.class)
         ));
         ConnectHttp httpOpts = SSLFactory.createSSLContext(config).map(sslContext ->
@@ -84,7 +141,7 @@ public class WebSocketDataCenterServer {
         return binding;
     }
 
-    private Flow<Message,Message,?> flow(ActorRef shardRegion) {
+    private Flow<Message,Message,?> flow(String tag, ActorRef shardRegion) {
         return Flow.<Message>create()
             .map(msg -> {
                 if (msg.isText()) {
@@ -95,9 +152,136 @@ public class WebSocketDataCenterServer {
                 }
             })
             .filter(o -> o.isDefined())
-            .map(o -> o.get())
-            .mapAsync(maxInFlight, e -> ask(shardRegion, e, timeout))
-            .map(resp -> (Long) resp)
-            .map(l -> BinaryMessage.create(ByteString.fromArray(EventsPersisted.newBuilder().setOffset(l).build().toByteArray())));
+            // Each event is a batch of its own, so it's acknowledged on its own.
+            .mapConcat(o -> Arrays.asList(o, Option.<Query.EventEnvelope>none()))
+            .via(ingest(shardRegion, new Metrics(tag)));
+    }
+    
+    /**
+     * Returns a flow that receives messages with one or more delimited events each, and acknowledges each message
+     * with the offset of its last event, once all of its events have been persisted.
+     * @param deflated Whether each message has been compressed using {@link Deflate}
+     */
+    private Flow<Message,Message,?> batchedFlow(String tag, ActorRef shardRegion, boolean deflated) {
+        return Flow.<Message>create()
+            .filter(msg -> {
+                if (msg.isText()) {
+                    log.warn("Ignoring unexpected text-kind web socket message {}", msg);
+                    return false;
+                } else {
+                    return true;
+                }
+            })
+            .flatMapConcat(msg -> (deflated
+                    // The whole message is needed to inflate it, so both it and its inflated form are bounded in size.
+                    ? msg.asBinaryMessage().getStreamedData()
+                        .limitWeighted(maxMessageSize, bytes -> (long) bytes.size())
+                        .fold(ByteString.empty(), ByteString::concat)
+                        .map(bytes -> Deflate.inflate(bytes, maxMessageSize))
+                    : msg.asBinaryMessage().getStreamedData())
+                .via(DelimitedProtobufFraming.instance)
+                .map(bytes -> Option.some(Query.EventEnvelope.parseFrom(bytes.iterator().asInputStream())))
+                .concat(Source.single(Option.<Query.EventEnvelope>none()))
+            )
+            .via(ingest(shardRegion, new Metrics(tag)));
+    }
+    
+    /**
+     * Returns a flow that sends events to the shard region, and emits an acknowledgement at the end of each batch
+     * (marked by none()), once all events up to that point have been persisted. 
+     */
+    private Flow<Option<Query.EventEnvelope>,Message,NotUsed> ingest(ActorRef shardRegion, Metrics metrics) {
+        return Flow.<Option<Query.EventEnvelope>>create()
+            // When ingesting per persistenceId, events in other lanes proceed while an earlier event is pending. Either
+            // way, mapAsync emits in upstream order, and bounds the events that are pending, or persisted but waiting
+            // for an earlier one, to max-in-flight.
+            .mapAsync(maxInFlight, o -> o.isDefined()
+                ? (perPersistenceId ? askInLane(shardRegion, o.get(), metrics) : ask(shardRegion, o.get(), metrics))
+                    .thenApply(resp -> Option.some((Long) resp))
+                : CompletableFuture.completedFuture(Option.<Long>none())
+            )
+            // At the end of a batch, all of its events (and all events before them) have been persisted.
+            .statefulMapConcat(WebSocketDataCenterServer::acknowledgeBatches);
+    }
+    
+    /**
+     * Sends the event to the shard region once all earlier events for the same persistenceId have been handled,
+     * so events for one persistenceId stay in order while other persistenceIds can proceed.
+     */
+    private CompletionStage<Object> askInLane(ActorRef shardRegion, Query.EventEnvelope e, Metrics metrics) {
+        String persistenceId = e.getPersistenceId();
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        CompletionStage<Object> previous = lanes.put(persistenceId, result);
+        Runnable send = () -> ask(shardRegion, e, metrics).whenComplete((resp, failure) -> {
+            lanes.remove(persistenceId, result);
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(resp);
+            }
+        });
+        if (previous == null) {
+            send.run();
+        } else {
+            previous.whenComplete((resp, failure) -> send.run());
+        }
+        return result;
+    }
+    
+    /**
+     * Sends the event to the shard region, recording its metrics.
+     */
+    private CompletionStage<Object> ask(ActorRef shardRegion, Query.EventEnvelope e, Metrics metrics) {
+        long start = System.nanoTime();
+        metrics.inFlight.increment();
+        return PatternsCS.ask(shardRegion, e, timeout).whenComplete((resp, failure) -> {
+            metrics.inFlight.decrement();
+            metrics.askDuration.record((System.nanoTime() - start) / 1000000);
+            if (failure == null) {
+                metrics.eventsPersisted.increment();
+            }
+        });
+    }
+    
+    /**
+     * Returns a function that takes the result for each event (or none() for the end of a batch), emitting the
+     * highest persisted offset at the end of each batch. 
+     */
+    private static Function<Option<Long>, Iterable<Message>> acknowledgeBatches() {
+        long[] highest = { 0 };
+        return o -> {
+            if (o.isDefined()) {
+                highest[0] = Math.max(highest[0], o.get());
+                return Collections.emptyList();
+            } else if (highest[0] > 0) {
+                Message ack = eventsPersisted(highest[0]);
+                highest[0] = 0;
+                return Collections.singletonList(ack);
+            } else {
+                return Collections.emptyList();
+            }
+        };
+    }
+    
+    private static Message eventsPersisted(long offset) {
+        return BinaryMessage.create(ByteString.fromArray(EventsPersisted.newBuilder().setOffset(offset).build().toByteArray()));
+    }
+    
+    /**
+     * Metrics for incoming events with one tag, across all connections
+     */
+    private static class Metrics {
+        /** The number of events that have been persisted by their shard region */
+        private final Counter eventsPersisted;
+        /** The time, in milliseconds, that the shard region took to reply to each event */
+        private final Histogram askDuration;
+        /** The number of events that have been sent to the shard region, but not replied to yet */
+        private final Gauge inFlight;
+        
+        public Metrics(String tag) {
+            this.eventsPersisted = Kamon.counter("replication.server.events-persisted").refine("tag", tag);
+            this.askDuration = Kamon.histogram("replication.server.ask-duration", MeasurementUnit.time().milliseconds()).refine("tag", tag);
+            this.inFlight = Kamon.gauge("replication.server.in-flight").refine("tag", tag);
+        }
     }
 }
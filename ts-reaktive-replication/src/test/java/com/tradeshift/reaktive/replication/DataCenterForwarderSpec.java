@@ -14,6 +14,7 @@ import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.any;
 
 import java.util.Arrays;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
@@ -33,8 +34,8 @@ import akka.persistence.query.javadsl.EventsByTagQuery;
 import akka.stream.javadsl.Flow;
 import akka.stream.javadsl.Source;
 import io.vavr.collection.HashMap;
-import io.vavr.collection.HashSet;
 import io.vavr.collection.Map;
+import io.vavr.collection.Seq;
 
 public class DataCenterForwarderSpec extends SharedActorSystemSpec {
     private static final CompletableFuture<Done> DONE = completedFuture(Done.getInstance());
@@ -62,6 +63,22 @@ public class DataCenterForwarderSpec extends SharedActorSystemSpec {
         }
     }
     
+    /**
+     * Has the mocked repository read [visibility] for "doc1", and apply and remember any changes that are written.
+     */
+    @SuppressWarnings("unchecked")
+    private void mockVisibility(VisibilityRepository visibilityRepo, AtomicReference<Visibility> visibility, Queue<VisibilityChange> changes) {
+        doAnswer(i -> completedFuture(HashMap.of("doc1", visibility.get()))).when(visibilityRepo).getVisibilities(any());
+        doAnswer(i -> {
+            Seq<VisibilityChange> written = i.getArgumentAt(0, Seq.class);
+            for (VisibilityChange change: written) {
+                visibility.updateAndGet(change::applyTo);
+                changes.add(change);
+            }
+            return DONE;
+        }).when(visibilityRepo).update(any());
+    }
+    
     private TestEvent event(String msg) {
         return TestEvent.newBuilder().setMsg(msg).build();
     }
@@ -77,21 +94,7 @@ public class DataCenterForwarderSpec extends SharedActorSystemSpec {
             
             VisibilityRepository visibilityRepo = mock(VisibilityRepository.class);
             AtomicReference<Visibility> visibility = new AtomicReference<>(Visibility.EMPTY);
-            doAnswer(i -> completedFuture(visibility.get())).when(visibilityRepo).getVisibility("doc1");
-            doAnswer(i -> completedFuture(visibility.get().isVisibleTo(remote1))).when(visibilityRepo).isVisibleTo(remote1, "doc1");
-            doAnswer(i -> completedFuture(visibility.get().isVisibleTo(remote2))).when(visibilityRepo).isVisibleTo(remote2, "doc1");
-            doAnswer(inv -> {
-                visibility.updateAndGet(v -> v.add(remote1.name));
-                return completedFuture(Done.getInstance());
-            }).when(visibilityRepo).makeVisibleTo(remote1, "doc1");
-            doAnswer(inv -> {
-                visibility.updateAndGet(v -> v.add(remote2.name));
-                return completedFuture(Done.getInstance());
-            }).when(visibilityRepo).makeVisibleTo(remote2, "doc1");
-            doAnswer(inv -> {
-                visibility.updateAndGet(v -> v.withMaster(true));
-                return completedFuture(Done.getInstance());
-            }).when(visibilityRepo).setMaster("doc1", true);
+            mockVisibility(visibilityRepo, visibility, new ConcurrentLinkedQueue<>());
             
             AtomicLong lastOffset1 = new AtomicLong();
             AtomicLong lastOffset2 = new AtomicLong();
@@ -149,8 +152,7 @@ public class DataCenterForwarderSpec extends SharedActorSystemSpec {
             when(dataRepo.getRemotes()).thenReturn(HashMap.of(remote1.getName(), remote1));
             
             VisibilityRepository visibilityRepo = mock(VisibilityRepository.class);
-            doAnswer(i -> completedFuture(HashSet.empty())).when(visibilityRepo).getVisibility("doc1");
-            doAnswer(i -> completedFuture(false)).when(visibilityRepo).isVisibleTo(remote1, "doc1");
+            mockVisibility(visibilityRepo, new AtomicReference<>(Visibility.EMPTY), new ConcurrentLinkedQueue<>());
             doAnswer(i -> completedFuture(100000l)).when(visibilityRepo).getLastEventOffset(remote1, "TestEvent");
             
             CompletableFuture<EventEnvelope> realTimeEvent = new CompletableFuture<>(); // this will be completed with event3 later on in the test
@@ -175,15 +177,8 @@ public class DataCenterForwarderSpec extends SharedActorSystemSpec {
             
             VisibilityRepository visibilityRepo = mock(VisibilityRepository.class);
             AtomicReference<Visibility> visibility = new AtomicReference<>(Visibility.EMPTY);
-            doAnswer(i -> completedFuture(visibility.get())).when(visibilityRepo).getVisibility("doc1");
-            doAnswer(i -> completedFuture(visibility.get().isVisibleTo(remote1))).when(visibilityRepo).isVisibleTo(remote1, "doc1");
-            doAnswer(inv -> {
-                visibility.updateAndGet(v -> v.add("remote1"));
-                return completedFuture(Done.getInstance());
-            }).when(visibilityRepo).makeVisibleTo(remote1, "doc1");
-            doAnswer(inv -> {
-                return completedFuture(Done.getInstance());
-            }).when(visibilityRepo).setMaster("doc1", false);
+            ConcurrentLinkedQueue<VisibilityChange> changes = new ConcurrentLinkedQueue<>();
+            mockVisibility(visibilityRepo, visibility, changes);
             
             AtomicLong lastOffset1 = new AtomicLong();
             doAnswer(i -> completedFuture(lastOffset1.get())).when(visibilityRepo).getLastEventOffset(remote1, "TestEvent");
@@ -201,7 +196,7 @@ public class DataCenterForwarderSpec extends SharedActorSystemSpec {
             system.actorOf(Props.create(DataCenterForwarder.class, () -> new DataCenterForwarder<>(materializer, remote1, visibilityRepo, TestEvent.class, qTag, qPid)));
             
             Thread.sleep(200); // allow the actor to do some work
-            verify(visibilityRepo).setMaster("doc1", false);
+            assertThat(changes).contains(VisibilityChange.setMaster("doc1", false));
             assertThat(remote1.events).isEmpty();
             assertThat(visibility.get().isMaster()).isFalse();
             assertThat(visibility.get().isVisibleTo(remote1)).isFalse();
@@ -0,0 +1,151 @@
+package com.tradeshift.reaktive.replication;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.beforeEach;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.tradeshift.reaktive.replication.TestData.TestEvent;
+import com.typesafe.config.ConfigFactory;
+
+import akka.Done;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Sequence;
+import akka.persistence.query.javadsl.CurrentEventsByPersistenceIdQuery;
+import akka.persistence.query.javadsl.CurrentPersistenceIdsQuery;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Source;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.Seq;
+import io.vavr.control.Option;
+
+public class InitialSyncSpec extends SharedActorSystemSpec {
+    private class TestDataCenter implements DataCenter {
+        private final ConcurrentLinkedQueue<EventEnvelope> events = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public String getName() {
+            return "remote1";
+        }
+
+        @Override
+        public Flow<EventEnvelope, Long, ?> uploadFlow() {
+            return Flow.<EventEnvelope>create().map(e -> {
+                events.add(e);
+                return e.sequenceNr();
+            });
+        }
+    }
+
+    private static EventEnvelope event(String persistenceId, long sequenceNr, String msg) {
+        return new EventEnvelope(Sequence.apply(sequenceNr), persistenceId, sequenceNr, TestEvent.newBuilder().setMsg(msg).build());
+    }
+
+    private TestDataCenter remote;
+    private VisibilityRepository visibilityRepo;
+    private ConcurrentLinkedQueue<VisibilityChange> changes;
+    private AtomicLong lastEventOffset;
+    private InitialSync<TestEvent> sync;
+
+{
+    describe("InitialSync", () -> {
+        beforeEach(() -> {
+            remote = new TestDataCenter();
+            changes = new ConcurrentLinkedQueue<>();
+            lastEventOffset = new AtomicLong();
+
+            visibilityRepo = mock(VisibilityRepository.class);
+            doAnswer(i -> completedFuture(Option.none())).when(visibilityRepo).getInitialSyncStart(remote, "TestEvent");
+            doAnswer(i -> completedFuture(Done.getInstance())).when(visibilityRepo).setInitialSyncStart(eq(remote), eq("TestEvent"), anyLong());
+            doAnswer(i -> {
+                lastEventOffset.set(i.getArgumentAt(2, Long.class));
+                return completedFuture(Done.getInstance());
+            }).when(visibilityRepo).setLastEventOffset(eq(remote), eq("TestEvent"), anyLong());
+            // doc3 has been synced before
+            doAnswer(i -> completedFuture(HashMap.of("doc3", new Visibility(HashSet.of("remote1"), true)))).when(visibilityRepo).getVisibilities(any());
+            doAnswer(i -> {
+                @SuppressWarnings("unchecked")
+                Seq<VisibilityChange> written = i.getArgumentAt(0, Seq.class);
+                written.forEach(changes::add);
+                return completedFuture(Done.getInstance());
+            }).when(visibilityRepo).update(any());
+
+            CurrentPersistenceIdsQuery qIds = mock(CurrentPersistenceIdsQuery.class);
+            when(qIds.currentPersistenceIds()).thenReturn(Source.from(Arrays.asList("doc1", "doc2", "doc3")));
+
+            CurrentEventsByPersistenceIdQuery qPid = mock(CurrentEventsByPersistenceIdQuery.class);
+            when(qPid.currentEventsByPersistenceId("doc1", 0, Long.MAX_VALUE)).thenReturn(Source.from(Arrays.asList(
+                event("doc1", 1, "dc:local"), event("doc1", 2, "dc:remote1"), event("doc1", 3, "hello"))));
+            when(qPid.currentEventsByPersistenceId("doc2", 0, Long.MAX_VALUE)).thenReturn(Source.from(Arrays.asList(
+                event("doc2", 1, "dc:other"), event("doc2", 2, "dc:remote1"))));
+
+            sync = new InitialSync<>(materializer, remote, visibilityRepo, "TestEvent", TestEvent.class, new TestEventClassifier(), "local", qIds, qPid,
+                new ReplicationMetrics("remote1", "TestEvent"), ConfigFactory.parseString("parallelism = 2, batch-size = 2"));
+        });
+
+        it("should upload all events of persistenceIds that are mastered here and visible to the data center", () -> {
+            long start = sync.run().toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+            assertThat(remote.events).extracting(EventEnvelope::persistenceId).containsOnly("doc1");
+            assertThat(remote.events).extracting(EventEnvelope::sequenceNr).containsExactly(1l, 2l, 3l);
+            assertThat(changes).containsOnly(VisibilityChange.setMaster("doc1", true), VisibilityChange.makeVisibleTo("doc1", "remote1"));
+            assertThat(lastEventOffset.get()).isEqualTo(start);
+        });
+
+        it("should not upload a persistenceId mastered here whose only event isn't visible to the data center", () -> {
+            CurrentPersistenceIdsQuery qIds = mock(CurrentPersistenceIdsQuery.class);
+            when(qIds.currentPersistenceIds()).thenReturn(Source.single("doc4"));
+            CurrentEventsByPersistenceIdQuery qPid = mock(CurrentEventsByPersistenceIdQuery.class);
+            when(qPid.currentEventsByPersistenceId("doc4", 0, Long.MAX_VALUE)).thenReturn(Source.single(event("doc4", 1, "dc:local")));
+            sync = new InitialSync<>(materializer, remote, visibilityRepo, "TestEvent", TestEvent.class, new TestEventClassifier(), "local", qIds, qPid,
+                new ReplicationMetrics("remote1", "TestEvent"), ConfigFactory.parseString("parallelism = 2, batch-size = 2"));
+
+            sync.run().toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+            assertThat(remote.events).isEmpty();
+            assertThat(changes).containsOnly(VisibilityChange.setMaster("doc4", true));
+        });
+
+        it("should skip persistenceIds in the journal whose events are of another type", () -> {
+            CurrentPersistenceIdsQuery qIds = mock(CurrentPersistenceIdsQuery.class);
+            when(qIds.currentPersistenceIds()).thenReturn(Source.from(Arrays.asList("other1", "doc1")));
+            CurrentEventsByPersistenceIdQuery qPid = mock(CurrentEventsByPersistenceIdQuery.class);
+            when(qPid.currentEventsByPersistenceId("other1", 0, Long.MAX_VALUE)).thenReturn(Source.from(Arrays.asList(
+                new EventEnvelope(Sequence.apply(1), "other1", 1, "dc:local"), new EventEnvelope(Sequence.apply(2), "other1", 2, "dc:remote1"))));
+            when(qPid.currentEventsByPersistenceId("doc1", 0, Long.MAX_VALUE)).thenReturn(Source.from(Arrays.asList(
+                event("doc1", 1, "dc:local"), event("doc1", 2, "dc:remote1"))));
+            sync = new InitialSync<>(materializer, remote, visibilityRepo, "TestEvent", TestEvent.class, new TestEventClassifier(), "local", qIds, qPid,
+                new ReplicationMetrics("remote1", "TestEvent"), ConfigFactory.parseString("parallelism = 2, batch-size = 2"));
+
+            long start = sync.run().toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+            assertThat(remote.events).extracting(EventEnvelope::persistenceId).containsOnly("doc1");
+            assertThat(changes).containsOnly(VisibilityChange.setMaster("doc1", true), VisibilityChange.makeVisibleTo("doc1", "remote1"));
+            assertThat(lastEventOffset.get()).isEqualTo(start);
+        });
+
+        it("should resume from the start offset of a previous run", () -> {
+            doAnswer(i -> completedFuture(Option.some(1234l))).when(visibilityRepo).getInitialSyncStart(remote, "TestEvent");
+
+            assertThat(sync.run().toCompletableFuture().get(10, TimeUnit.SECONDS)).isEqualTo(1234l);
+            assertThat(lastEventOffset.get()).isEqualTo(1234l);
+            verify(visibilityRepo, never()).setInitialSyncStart(eq(remote), eq("TestEvent"), anyLong());
+        });
+    });
+}
+}
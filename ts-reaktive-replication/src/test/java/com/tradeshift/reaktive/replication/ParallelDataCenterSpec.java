@@ -0,0 +1,113 @@
+package com.tradeshift.reaktive.replication;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.tradeshift.reaktive.akka.rest.EventMarshallers;
+
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Sequence;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import scala.concurrent.duration.FiniteDuration;
+
+public class ParallelDataCenterSpec extends SharedActorSystemSpec {
+    /**
+     * Acknowledges each event immediately, except for events of the "slow" persistenceId, and remembers which connection
+     * each persistenceId was sent on. A connection is closed when it receives an event of the "closing" persistenceId.
+     */
+    private static class TestDataCenter implements DataCenter {
+        private final AtomicInteger connections = new AtomicInteger();
+        private final ConcurrentHashMap<String, List<Integer>> connectionsByPersistenceId = new ConcurrentHashMap<>();
+
+        @Override
+        public String getName() {
+            return "remote";
+        }
+
+        @Override
+        public Flow<EventEnvelope, Long, ?> uploadFlow() {
+            int connection = connections.getAndIncrement();
+            return Flow.<EventEnvelope>create()
+                .map(e -> {
+                    connectionsByPersistenceId.computeIfAbsent(e.persistenceId(), pid -> new ArrayList<>()).add(connection);
+                    return e;
+                })
+                .takeWhile(e -> !e.persistenceId().equals("closing"))
+                .filter(e -> !e.persistenceId().equals("slow"))
+                .map(EventMarshallers::getOffsetAsEpoch);
+        }
+    }
+
+    private static EventEnvelope event(long offset, String persistenceId) {
+        return new EventEnvelope(Sequence.apply(offset), persistenceId, offset, new byte[] { 42 });
+    }
+
+    private List<Long> upload(DataCenter dataCenter, EventEnvelope... events) throws Exception {
+        return Source.from(Arrays.asList(events))
+            .via(dataCenter.uploadFlow())
+            .takeWithin(FiniteDuration.create(500, TimeUnit.MILLISECONDS))
+            .runWith(Sink.seq(), materializer)
+            .toCompletableFuture()
+            .get(10, TimeUnit.SECONDS);
+    }
+
+{
+    describe("ParallelDataCenter", () -> {
+        it("should send all events of one persistenceId over the same connection", () -> {
+            TestDataCenter remote = new TestDataCenter();
+            List<Long> acks = upload(new ParallelDataCenter(remote, 2),
+                event(1, "doc1"), event(2, "doc2"), event(3, "doc1"), event(4, "doc2"), event(5, "doc3"));
+
+            assertThat(remote.connections.get()).isEqualTo(2);
+            assertThat(remote.connectionsByPersistenceId.get("doc1")).hasSize(2).containsOnly(remote.connectionsByPersistenceId.get("doc1").get(0));
+            assertThat(remote.connectionsByPersistenceId.get("doc2")).hasSize(2).containsOnly(remote.connectionsByPersistenceId.get("doc2").get(0));
+            assertThat(remote.connectionsByPersistenceId.get("doc1").get(0)).isNotEqualTo(remote.connectionsByPersistenceId.get("doc2").get(0));
+            assertThat(acks).isSorted();
+            assertThat(acks.get(acks.size() - 1)).isEqualTo(5l);
+        });
+
+        it("should only emit offsets up to which all connections have acknowledged all events", () -> {
+            // "fast" and "slow" end up on different connections
+            List<Long> acks = upload(new ParallelDataCenter(new TestDataCenter(), 2),
+                event(1, "fast"), event(2, "slow"), event(3, "fast"), event(4, "fast"));
+
+            assertThat(acks).containsExactly(1l);
+        });
+
+        it("should fail the upload when one of the connections is closed", () -> {
+            assertThatThrownBy(() ->
+                Source.from(Arrays.asList(event(1, "doc1"), event(2, "closing"), event(3, "doc1")))
+                    .concat(Source.maybe())
+                    .via(new ParallelDataCenter(new TestDataCenter(), 2).uploadFlow())
+                    .runWith(Sink.ignore(), materializer)
+                    .toCompletableFuture()
+                    .get(10, TimeUnit.SECONDS)
+            ).isInstanceOf(ExecutionException.class).hasCauseInstanceOf(IllegalStateException.class);
+        });
+
+        it("should upload over a single connection for a single persistenceId", () -> {
+            TestDataCenter remote = new TestDataCenter();
+            List<Long> acks = Source.from(Arrays.asList(event(1, "doc1"), event(2, "doc1")))
+                .via(new ParallelDataCenter(remote, 2).singleConnectionUploadFlow())
+                .runWith(Sink.seq(), materializer)
+                .toCompletableFuture()
+                .get(10, TimeUnit.SECONDS);
+
+            assertThat(remote.connections.get()).isEqualTo(1);
+            assertThat(acks).containsExactly(1l, 2l);
+        });
+    });
+}
+}
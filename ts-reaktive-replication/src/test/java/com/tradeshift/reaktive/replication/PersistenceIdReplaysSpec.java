@@ -0,0 +1,116 @@
+package com.tradeshift.reaktive.replication;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.beforeEach;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import akka.Done;
+
+@RunWith(CuppaRunner.class)
+public class PersistenceIdReplaysSpec {
+    private PersistenceIdReplays replays;
+    private List<CompletableFuture<Long>> started;
+
+    private Supplier<CompletionStage<Long>> run() {
+        return () -> {
+            CompletableFuture<Long> f = new CompletableFuture<>();
+            started.add(f);
+            return f;
+        };
+    }
+
+{
+    describe("PersistenceIdReplays", () -> {
+        beforeEach(() -> {
+            replays = new PersistenceIdReplays(2);
+            started = new ArrayList<>();
+        });
+
+        it("should run no more replays than its concurrency budget, queueing the rest", () -> {
+            replays.replay("dc", "doc1", 1, run());
+            replays.replay("dc", "doc2", 1, run());
+            CompletionStage<Done> third = replays.replay("dc", "doc3", 1, run());
+
+            assertThat(started).hasSize(2);
+            assertThat(replays.getQueued()).isEqualTo(1);
+
+            started.get(0).complete(1l);
+            assertThat(started).hasSize(3);
+            assertThat(replays.getRunning()).isEqualTo(2);
+            assertThat(third.toCompletableFuture().isDone()).isFalse();
+
+            started.get(2).complete(1l);
+            assertThat(third.toCompletableFuture().isDone()).isTrue();
+        });
+
+        it("should merge triggers for a replay that is still queued", () -> {
+            replays.replay("dc", "doc1", 1, run());
+            replays.replay("dc", "doc2", 1, run());
+            CompletionStage<Done> a = replays.replay("dc", "doc3", 1, run());
+            CompletionStage<Done> b = replays.replay("dc", "doc3", 2, run());
+
+            assertThat(replays.getQueued()).isEqualTo(1);
+            started.get(0).complete(1l);
+            started.get(1).complete(1l);
+            started.get(2).complete(2l);
+
+            assertThat(started).hasSize(3);
+            assertThat(a.toCompletableFuture().isDone()).isTrue();
+            assertThat(b.toCompletableFuture().isDone()).isTrue();
+        });
+
+        it("should treat the same persistenceId for different data centers as different replays", () -> {
+            replays.replay("dc1", "doc1", 1, run());
+            replays.replay("dc2", "doc1", 1, run());
+
+            assertThat(started).hasSize(2);
+        });
+
+        it("should skip a follow-up replay if the running replay already covered its trigger", () -> {
+            CompletionStage<Done> a = replays.replay("dc", "doc1", 1, run());
+            CompletionStage<Done> b = replays.replay("dc", "doc1", 2, run());
+
+            assertThat(started).hasSize(1);
+            started.get(0).complete(2l);
+
+            assertThat(started).hasSize(1);
+            assertThat(a.toCompletableFuture().isDone()).isTrue();
+            assertThat(b.toCompletableFuture().isDone()).isTrue();
+        });
+
+        it("should run a single follow-up replay for triggers that the running replay did not cover", () -> {
+            CompletionStage<Done> a = replays.replay("dc", "doc1", 1, run());
+            CompletionStage<Done> b = replays.replay("dc", "doc1", 2, run());
+            CompletionStage<Done> c = replays.replay("dc", "doc1", 3, run());
+
+            started.get(0).complete(1l);
+            assertThat(a.toCompletableFuture().isDone()).isTrue();
+            assertThat(b.toCompletableFuture().isDone()).isFalse();
+            assertThat(started).hasSize(2);
+
+            started.get(1).complete(3l);
+            assertThat(b.toCompletableFuture().isDone()).isTrue();
+            assertThat(c.toCompletableFuture().isDone()).isTrue();
+            assertThat(replays.getRunning()).isEqualTo(0);
+        });
+
+        it("should fail the triggers of a replay that fails", () -> {
+            CompletionStage<Done> a = replays.replay("dc", "doc1", 1, run());
+            started.get(0).completeExceptionally(new IllegalStateException("simulated failure"));
+
+            assertThat(a.toCompletableFuture().isCompletedExceptionally()).isTrue();
+            assertThat(replays.getRunning()).isEqualTo(0);
+        });
+    });
+}
+}
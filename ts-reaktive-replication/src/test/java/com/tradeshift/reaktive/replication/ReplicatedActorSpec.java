@@ -7,6 +7,7 @@ import static org.forgerock.cuppa.Cuppa.it;
 import static org.forgerock.cuppa.Cuppa.when;
 
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import com.google.protobuf.ByteString;
 import com.tradeshift.reaktive.protobuf.Query;
@@ -24,6 +25,8 @@ import akka.actor.Status.Failure;
 import akka.persistence.query.EventEnvelope;
 import akka.testkit.javadsl.TestKit;
 import io.vavr.collection.Seq;
+import io.vavr.collection.Vector;
+import scala.concurrent.duration.Duration;
 
 public class ReplicatedActorSpec extends SharedActorSystemSpec {
     TestCommand.Builder cmd() {
@@ -31,6 +34,17 @@ public class ReplicatedActorSpec extends SharedActorSystemSpec {
         return TestCommand.newBuilder().setAggregateId(Types.UUID.newBuilder().setLeastSignificantBits(0).setMostSignificantBits(0));
     }
     
+    Query.EventEnvelope envelope(long seq) {
+        return Query.EventEnvelope.newBuilder()
+            .setEvent(
+                ByteString.copyFrom(TestEvent.newBuilder().setMsg("event " + seq).build().toByteArray())
+            )
+            .setTimestamp(seq * 1000)
+            .setPersistenceId(actor.path().name())
+            .setSequenceNr(seq)
+        .build();
+    }
+    
     ActorRef actor;
     
 {
@@ -196,6 +210,66 @@ public class ReplicatedActorSpec extends SharedActorSystemSpec {
                 sender.expectMsg("third");
             });
             
+            it("should park EventEnvelopes that don't fit in its reorder buffer, and pick them up later", () -> {
+                for (long seq = 250; seq >= 2; seq--) {
+                    actor.tell(envelope(seq), sender.getRef());
+                }
+                
+                assertThat(sender.receiveN(249, Duration.create(10, TimeUnit.SECONDS))).hasSize(249);
+                
+                sender.awaitAssert(() -> {
+                    actor.tell(cmd().setRead(TestCommand.Read.newBuilder()).build(), sender.getRef());
+                    return sender.expectMsg("event 250");
+                });
+            });
+            
+            it("should pick up events that were parked past its reorder buffer once it receives an event after restarting", () -> {
+                // Events parked by an earlier incarnation, which was stopped before it got to unpark them
+                ParkingStore parkingStore = ReplicationId.INSTANCE.get(system).getParkingStore();
+                for (long seq = 2; seq <= 150; seq++) {
+                    parkingStore.park(envelope(seq)).toCompletableFuture().get(10, TimeUnit.SECONDS);
+                }
+                sender.watch(actor);
+                actor.tell(PoisonPill.getInstance(), sender.getRef());
+                sender.expectTerminated(actor);
+                
+                // The name, which is the persistenceId, is only released some time after the actor has terminated
+                String name = actor.path().name();
+                actor = sender.awaitAssert(() -> system.actorOf(Props.create(ReplicatedTestActor.class, () -> new ReplicatedTestActor()), name));
+                actor.tell(envelope(151), sender.getRef());
+                sender.expectMsg(151000l);
+                
+                sender.awaitAssert(() -> {
+                    actor.tell(cmd().setRead(TestCommand.Read.newBuilder()).build(), sender.getRef());
+                    return sender.expectMsg("event 151");
+                });
+                sender.awaitAssert(() ->
+                    assertThat(parkingStore.load(actor.path().name(), 0, 1000).toCompletableFuture().join()).isEqualTo(Vector.empty()));
+            });
+            
+            it("should remove a parked event from the parking store when it's re-sent live and persisted", () -> {
+                for (long seq = 250; seq >= 3; seq--) {
+                    actor.tell(envelope(seq), sender.getRef());
+                }
+                // The reorder buffer holds 3..102, so 103..250 are parked and acknowledged.
+                assertThat(sender.receiveN(148, Duration.create(10, TimeUnit.SECONDS))).hasSize(148);
+                
+                // The remote data center re-sends everything after its asks time out
+                for (long seq = 2; seq <= 250; seq++) {
+                    actor.tell(envelope(seq), sender.getRef());
+                }
+                // One for each re-sent event, and one for each originally buffered event
+                assertThat(sender.receiveN(349, Duration.create(10, TimeUnit.SECONDS))).hasSize(349);
+                
+                sender.awaitAssert(() -> {
+                    actor.tell(cmd().setRead(TestCommand.Read.newBuilder()).build(), sender.getRef());
+                    return sender.expectMsg("event 250");
+                });
+                ParkingStore parkingStore = ReplicationId.INSTANCE.get(system).getParkingStore();
+                sender.awaitAssert(() ->
+                    assertThat(parkingStore.load(actor.path().name(), 0, 1000).toCompletableFuture().join()).isEqualTo(Vector.empty()));
+            });
+            
             it("should process non-command messages normally", () -> {
                 sender.send(actor, "hello");
                 sender.expectMsg("You sent: hello");
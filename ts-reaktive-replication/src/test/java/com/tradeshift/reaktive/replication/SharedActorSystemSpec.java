@@ -15,6 +15,7 @@ public abstract class SharedActorSystemSpec extends com.tradeshift.reaktive.test
     public SharedActorSystemSpec() {
         super(ConfigFactory.parseMap(HashMap
             .of("ts-reaktive.replication.local-datacenter.name","local")
+            .put("ts-reaktive.replication.parking.store", "local")
             .put("ts-reaktive.replication.event-classifiers.\"com.tradeshift.reaktive.replication.TestData$TestEvent\"", TestEventClassifier.class.getName())
             .toJavaMap()
         ));
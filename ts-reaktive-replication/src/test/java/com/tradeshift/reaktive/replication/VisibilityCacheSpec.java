@@ -0,0 +1,107 @@
+package com.tradeshift.reaktive.replication;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.cuppa.Cuppa.beforeEach;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+import static org.forgerock.cuppa.Cuppa.when;
+import static org.mockito.Mockito.mock;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.cuppa.junit.CuppaRunner;
+import org.junit.runner.RunWith;
+
+import io.vavr.collection.HashSet;
+import io.vavr.control.Option;
+
+@RunWith(CuppaRunner.class)
+public class VisibilityCacheSpec {
+    private final AtomicLong now = new AtomicLong();
+    private final Visibility visibility = new Visibility(HashSet.of("remote1"), true);
+    private VisibilityCache cache;
+
+{
+    describe("VisibilityCache", () -> {
+        beforeEach(() -> {
+            now.set(0);
+            cache = new VisibilityCache(2, Duration.ofMinutes(1), now::get);
+        });
+
+        it("should return a visibility that was put", () -> {
+            cache.put("doc1", visibility, cache.version("doc1"));
+            assertThat(cache.get("doc1")).isEqualTo(Option.some(visibility));
+            assertThat(cache.get("doc2")).isEqualTo(Option.none());
+        });
+
+        it("should evict the least recently used entry when exceeding its maximum size", () -> {
+            cache.put("doc1", visibility, cache.version("doc1"));
+            cache.put("doc2", visibility, cache.version("doc2"));
+            cache.get("doc1");
+            cache.put("doc3", visibility, cache.version("doc3"));
+
+            assertThat(cache.size()).isEqualTo(2);
+            assertThat(cache.get("doc1").isDefined()).isTrue();
+            assertThat(cache.get("doc2").isDefined()).isFalse();
+            assertThat(cache.get("doc3").isDefined()).isTrue();
+        });
+
+        it("should expire entries after the TTL", () -> {
+            cache.put("doc1", visibility, cache.version("doc1"));
+            now.set(Duration.ofSeconds(59).toNanos());
+            assertThat(cache.get("doc1").isDefined()).isTrue();
+            now.set(Duration.ofSeconds(60).toNanos());
+            assertThat(cache.get("doc1").isDefined()).isFalse();
+            assertThat(cache.size()).isEqualTo(0);
+        });
+
+        it("should apply updates to cached entries, keeping their expiry time", () -> {
+            DataCenter remote1 = mock(DataCenter.class);
+            org.mockito.Mockito.when(remote1.getName()).thenReturn("remote1");
+            cache.put("doc1", Visibility.EMPTY, cache.version("doc1"));
+            now.set(Duration.ofSeconds(30).toNanos());
+            cache.update("doc1", v -> v.add("remote1").withMaster(true));
+
+            Visibility updated = cache.get("doc1").get();
+            assertThat(updated.isVisibleTo(remote1)).isTrue();
+            assertThat(updated.isMaster()).isTrue();
+
+            now.set(Duration.ofSeconds(60).toNanos());
+            assertThat(cache.get("doc1").isDefined()).isFalse();
+        });
+
+        it("should not cache a value that was loaded before an update", () -> {
+            long version = cache.version("doc1");
+            cache.update("doc1", v -> v.withMaster(true));
+            cache.put("doc1", Visibility.EMPTY, version);
+            assertThat(cache.get("doc1").isDefined()).isFalse();
+        });
+
+        it("should cache a value that was loaded while another persistenceId was updated", () -> {
+            long version = cache.version("doc1");
+            cache.update("doc2", v -> v.withMaster(true));
+            cache.put("doc1", Visibility.EMPTY, version);
+            assertThat(cache.get("doc1").isDefined()).isTrue();
+        });
+
+        it("should not cache a value that was loaded before an update, even if that update has been forgotten", () -> {
+            long version = cache.version("doc1");
+            cache.update("doc1", v -> v.withMaster(true));
+            cache.update("doc2", v -> v.withMaster(true));
+            cache.update("doc3", v -> v.withMaster(true));
+            cache.put("doc1", Visibility.EMPTY, version);
+            assertThat(cache.get("doc1").isDefined()).isFalse();
+        });
+
+        when("disabled", () -> {
+            it("should not hold any entries", () -> {
+                VisibilityCache disabled = VisibilityCache.disabled();
+                disabled.put("doc1", visibility, disabled.version("doc1"));
+                assertThat(disabled.get("doc1").isDefined()).isFalse();
+                assertThat(disabled.size()).isEqualTo(0);
+            });
+        });
+    });
+}
+}
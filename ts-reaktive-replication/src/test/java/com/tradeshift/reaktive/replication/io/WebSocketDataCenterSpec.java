@@ -0,0 +1,300 @@
+package com.tradeshift.reaktive.replication.io;
+
+import static com.tradeshift.reaktive.testkit.Await.eventuallyDo;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.forgerock.cuppa.Cuppa.after;
+import static org.forgerock.cuppa.Cuppa.before;
+import static org.forgerock.cuppa.Cuppa.describe;
+import static org.forgerock.cuppa.Cuppa.it;
+import static org.forgerock.cuppa.Cuppa.when;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import com.tradeshift.reaktive.protobuf.Query;
+import com.tradeshift.reaktive.protobuf.ReplicationMessages.EventsPersisted;
+import com.tradeshift.reaktive.replication.SharedActorSystemSpec;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import akka.NotUsed;
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.http.javadsl.ConnectHttp;
+import akka.http.javadsl.ConnectionContext;
+import akka.http.javadsl.Http;
+import akka.http.javadsl.ServerBinding;
+import akka.http.javadsl.model.ws.BinaryMessage;
+import akka.http.javadsl.model.ws.Message;
+import akka.http.javadsl.model.ws.WebSocket;
+import akka.http.javadsl.model.ws.WebSocketRequest;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Sequence;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.testkit.javadsl.TestKit;
+import akka.util.ByteString;
+import io.vavr.collection.HashMap;
+
+public class WebSocketDataCenterSpec extends SharedActorSystemSpec {
+    /**
+     * Stands in for a shard region, replying to each event with its timestamp, as ReplicatedActor would.
+     */
+    public static class TimestampReplier extends AbstractActor {
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                .match(Query.EventEnvelope.class, e -> sender().tell(e.getTimestamp(), self()))
+                .build();
+        }
+    }
+
+    private static final String uri = "ws://127.0.0.1:8623/events/TestEvent";
+
+    private ServerBinding binding;
+
+    private WebSocketDataCenterClient client(String settings) {
+        return client(settings, uri);
+    }
+
+    private WebSocketDataCenterClient client(String settings, String uri) {
+        Config config = ConfigFactory.parseString(settings).withFallback(system.settings().config().getConfig("ts-reaktive.replication.client"));
+        return new WebSocketDataCenterClient(system, ConnectionContext.noEncryption(), "remote", "TestEvent", uri, config);
+    }
+
+    /**
+     * Binds a server that, like servers before batching was introduced, doesn't know any sub-protocols, and acknowledges
+     * each event in its own message.
+     */
+    private void bindUnbatched() throws Exception {
+        Flow<Message,Message,NotUsed> acknowledge = Flow.<Message>create().map(msg -> {
+            Query.EventEnvelope e = Query.EventEnvelope.parseFrom(msg.asBinaryMessage().getStrictData().iterator().asInputStream());
+            return (Message) BinaryMessage.create(ByteString.fromArray(EventsPersisted.newBuilder().setOffset(e.getTimestamp()).build().toByteArray()));
+        });
+        binding = Http.get(system).bindAndHandleSync(
+            request -> WebSocket.handleWebSocketRequestWith(request, acknowledge),
+            ConnectHttp.toHost("127.0.0.1", 8624), materializer
+        ).toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    private void bind(ActorRef shardRegion) throws Exception {
+        bind(shardRegion, "");
+    }
+
+    private void bind(ActorRef shardRegion, String settings) throws Exception {
+        Config config = ConfigFactory.parseString(settings).withFallback(system.settings().config().getConfig("ts-reaktive.replication.server"));
+        binding = new WebSocketDataCenterServer(system, HashMap.of("TestEvent", shardRegion), config).getBinding()
+            .toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    private void unbind() throws Exception {
+        binding.unbind().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Sends the given bytes as a single message of the deflated sub-protocol, returning the number of messages received
+     * back once the server has closed the connection.
+     */
+    private int sendDeflated(ByteString bytes) throws Exception {
+        Flow<Message,Message,CompletionStage<List<Message>>> flow = Flow.fromSinkAndSourceMat(
+            Sink.<Message>seq(), Source.<Message>single(BinaryMessage.create(bytes)).concat(Source.maybe()), Keep.left());
+        return Http.get(system).singleWebSocketRequest(
+            WebSocketRequest.create(uri).requestSubprotocol(WebSocketDataCenterServer.BATCHED_DEFLATE_PROTOCOL), flow, materializer)
+            .second()
+            .handle((msgs, x) -> (msgs == null) ? 0 : msgs.size())
+            .toCompletableFuture()
+            .get(10, TimeUnit.SECONDS);
+    }
+
+    private List<Long> upload(WebSocketDataCenterClient client, int count) throws Exception {
+        return Source.range(1, count)
+            .map(i -> new EventEnvelope(Sequence.apply(i), "doc1", i, new byte[] { 42 }))
+            .via(client.uploadFlow())
+            // the web socket stays open, so we stop once the last event has been acknowledged
+            .takeWhile(offset -> offset < count, true)
+            .runWith(Sink.seq(), materializer)
+            .toCompletableFuture()
+            .get(10, TimeUnit.SECONDS);
+    }
+
+{
+    describe("Deflate", () -> {
+        it("should inflate what it has deflated", () -> {
+            ByteString bytes = ByteString.fromString(String.join(",", Collections.nCopies(1000, "persistence-id")));
+            ByteString deflated = Deflate.deflate(bytes, 1);
+
+            assertThat(deflated.size()).isLessThan(bytes.size() / 10);
+            assertThat(Deflate.inflate(deflated, bytes.size())).isEqualTo(bytes);
+        });
+
+        it("should refuse to inflate beyond the maximum size", () -> {
+            ByteString bytes = ByteString.fromArray(new byte[100000]);
+            ByteString deflated = Deflate.deflate(bytes, 9);
+
+            assertThatThrownBy(() -> Deflate.inflate(deflated, 99999)).isInstanceOf(IOException.class).hasMessageContaining("maximum size");
+        });
+    });
+
+    describe("WebSocketDataCenterClient and WebSocketDataCenterServer", () -> {
+        when("the shard region replies immediately", () -> {
+            before(() -> {
+                bind(system.actorOf(Props.create(TimestampReplier.class)));
+            });
+
+            after(() -> unbind());
+
+            it("should acknowledge each batch with the offset of its last event", () -> {
+                List<Long> acks = upload(client("max-batch-size = 100, compression = none"), 250);
+
+                assertThat(acks.get(acks.size() - 1)).isEqualTo(250l);
+                assertThat(acks.size()).isLessThan(250);
+                assertThat(acks).isSorted();
+            });
+
+            it("should acknowledge each deflated batch with the offset of its last event", () -> {
+                List<Long> acks = upload(client("max-batch-size = 100, compression = deflate"), 250);
+
+                assertThat(acks.get(acks.size() - 1)).isEqualTo(250l);
+                assertThat(acks.size()).isLessThan(250);
+                assertThat(acks).isSorted();
+            });
+
+            it("should acknowledge every event if the client sends one event per message", () -> {
+                List<Long> acks = upload(client("max-batch-size = 1"), 10);
+
+                assertThat(acks).containsExactly(1l, 2l, 3l, 4l, 5l, 6l, 7l, 8l, 9l, 10l);
+            });
+        });
+
+        when("the server doesn't know any sub-protocols", () -> {
+            before(() -> bindUnbatched());
+
+            after(() -> unbind());
+
+            it("should offer the next sub-protocol on each new connection, until it sends one event per message", () -> {
+                WebSocketDataCenterClient client = client("max-batch-size = 100, compression = deflate", "ws://127.0.0.1:8624/events/TestEvent");
+
+                // Neither the deflated nor the plain batches are accepted
+                assertThat(upload(client, 10)).isEmpty();
+                assertThat(upload(client, 10)).isEmpty();
+
+                assertThat(upload(client, 10)).containsExactly(1l, 2l, 3l, 4l, 5l, 6l, 7l, 8l, 9l, 10l);
+            });
+
+            it("should offer its preferred sub-protocol again once a connection with a less preferred one has closed", () -> {
+                WebSocketDataCenterClient client = client("max-batch-size = 100", "ws://127.0.0.1:8624/events/TestEvent");
+                assertThat(upload(client, 10)).isEmpty();
+                assertThat(upload(client, 10)).containsExactly(1l, 2l, 3l, 4l, 5l, 6l, 7l, 8l, 9l, 10l);
+
+                // The closed connection has the next one offer batches again, which this server still doesn't accept.
+                eventuallyDo(() -> assertThat(upload(client, 10)).isEmpty());
+            });
+        });
+
+        when("a client sends messages larger than max-message-size", () -> {
+            final TestKit shardRegion = new TestKit(system);
+
+            before(() -> {
+                bind(shardRegion.getRef(), "max-message-size = 64 KiB");
+            });
+
+            after(() -> unbind());
+
+            it("should close the connection on a small message that inflates beyond it, without ingesting anything", () -> {
+                ByteString bomb = Deflate.deflate(ByteString.fromArray(new byte[1024 * 1024]), 9);
+                assertThat(bomb.size()).isLessThan(64 * 1024);
+
+                assertThat(sendDeflated(bomb)).isEqualTo(0);
+                shardRegion.expectNoMessage(Duration.ofMillis(100));
+            });
+
+            it("should close the connection on a compressed message that is too large itself", () -> {
+                byte[] random = new byte[128 * 1024];
+                new Random().nextBytes(random);
+
+                assertThat(sendDeflated(ByteString.fromArray(random))).isEqualTo(0);
+                shardRegion.expectNoMessage(Duration.ofMillis(100));
+            });
+        });
+
+        when("one aggregate is slow to persist its events, while ingesting per persistence id", () -> {
+            final TestKit shardRegion = new TestKit(system);
+
+            before(() -> {
+                bind(shardRegion.getRef(), "ingestion = \"per-persistence-id\"");
+            });
+
+            after(() -> unbind());
+
+            it("should keep persisting events of other aggregates, but only acknowledge contiguous events", () -> {
+                CompletionStage<List<Long>> acks = Source.from(Arrays.asList(
+                        new EventEnvelope(Sequence.apply(1), "slow", 1, new byte[] { 42 }),
+                        new EventEnvelope(Sequence.apply(2), "fast", 1, new byte[] { 42 }),
+                        new EventEnvelope(Sequence.apply(3), "fast", 2, new byte[] { 42 })))
+                    .via(client("max-batch-size = 1").uploadFlow())
+                    .takeWhile(offset -> offset < 3, true)
+                    .runWith(Sink.seq(), materializer);
+
+                Query.EventEnvelope slow = shardRegion.expectMsgClass(Query.EventEnvelope.class);
+                ActorRef slowSender = shardRegion.getLastSender();
+                assertThat(slow.getPersistenceId()).isEqualTo("slow");
+
+                for (long offset = 2; offset <= 3; offset++) {
+                    Query.EventEnvelope fast = shardRegion.expectMsgClass(Query.EventEnvelope.class);
+                    assertThat(fast.getPersistenceId()).isEqualTo("fast");
+                    assertThat(fast.getTimestamp()).isEqualTo(offset);
+                    shardRegion.reply(fast.getTimestamp());
+                }
+                assertThat(acks.toCompletableFuture().isDone()).isFalse();
+
+                slowSender.tell(slow.getTimestamp(), ActorRef.noSender());
+                assertThat(acks.toCompletableFuture().get(10, TimeUnit.SECONDS)).containsExactly(1l, 2l, 3l);
+            });
+        });
+
+        when("one aggregate is slow to persist its events, while ingesting per persistence id with a small max-in-flight", () -> {
+            final TestKit shardRegion = new TestKit(system);
+
+            before(() -> {
+                // Each event is followed by the end of its batch, so this leaves room for 2 events.
+                bind(shardRegion.getRef(), "ingestion = \"per-persistence-id\", max-in-flight = 4");
+            });
+
+            after(() -> unbind());
+
+            it("should not send more events than max-in-flight while waiting for the slow aggregate", () -> {
+                CompletionStage<List<Long>> acks = Source.from(Arrays.asList(
+                        new EventEnvelope(Sequence.apply(1), "slow", 1, new byte[] { 42 }),
+                        new EventEnvelope(Sequence.apply(2), "fast", 1, new byte[] { 42 }),
+                        new EventEnvelope(Sequence.apply(3), "fast", 2, new byte[] { 42 })))
+                    .via(client("max-batch-size = 1").uploadFlow())
+                    .takeWhile(offset -> offset < 3, true)
+                    .runWith(Sink.seq(), materializer);
+
+                Query.EventEnvelope slow = shardRegion.expectMsgClass(Query.EventEnvelope.class);
+                ActorRef slowSender = shardRegion.getLastSender();
+                Query.EventEnvelope fast = shardRegion.expectMsgClass(Query.EventEnvelope.class);
+                assertThat(fast.getTimestamp()).isEqualTo(2);
+                shardRegion.reply(fast.getTimestamp());
+                shardRegion.expectNoMessage(Duration.ofMillis(300));
+
+                slowSender.tell(slow.getTimestamp(), ActorRef.noSender());
+                fast = shardRegion.expectMsgClass(Query.EventEnvelope.class);
+                assertThat(fast.getTimestamp()).isEqualTo(3);
+                shardRegion.reply(fast.getTimestamp());
+                assertThat(acks.toCompletableFuture().get(10, TimeUnit.SECONDS)).containsExactly(1l, 2l, 3l);
+            });
+        });
+    });
+}
+}